@@ -0,0 +1,47 @@
+package sk.kedros.sqlitelogger.common;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ch.qos.logback.classic.Level;
+
+/**
+ * Level conversions done for every logged event.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class LogLevelBenchmark {
+
+  private static final int OPERATIONS = 8;
+
+  private final int[] codes = new int[] {10, 20, 30, 40, 50, -1, 30, 20};
+  private final Level[] levels = new Level[] {
+    Level.TRACE, Level.DEBUG, Level.INFO, Level.WARN, Level.ERROR, Level.OFF, Level.INFO, Level.DEBUG,
+  };
+
+  @Benchmark
+  @OperationsPerInvocation(OPERATIONS)
+  public void fromCode(Blackhole blackhole) {
+    for (int code : codes) {
+      blackhole.consume(LogLevel.fromCode(code));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(OPERATIONS)
+  public void fromLogbackLevel(Blackhole blackhole) {
+    for (Level level : levels) {
+      blackhole.consume(LogLevel.fromLogbackLevel(level));
+    }
+  }
+
+}
@@ -0,0 +1,79 @@
+package sk.kedros.sqlitelogger.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import sk.kedros.sqlitelogger.common.LogEvent;
+
+/**
+ * Logback events through {@link SQLiteAppender#append}, from the conversion of the event to the insert. With a
+ * {@code batchSize} of one every event is inserted on its own, otherwise the appender collects the events and
+ * inserts them when the batch is full. The timer flush is off, so every batch has the full size.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class AppendBenchmark {
+
+  @Param({"1", "32", "256"})
+  public int batchSize;
+
+  private File dbFile;
+  private SQLiteAppender appender;
+  private List<ILoggingEvent> events;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dbFile = BenchmarkData.createDbFile();
+    appender = new SQLiteAppender() {
+      @Override
+      LogStorage openStorage() {
+        return BenchmarkData.openStorage(dbFile, getDurability());
+      }
+    };
+    appender.setName("SQLITE");
+    appender.setDurability("balanced");
+    appender.setBatchSize(batchSize);
+    appender.setMaxBatchDelay(0L);
+    appender.start();
+
+    events = new ArrayList<>();
+    for (LogEvent event : BenchmarkData.events(1024, 128)) {
+      LoggingEvent loggingEvent = new LoggingEvent();
+      loggingEvent.setTimeStamp(event.getTimestamp());
+      loggingEvent.setLevel(ch.qos.logback.classic.Level.toLevel(event.getLevel().name()));
+      loggingEvent.setLoggerName(event.getTag());
+      loggingEvent.setMessage(event.getMessage());
+      events.add(loggingEvent);
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    appender.stop();
+    JdbcLogDatabase.delete(dbFile);
+  }
+
+  @Benchmark
+  public void append() {
+    appender.append(events.get(next++ % events.size()));
+  }
+
+}
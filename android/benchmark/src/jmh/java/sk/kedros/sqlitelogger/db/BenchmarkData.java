@@ -0,0 +1,74 @@
+package sk.kedros.sqlitelogger.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import sk.kedros.sqlitelogger.common.LogEvent;
+import sk.kedros.sqlitelogger.common.LogLevel;
+
+/**
+ * Deterministic log events shared by the benchmarks.
+ */
+final class BenchmarkData {
+
+  static final int TAG_COUNT = 32;
+  static final long START_TIMESTAMP = 1_700_000_000_000L;
+  static final long TIME_STEP = 1000; // 1 second between two events
+
+  private static final LogLevel[] LEVELS = new LogLevel[] {
+    LogLevel.TRACE, LogLevel.DEBUG, LogLevel.INFO, LogLevel.WARN, LogLevel.ERROR,
+  };
+
+  private BenchmarkData() {
+  }
+
+  static String tag(int index) {
+    return "tag-" + (index % TAG_COUNT);
+  }
+
+  static String message(Random random, int length) {
+    StringBuilder message = new StringBuilder(length);
+    while (message.length() < length) {
+      message.append("request ").append(random.nextInt(10_000))
+        .append(" finished with status ").append(random.nextInt(5) * 100)
+        .append(" in ").append(random.nextInt(1000)).append(" ms; ");
+    }
+    message.setLength(length);
+    return message.toString();
+  }
+
+  /**
+   * @return events with increasing timestamps, levels and tags spread evenly
+   */
+  static List<LogEvent> events(int count, int messageLength) {
+    Random random = new Random(42);
+    List<LogEvent> events = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      events.add(new LogEvent(
+        null,
+        START_TIMESTAMP + i * TIME_STEP,
+        LEVELS[random.nextInt(LEVELS.length)],
+        message(random, messageLength),
+        tag(random.nextInt(TAG_COUNT))
+      ));
+    }
+    return events;
+  }
+
+  static File createDbFile() throws IOException {
+    File file = File.createTempFile("sqlite-logger-benchmark", ".sqlite");
+    JdbcLogDatabase.delete(file);
+    return file;
+  }
+
+  /**
+   * @return the storage of the app running on sqlite-jdbc
+   */
+  static SQLiteLogStorage openStorage(File file, DurabilityProfile durability) {
+    return new SQLiteLogStorage(JdbcLogDatabase.open(file), durability);
+  }
+
+}
@@ -0,0 +1,86 @@
+package sk.kedros.sqlitelogger.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import sk.kedros.sqlitelogger.common.LogEvent;
+import sk.kedros.sqlitelogger.common.LogQuery;
+import sk.kedros.sqlitelogger.common.SortOrder;
+
+/**
+ * Duration of deleting half of the logs. Every invocation starts from a freshly filled table, so a single
+ * invocation is measured at a time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, batchSize = 1)
+@Measurement(iterations = 20, batchSize = 1)
+public class DeleteLogsBenchmark {
+
+  private static final int LOG_COUNT = 20_000;
+
+  @Param({"timeRange", "maxId", "expiredChunks"})
+  public String mode;
+
+  private File dbFile;
+  private SQLiteLogStorage storage;
+  private List<LogEvent> events;
+  private long middleTimestamp;
+  private long middleId;
+
+  @Setup(Level.Trial)
+  public void setUpTrial() throws IOException {
+    dbFile = BenchmarkData.createDbFile();
+    storage = BenchmarkData.openStorage(dbFile, DurabilityProfile.BALANCED);
+    events = BenchmarkData.events(LOG_COUNT, 128);
+    middleTimestamp = BenchmarkData.START_TIMESTAMP + LOG_COUNT / 2 * BenchmarkData.TIME_STEP;
+  }
+
+  @Setup(Level.Invocation)
+  public void fill() {
+    storage.deleteLogs(null, null, null);
+    storage.insertLogs(events);
+    // ids keep growing between invocations
+    storage.forEachLog(new LogQuery().setLimit(1).setOrder(SortOrder.ASC), event -> middleId = event.getId() + LOG_COUNT / 2);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    storage.close();
+    JdbcLogDatabase.delete(dbFile);
+  }
+
+  @Benchmark
+  public void deleteLogs() {
+    switch (mode) {
+      case "timeRange":
+        storage.deleteLogs(null, middleTimestamp, null);
+        break;
+      case "maxId":
+        storage.deleteLogs(null, null, middleId);
+        break;
+      default:
+        // retention deletes in chunks of the size used by SQLiteAppender
+        while (storage.deleteExpiredLogs(middleTimestamp, 500) >= 500) {
+          // until all expired logs are deleted
+        }
+    }
+  }
+
+}
@@ -0,0 +1,85 @@
+package sk.kedros.sqlitelogger.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import sk.kedros.sqlitelogger.common.LogEvent;
+import sk.kedros.sqlitelogger.common.LogLevel;
+import sk.kedros.sqlitelogger.common.LogQuery;
+import sk.kedros.sqlitelogger.common.SortOrder;
+
+/**
+ * Latency of reading the first page of logs for every combination of the time, level and tag filters.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GetLogsBenchmark {
+
+  private static final int LOG_COUNT = 100_000;
+  private static final int PAGE_SIZE = 500;
+
+  @Param({"none", "time", "level", "levelGte", "tags", "time+level", "time+tags", "level+tags", "time+level+tags"})
+  public String filter;
+
+  @Param({"ASC", "DESC"})
+  public SortOrder order;
+
+  private File dbFile;
+  private SQLiteLogStorage storage;
+  private LogQuery query;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dbFile = BenchmarkData.createDbFile();
+    storage = BenchmarkData.openStorage(dbFile, DurabilityProfile.BALANCED);
+    List<LogEvent> events = BenchmarkData.events(LOG_COUNT, 128);
+    for (int i = 0; i < events.size(); i += 1000) {
+      storage.insertLogs(events.subList(i, Math.min(i + 1000, events.size())));
+    }
+
+    query = new LogQuery().setLimit(PAGE_SIZE).setOrder(order);
+    List<String> filters = Arrays.asList(filter.split("\\+"));
+    if (filters.contains("time")) {
+      // the middle tenth of the logs
+      long start = BenchmarkData.START_TIMESTAMP + LOG_COUNT * 45L / 100 * BenchmarkData.TIME_STEP;
+      query.setStart(start).setEnd(start + LOG_COUNT / 10 * BenchmarkData.TIME_STEP);
+    }
+    if (filters.contains("level")) {
+      query.setLevel(LogLevel.WARN.getCode()).setExplicitLevel(true);
+    }
+    if (filters.contains("levelGte")) {
+      query.setLevel(LogLevel.WARN.getCode()).setExplicitLevel(false);
+    }
+    if (filters.contains("tags")) {
+      query.setTags(Arrays.asList(BenchmarkData.tag(1), BenchmarkData.tag(2), BenchmarkData.tag(3)));
+    }
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    storage.close();
+    JdbcLogDatabase.delete(dbFile);
+  }
+
+  @Benchmark
+  public void getLogs(Blackhole blackhole) {
+    storage.forEachLog(query, blackhole::consume);
+  }
+
+}
@@ -0,0 +1,60 @@
+package sk.kedros.sqlitelogger.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import sk.kedros.sqlitelogger.common.LogEvent;
+
+/**
+ * Single insert throughput, every event is committed on its own.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class InsertLogBenchmark {
+
+  @Param({"SAFE", "BALANCED", "FAST"})
+  public DurabilityProfile durability;
+
+  @Param({"0", "512"})
+  public int compressThreshold;
+
+  private File dbFile;
+  private SQLiteLogStorage storage;
+  private List<LogEvent> events;
+  private int next;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dbFile = BenchmarkData.createDbFile();
+    storage = BenchmarkData.openStorage(dbFile, durability);
+    storage.setCompression(compressThreshold, MessageCodec.DEFLATE);
+    events = BenchmarkData.events(1024, 1024);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    storage.close();
+    JdbcLogDatabase.delete(dbFile);
+  }
+
+  @Benchmark
+  public void insertLog() {
+    LogEvent event = events.get(next++ % events.size());
+    storage.insertLog(event.getTimestamp(), event.getLevel(), event.getMessage(), event.getTag());
+  }
+
+}
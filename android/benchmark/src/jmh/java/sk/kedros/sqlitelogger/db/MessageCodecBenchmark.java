@@ -0,0 +1,48 @@
+package sk.kedros.sqlitelogger.db;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of compressing and decompressing a large log message.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class MessageCodecBenchmark {
+
+  @Param({"DEFLATE", "GZIP"})
+  public MessageCodec codec;
+
+  @Param({"1024", "16384"})
+  public int messageLength;
+
+  private String message;
+  private byte[] encoded;
+
+  @Setup
+  public void setUp() {
+    message = BenchmarkData.message(new Random(42), messageLength);
+    encoded = codec.encode(message);
+  }
+
+  @Benchmark
+  public byte[] encode() {
+    return codec.encode(message);
+  }
+
+  @Benchmark
+  public String decode() {
+    return codec.decode(encoded);
+  }
+
+}
@@ -0,0 +1,85 @@
+package sk.kedros.sqlitelogger.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import sk.kedros.sqlitelogger.common.LogEvent;
+import sk.kedros.sqlitelogger.common.LogQuery;
+import sk.kedros.sqlitelogger.common.SortOrder;
+
+/**
+ * Batch inserts running together with large reads. With {@code shared} the reads and writes take turns on
+ * a single connection. With {@code pooled} the reads run on a second connection to the WAL database, like
+ * the queries on the reader connections of the Android pool, while the writes keep the first one.
+ */
+@State(Scope.Group)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReadWriteBenchmark {
+
+  private static final int LOG_COUNT = 100_000;
+  private static final int READ_SIZE = 10_000;
+  private static final int WRITE_BATCH_SIZE = 50;
+
+  @Param({"shared", "pooled"})
+  public String connections;
+
+  private File dbFile;
+  private SQLiteLogStorage writer;
+  private SQLiteLogStorage reader;
+  private List<LogEvent> batch;
+  private LogQuery query;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException {
+    dbFile = BenchmarkData.createDbFile();
+    writer = BenchmarkData.openStorage(dbFile, DurabilityProfile.BALANCED);
+    List<LogEvent> events = BenchmarkData.events(LOG_COUNT, 128);
+    for (int i = 0; i < events.size(); i += 1000) {
+      writer.insertLogs(events.subList(i, Math.min(i + 1000, events.size())));
+    }
+    reader = "shared".equals(connections) ? writer : BenchmarkData.openStorage(dbFile, DurabilityProfile.BALANCED);
+    batch = BenchmarkData.events(WRITE_BATCH_SIZE, 128);
+    query = new LogQuery().setLimit(READ_SIZE).setOrder(SortOrder.ASC);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    if (reader != writer) {
+      reader.close();
+    }
+    writer.close();
+    JdbcLogDatabase.delete(dbFile);
+  }
+
+  @Benchmark
+  @Group("readWrite")
+  @GroupThreads(1)
+  public void write() {
+    writer.insertLogs(batch);
+  }
+
+  @Benchmark
+  @Group("readWrite")
+  @GroupThreads(1)
+  public void read(Blackhole blackhole) {
+    reader.forEachLog(query, blackhole::consume);
+  }
+
+}
@@ -0,0 +1,371 @@
+package sk.kedros.sqlitelogger.db;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.HashMap;
+import java.util.Map;
+
+import sk.kedros.sqlitelogger.common.Cancellation;
+
+/**
+ * {@link LogDatabase} on sqlite-jdbc, runs {@link SQLiteLogStorage} on a plain JVM. A single connection in
+ * auto-commit mode, the transactions are begun and ended by SQL like on Android.
+ */
+final class JdbcLogDatabase implements LogDatabase {
+
+  private final File file;
+  private final Connection connection;
+  // stands in for the prepared statement cache of SQLiteDatabase
+  private final Map<String, PreparedStatement> statements = new HashMap<>();
+
+  private int transactionDepth;
+  private boolean transactionSuccessful;
+
+  private JdbcLogDatabase(File file, Connection connection) {
+    this.file = file;
+    this.connection = connection;
+  }
+
+  static JdbcLogDatabase open(File file) {
+    try {
+      return new JdbcLogDatabase(file, DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath()));
+    } catch (SQLException e) {
+      throw new IllegalArgumentException("Cannot open database " + file, e);
+    }
+  }
+
+  @Override
+  public File getFile() {
+    return file;
+  }
+
+  @Override
+  public int getVersion() {
+    return (int) compileStatement("PRAGMA user_version").simpleQueryForLong();
+  }
+
+  @Override
+  public void setVersion(int version) {
+    execSQL("PRAGMA user_version = " + version);
+  }
+
+  @Override
+  public void setWriteAheadLogging(boolean enabled) {
+    execSQL("PRAGMA journal_mode = " + (enabled ? "WAL" : "DELETE"));
+  }
+
+  @Override
+  public void execSQL(String sql) {
+    execSQL(sql, new Object[0]);
+  }
+
+  @Override
+  public synchronized void execSQL(String sql, Object[] args) {
+    try {
+      PreparedStatement stmt = prepare(sql);
+      for (int i = 0; i < args.length; i++) {
+        stmt.setObject(i + 1, args[i]);
+      }
+      stmt.execute();
+      if (stmt.getResultSet() != null) {
+        stmt.getResultSet().close();
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException("Cannot execute " + sql, e);
+    }
+  }
+
+  /**
+   * The database has a single connection.
+   */
+  @Override
+  public void execPerConnectionSQL(String sql) {
+    LogCursor cursor = rawQuery(sql, null, null);
+    try {
+      cursor.moveToFirst();
+    } finally {
+      cursor.close();
+    }
+  }
+
+  @Override
+  public synchronized LogCursor rawQuery(String sql, String[] args, Cancellation cancellation) {
+    try {
+      PreparedStatement stmt = prepare(sql);
+      for (int i = 0; args != null && i < args.length; i++) {
+        stmt.setString(i + 1, args[i]);
+      }
+      if (cancellation != null) {
+        cancellation.setOnCancelListener(() -> {
+          try {
+            stmt.cancel();
+          } catch (SQLException e) {
+            // the statement already finished
+          }
+        });
+      }
+      // PRAGMAs setting a value return no result set
+      return new JdbcLogCursor(stmt.execute() ? stmt.getResultSet() : null);
+    } catch (SQLException e) {
+      throw new IllegalStateException("Cannot query " + sql, e);
+    }
+  }
+
+  @Override
+  public synchronized LogStatement compileStatement(String sql) {
+    try {
+      return new JdbcLogStatement(prepare(sql));
+    } catch (SQLException e) {
+      throw new IllegalStateException("Cannot compile " + sql, e);
+    }
+  }
+
+  private PreparedStatement prepare(String sql) throws SQLException {
+    PreparedStatement stmt = statements.get(sql);
+    if (stmt == null) {
+      stmt = connection.prepareStatement(sql);
+      statements.put(sql, stmt);
+    }
+    stmt.clearParameters();
+    return stmt;
+  }
+
+  @Override
+  public synchronized void beginTransactionNonExclusive() {
+    if (transactionDepth++ == 0) {
+      transactionSuccessful = false;
+      execSQL("BEGIN IMMEDIATE");
+    }
+  }
+
+  @Override
+  public synchronized void setTransactionSuccessful() {
+    transactionSuccessful = true;
+  }
+
+  @Override
+  public synchronized void endTransaction() {
+    if (--transactionDepth == 0) {
+      execSQL(transactionSuccessful ? "COMMIT" : "ROLLBACK");
+    }
+  }
+
+  @Override
+  public synchronized boolean inTransaction() {
+    return transactionDepth > 0;
+  }
+
+  @Override
+  public synchronized void close() {
+    try {
+      for (PreparedStatement stmt : statements.values()) {
+        stmt.close();
+      }
+      statements.clear();
+      connection.close();
+    } catch (SQLException e) {
+      throw new IllegalStateException("Cannot close database", e);
+    }
+  }
+
+  /**
+   * Deletes the database file together with its journal files.
+   */
+  static void delete(File file) {
+    for (String suffix : new String[] {"", "-journal", "-wal", "-shm"}) {
+      new File(file.getPath() + suffix).delete();
+    }
+  }
+
+  private final class JdbcLogStatement implements LogStatement {
+
+    private final PreparedStatement stmt;
+
+    JdbcLogStatement(PreparedStatement stmt) {
+      this.stmt = stmt;
+    }
+
+    @Override
+    public void bindLong(int index, long value) {
+      try {
+        stmt.setLong(index, value);
+      } catch (SQLException e) {
+        throw new IllegalStateException("Cannot bind parameter " + index, e);
+      }
+    }
+
+    @Override
+    public void bindString(int index, String value) {
+      try {
+        stmt.setString(index, value);
+      } catch (SQLException e) {
+        throw new IllegalStateException("Cannot bind parameter " + index, e);
+      }
+    }
+
+    @Override
+    public void bindBlob(int index, byte[] value) {
+      try {
+        stmt.setBytes(index, value);
+      } catch (SQLException e) {
+        throw new IllegalStateException("Cannot bind parameter " + index, e);
+      }
+    }
+
+    @Override
+    public void bindNull(int index) {
+      try {
+        stmt.setNull(index, Types.NULL);
+      } catch (SQLException e) {
+        throw new IllegalStateException("Cannot bind parameter " + index, e);
+      }
+    }
+
+    @Override
+    public void clearBindings() {
+      try {
+        stmt.clearParameters();
+      } catch (SQLException e) {
+        throw new IllegalStateException("Cannot clear parameters", e);
+      }
+    }
+
+    @Override
+    public long executeInsert() {
+      synchronized (JdbcLogDatabase.this) {
+        try {
+          if (stmt.executeUpdate() == 0) {
+            return -1;
+          }
+          try (ResultSet rs = prepare("SELECT last_insert_rowid()").executeQuery()) {
+            rs.next();
+            return rs.getLong(1);
+          }
+        } catch (SQLException e) {
+          throw new IllegalStateException("Cannot insert", e);
+        }
+      }
+    }
+
+    @Override
+    public int executeUpdateDelete() {
+      synchronized (JdbcLogDatabase.this) {
+        try {
+          return stmt.executeUpdate();
+        } catch (SQLException e) {
+          throw new IllegalStateException("Cannot update", e);
+        }
+      }
+    }
+
+    @Override
+    public long simpleQueryForLong() {
+      synchronized (JdbcLogDatabase.this) {
+        try (ResultSet rs = stmt.executeQuery()) {
+          if (!rs.next()) {
+            throw new IllegalStateException("Query returned no rows");
+          }
+          return rs.getLong(1);
+        } catch (SQLException e) {
+          throw new IllegalStateException("Cannot query", e);
+        }
+      }
+    }
+
+    @Override
+    public void close() {
+      // cached until the database is closed
+    }
+  }
+
+  private static final class JdbcLogCursor implements LogCursor {
+
+    private final ResultSet rs;
+    private boolean moved;
+
+    JdbcLogCursor(ResultSet rs) {
+      this.rs = rs;
+    }
+
+    @Override
+    public boolean moveToNext() {
+      moved = true;
+      try {
+        return rs != null && rs.next();
+      } catch (SQLException e) {
+        throw new IllegalStateException("Cannot read row", e);
+      }
+    }
+
+    @Override
+    public boolean moveToFirst() {
+      if (moved) {
+        throw new IllegalStateException("Cursor is forward-only");
+      }
+      return moveToNext();
+    }
+
+    @Override
+    public boolean isNull(int column) {
+      try {
+        rs.getObject(column + 1);
+        return rs.wasNull();
+      } catch (SQLException e) {
+        throw new IllegalStateException("Cannot read column " + column, e);
+      }
+    }
+
+    @Override
+    public long getLong(int column) {
+      try {
+        return rs.getLong(column + 1);
+      } catch (SQLException e) {
+        throw new IllegalStateException("Cannot read column " + column, e);
+      }
+    }
+
+    @Override
+    public int getInt(int column) {
+      try {
+        return rs.getInt(column + 1);
+      } catch (SQLException e) {
+        throw new IllegalStateException("Cannot read column " + column, e);
+      }
+    }
+
+    @Override
+    public String getString(int column) {
+      try {
+        return rs.getString(column + 1);
+      } catch (SQLException e) {
+        throw new IllegalStateException("Cannot read column " + column, e);
+      }
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+      try {
+        return rs.getBytes(column + 1);
+      } catch (SQLException e) {
+        throw new IllegalStateException("Cannot read column " + column, e);
+      }
+    }
+
+    @Override
+    public void close() {
+      try {
+        if (rs != null) {
+          rs.close();
+        }
+      } catch (SQLException e) {
+        throw new IllegalStateException("Cannot close cursor", e);
+      }
+    }
+  }
+
+}
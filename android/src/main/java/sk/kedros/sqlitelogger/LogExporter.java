@@ -0,0 +1,187 @@
+package sk.kedros.sqlitelogger;
+
+import org.json.JSONObject;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import sk.kedros.sqlitelogger.common.LogEvent;
+import sk.kedros.sqlitelogger.common.LogQuery;
+import sk.kedros.sqlitelogger.common.SortOrder;
+import sk.kedros.sqlitelogger.db.LogStorage;
+
+/**
+ * Streams logs into a gzip-compressed NDJSON or CSV file. Logs are read in fixed-size keyset pages,
+ * so memory use does not depend on the number of exported logs.
+ */
+class LogExporter {
+
+  private static final int CHUNK_SIZE = 1000;
+  private static final int BUFFER_SIZE = 64 * 1024;
+  private static final String FILE_PREFIX = "logs-";
+  private static final int KEPT_EXPORTS = 3; // previous exports kept, they may still be shared
+
+  enum Format {
+    NDJSON("ndjson"),
+    CSV("csv");
+
+    private final String extension;
+
+    Format(String extension) {
+      this.extension = extension;
+    }
+
+    static Format fromString(String format) {
+      return "csv".equalsIgnoreCase(format) ? CSV : NDJSON;
+    }
+  }
+
+  private final LogStorage storage;
+
+  LogExporter(LogStorage storage) {
+    this.storage = storage;
+  }
+
+  /**
+   * Exports the logs matching the query into a new file in the given directory, older exports in the directory
+   * are deleted except the latest ones.
+   * @return the written file
+   */
+  File export(LogQuery query, Format format, File directory) throws IOException {
+
+    directory.mkdirs();
+    deleteOldExports(directory);
+    File file = new File(directory, FILE_PREFIX + System.currentTimeMillis() + "." + format.extension + ".gz");
+
+    if (query.getOrder() == SortOrder.NONE) {
+      query.setOrder(SortOrder.ASC);
+    }
+    query.setLimit(CHUNK_SIZE);
+
+    try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+      new GZIPOutputStream(new FileOutputStream(file), BUFFER_SIZE), StandardCharsets.UTF_8), BUFFER_SIZE)) {
+
+      if (format == Format.CSV) {
+        writer.write("id,timestamp,level,tag,message,fields,repeatCount,lastTimestamp\n");
+      }
+
+      LogEvent[] last = new LogEvent[1];
+      int[] count = new int[1];
+      IOException[] error = new IOException[1];
+      do {
+        count[0] = 0;
+        storage.forEachLog(query, log -> {
+          if (error[0] != null) {
+            return;
+          }
+          try {
+            write(writer, format, log);
+          } catch (IOException e) {
+            error[0] = e;
+          }
+          last[0] = log;
+          count[0]++;
+        });
+        if (error[0] != null) {
+          throw error[0];
+        }
+        if (last[0] != null) {
+          query.setAfter(last[0].getTimestamp(), last[0].getId());
+        }
+      } while (count[0] == CHUNK_SIZE);
+    } catch (IOException | RuntimeException e) {
+      file.delete();
+      throw e;
+    }
+
+    return file;
+  }
+
+  private static void deleteOldExports(File directory) {
+    File[] files = directory.listFiles((dir, name) -> name.startsWith(FILE_PREFIX) && name.endsWith(".gz"));
+    if (files == null || files.length <= KEPT_EXPORTS) {
+      return;
+    }
+    Arrays.sort(files, (a, b) -> Long.compare(b.lastModified(), a.lastModified()));
+    for (int i = KEPT_EXPORTS; i < files.length; i++) {
+      files[i].delete();
+    }
+  }
+
+  private static void write(Writer writer, Format format, LogEvent log) throws IOException {
+    if (format == Format.CSV) {
+      writer.write(String.valueOf(log.getId()));
+      writer.write(',');
+      writer.write(String.valueOf(log.getTimestamp()));
+      writer.write(',');
+      writer.write(String.valueOf(log.getLevel().getCode()));
+      writer.write(',');
+      writeCsvField(writer, log.getTag());
+      writer.write(',');
+      writeCsvField(writer, log.getMessage());
+      writer.write(',');
+      writeCsvField(writer, log.getFields().isEmpty() ? null : toJson(log.getFields()));
+      writer.write(',');
+      writer.write(String.valueOf(log.getRepeatCount()));
+      writer.write(',');
+      if (log.getRepeatCount() > 1) {
+        writer.write(String.valueOf(log.getLastTimestamp()));
+      }
+    } else {
+      writer.write("{\"id\":");
+      writer.write(String.valueOf(log.getId()));
+      writer.write(",\"timestamp\":");
+      writer.write(String.valueOf(log.getTimestamp()));
+      writer.write(",\"level\":");
+      writer.write(String.valueOf(log.getLevel().getCode()));
+      writer.write(",\"tag\":");
+      writer.write(log.getTag() == null ? "null" : JSONObject.quote(log.getTag()));
+      writer.write(",\"message\":");
+      writer.write(log.getMessage() == null ? "null" : JSONObject.quote(log.getMessage()));
+      if (!log.getFields().isEmpty()) {
+        writer.write(",\"fields\":");
+        writer.write(toJson(log.getFields()));
+      }
+      if (log.getRepeatCount() > 1) {
+        writer.write(",\"repeatCount\":");
+        writer.write(String.valueOf(log.getRepeatCount()));
+        writer.write(",\"lastTimestamp\":");
+        writer.write(String.valueOf(log.getLastTimestamp()));
+      }
+      writer.write('}');
+    }
+    writer.write('\n');
+  }
+
+  /**
+   * @return fields as a JSON object, in the CSV export it is a single quoted column
+   */
+  private static String toJson(Map<String, String> fields) {
+    StringBuilder json = new StringBuilder("{");
+    for (Map.Entry<String, String> field : fields.entrySet()) {
+      if (json.length() > 1) {
+        json.append(',');
+      }
+      json.append(JSONObject.quote(field.getKey())).append(':').append(JSONObject.quote(field.getValue()));
+    }
+    return json.append('}').toString();
+  }
+
+  private static void writeCsvField(Writer writer, String value) throws IOException {
+    if (value == null) {
+      return;
+    }
+    writer.write('"');
+    writer.write(value.replace("\"", "\"\""));
+    writer.write('"');
+  }
+
+}
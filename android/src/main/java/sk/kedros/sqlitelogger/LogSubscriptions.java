@@ -0,0 +1,233 @@
+package sk.kedros.sqlitelogger;
+
+import com.facebook.react.bridge.Arguments;
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import sk.kedros.sqlitelogger.common.LogEvent;
+import sk.kedros.sqlitelogger.common.LogLevel;
+import sk.kedros.sqlitelogger.db.LogListener;
+import sk.kedros.sqlitelogger.db.SQLiteAppender;
+
+/**
+ * Live tail of the written logs. Every subscription collects the matching events and emits them to JS
+ * as a single batch per interval. A batch must be acknowledged by JS before the next one is emitted,
+ * events written meanwhile are coalesced into the next batch. A subscription whose pending events
+ * exceed its limit is dropped, so a slow consumer cannot make the buffer grow without bounds.
+ * The subscriptions listen to the appender only while there is any, so the writes without subscribers
+ * skip the notification.
+ */
+class LogSubscriptions implements LogListener {
+
+  static final String EVENT_LOGS = "SqliteLoggerLogs";
+  static final String EVENT_SUBSCRIPTION_DROPPED = "SqliteLoggerSubscriptionDropped";
+
+  private static final int MAX_UNACKNOWLEDGED_BATCHES = 2;
+
+  private final ReactApplicationContext reactContext;
+  private final Map<Integer, Subscription> subscriptions = new ConcurrentHashMap<>();
+  private final AtomicInteger nextId = new AtomicInteger(1);
+  private ScheduledExecutorService scheduler;
+  private SQLiteAppender appender;
+
+  LogSubscriptions(ReactApplicationContext reactContext) {
+    this.reactContext = reactContext;
+  }
+
+  /**
+   * Moves the listener to the appender of the current configuration, null when the appenders were removed.
+   */
+  synchronized void setAppender(SQLiteAppender appender) {
+    if (!subscriptions.isEmpty()) {
+      if (this.appender != null) {
+        this.appender.removeListener(this);
+      }
+      if (appender != null) {
+        appender.addListener(this);
+      }
+    }
+    this.appender = appender;
+  }
+
+  /**
+   * @param tags tags of the emitted logs, all tags if empty
+   * @param minLevel minimum level of the emitted logs, null for all levels
+   * @param interval time between the emitted batches in milliseconds
+   * @param maxPending number of not emitted logs which drops the subscription
+   * @return id of the subscription
+   */
+  synchronized int subscribe(Set<String> tags, LogLevel minLevel, long interval, int maxPending) {
+    if (scheduler == null) {
+      scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread thread = new Thread(r, "sqlite-logger-subscriptions");
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    Subscription subscription = new Subscription(nextId.getAndIncrement(), tags, minLevel, maxPending);
+    if (subscriptions.isEmpty() && appender != null) {
+      appender.addListener(this);
+    }
+    subscriptions.put(subscription.id, subscription);
+    subscription.future = scheduler.scheduleWithFixedDelay(() -> emit(subscription), interval, interval, TimeUnit.MILLISECONDS);
+    return subscription.id;
+  }
+
+  synchronized void unsubscribe(int id) {
+    Subscription subscription = subscriptions.remove(id);
+    if (subscription != null) {
+      subscription.future.cancel(false);
+      if (subscriptions.isEmpty() && appender != null) {
+        appender.removeListener(this);
+      }
+    }
+  }
+
+  /**
+   * Called by JS once it has processed a batch of the subscription.
+   */
+  void acknowledge(int id) {
+    Subscription subscription = subscriptions.get(id);
+    if (subscription != null) {
+      subscription.acknowledge();
+    }
+  }
+
+  synchronized void close() {
+    for (Subscription subscription : subscriptions.values()) {
+      subscription.future.cancel(false);
+    }
+    if (!subscriptions.isEmpty() && appender != null) {
+      appender.removeListener(this);
+    }
+    subscriptions.clear();
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      scheduler = null;
+    }
+  }
+
+  @Override
+  public void onLogsWritten(List<LogEvent> events) {
+    for (Subscription subscription : subscriptions.values()) {
+      if (!subscription.offer(events)) {
+        unsubscribe(subscription.id);
+        WritableMap params = Arguments.createMap();
+        params.putInt("subscription", subscription.id);
+        sendEvent(EVENT_SUBSCRIPTION_DROPPED, params);
+      }
+    }
+  }
+
+  private void emit(Subscription subscription) {
+    List<LogEvent> events = subscription.take();
+    if (events == null) {
+      return;
+    }
+    WritableArray logs = Arguments.createArray();
+    for (LogEvent event : events) {
+      WritableMap log = Arguments.createMap();
+      log.putDouble("id", (double) event.getId());
+      log.putDouble("timestamp", (double) event.getTimestamp());
+      log.putInt("level", event.getLevel().getCode());
+      log.putString("message", event.getMessage());
+      log.putString("tag", event.getTag());
+      if (!event.getFields().isEmpty()) {
+        log.putMap("fields", SqliteLoggerModule.toMapObject(event.getFields()));
+      }
+      if (event.getRepeatCount() > 1) {
+        log.putInt("repeatCount", event.getRepeatCount());
+        log.putDouble("lastTimestamp", (double) event.getLastTimestamp());
+      }
+      logs.pushMap(log);
+    }
+    WritableMap params = Arguments.createMap();
+    params.putInt("subscription", subscription.id);
+    params.putArray("logs", logs);
+    sendEvent(EVENT_LOGS, params);
+  }
+
+  private void sendEvent(String name, WritableMap params) {
+    if (reactContext.hasActiveReactInstance()) {
+      reactContext.getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class).emit(name, params);
+    }
+  }
+
+  private static final class Subscription {
+
+    private final int id;
+    private final Set<String> tags;
+    private final LogLevel minLevel;
+    private final int maxPending;
+    private List<LogEvent> pending = new ArrayList<>();
+    private int unacknowledged;
+    private boolean dropped;
+    private ScheduledFuture<?> future;
+
+    Subscription(int id, Set<String> tags, LogLevel minLevel, int maxPending) {
+      this.id = id;
+      this.tags = tags == null ? Collections.emptySet() : new HashSet<>(tags);
+      this.minLevel = minLevel;
+      this.maxPending = maxPending;
+    }
+
+    /**
+     * @return false if the pending events exceeded the limit
+     */
+    synchronized boolean offer(List<LogEvent> events) {
+      if (dropped) {
+        return true;
+      }
+      for (LogEvent event : events) {
+        LogLevel level = event.getLevel();
+        if (level == null || level == LogLevel.UNKNOWN
+          || (minLevel != null && level.getCode() < minLevel.getCode())
+          || (!tags.isEmpty() && !tags.contains(event.getTag()))) {
+          continue;
+        }
+        if (pending.size() >= maxPending) {
+          pending = new ArrayList<>();
+          dropped = true;
+          return false;
+        }
+        pending.add(event);
+      }
+      return true;
+    }
+
+    /**
+     * @return the pending events, or null if there are none or JS has not acknowledged the previous batches
+     */
+    synchronized List<LogEvent> take() {
+      if (dropped || pending.isEmpty() || unacknowledged >= MAX_UNACKNOWLEDGED_BATCHES) {
+        return null;
+      }
+      List<LogEvent> events = pending;
+      pending = new ArrayList<>();
+      unacknowledged++;
+      return events;
+    }
+
+    synchronized void acknowledge() {
+      if (unacknowledged > 0) {
+        unacknowledged--;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,240 @@
+package sk.kedros.sqlitelogger;
+
+import com.facebook.react.bridge.Promise;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import sk.kedros.sqlitelogger.common.Cancellation;
+
+/**
+ * Runs the module operations on a few worker threads, so a quick query does not wait for a long one.
+ * Queued operations start by priority, operations of the same priority in the order they were scheduled.
+ * An operation is cancelled by its id from JS or when its deadline passes: a queued operation is removed
+ * from the queue, a running query is interrupted through its {@link Cancellation}.
+ */
+class OperationScheduler {
+
+  static final String E_CANCELLED = "E_CANCELLED";
+  static final String E_TIMEOUT = "E_TIMEOUT";
+
+  private static final int WORKER_COUNT = 2;
+
+  enum Priority {
+    LOW, NORMAL, HIGH;
+
+    public static Priority fromString(String priority) {
+      if (priority == null) {
+        return NORMAL;
+      }
+      switch (priority) {
+        case "low":
+          return LOW;
+        case "normal":
+          return NORMAL;
+        case "high":
+          return HIGH;
+        default:
+          throw new IllegalArgumentException("Unknown operation priority: " + priority);
+      }
+    }
+  }
+
+  interface Task {
+    /**
+     * @return value the promise is resolved with
+     */
+    Object run(Cancellation cancellation) throws Exception;
+  }
+
+  private final ThreadPoolExecutor workers;
+  private final ScheduledThreadPoolExecutor deadlines;
+  private final Set<Operation> active = ConcurrentHashMap.newKeySet();
+  private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+  private final AtomicLong sequence = new AtomicLong();
+
+  OperationScheduler() {
+    workers = new ThreadPoolExecutor(WORKER_COUNT, WORKER_COUNT, 0L, TimeUnit.MILLISECONDS,
+      new PriorityBlockingQueue<>(), daemonThreads("sqlite-logger-worker"));
+    deadlines = new ScheduledThreadPoolExecutor(1, daemonThreads("sqlite-logger-deadlines"));
+    deadlines.setRemoveOnCancelPolicy(true);
+  }
+
+  /**
+   * @param id id to cancel the operation by, null if it is not cancelled from JS
+   * @param timeout time in milliseconds the operation must finish in, null for no deadline
+   */
+  void schedule(String id, Priority priority, Long timeout, Promise promise, Task task) {
+    Operation operation = new Operation(id, priority, sequence.getAndIncrement(), promise, task);
+    if (id != null && operations.putIfAbsent(id, operation) != null) {
+      promise.reject(new IllegalArgumentException("Operation " + id + " is already scheduled"));
+      return;
+    }
+    active.add(operation);
+    try {
+      if (timeout != null) {
+        operation.deadline = deadlines.schedule(() -> operation.cancel(E_TIMEOUT), timeout, TimeUnit.MILLISECONDS);
+      }
+      workers.execute(operation);
+    } catch (RejectedExecutionException e) {
+      operation.fail(new IllegalStateException("Logger is closed", e));
+    }
+  }
+
+  /**
+   * @return false if there is no queued or running operation with the id
+   */
+  boolean cancel(String id) {
+    Operation operation = operations.get(id);
+    return operation != null && operation.cancel(E_CANCELLED);
+  }
+
+  /**
+   * Cancels all the operations and stops the worker threads.
+   */
+  void close() {
+    workers.shutdown();
+    for (Operation operation : active) {
+      operation.cancel(E_CANCELLED);
+    }
+    deadlines.shutdownNow();
+  }
+
+  private static ThreadFactory daemonThreads(String name) {
+    AtomicInteger count = new AtomicInteger(1);
+    return r -> {
+      Thread thread = new Thread(r, name + "-" + count.getAndIncrement());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+  private final class Operation implements Runnable, Comparable<Operation> {
+
+    private static final int QUEUED = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+
+    private final String id;
+    private final Priority priority;
+    private final long sequence;
+    private final Promise promise;
+    private final Task task;
+    private final Cancellation cancellation = new Cancellation();
+    private volatile ScheduledFuture<?> deadline;
+    private int state = QUEUED;
+    private String cancelCode;
+
+    Operation(String id, Priority priority, long sequence, Promise promise, Task task) {
+      this.id = id;
+      this.priority = priority;
+      this.sequence = sequence;
+      this.promise = promise;
+      this.task = task;
+    }
+
+    @Override
+    public void run() {
+      synchronized (this) {
+        if (state != QUEUED) {
+          return;
+        }
+        state = RUNNING;
+      }
+      Object result = null;
+      Throwable error = null;
+      try {
+        result = task.run(cancellation);
+      } catch (Throwable t) {
+        error = t;
+      }
+      synchronized (this) {
+        state = DONE;
+      }
+      complete(result, error);
+    }
+
+    /**
+     * @return false if the operation has already finished
+     */
+    boolean cancel(String code) {
+      boolean queued;
+      synchronized (this) {
+        if (state == DONE) {
+          return false;
+        }
+        if (cancelCode == null) {
+          cancelCode = code;
+        }
+        queued = state == QUEUED;
+        if (queued) {
+          state = DONE;
+        }
+      }
+      if (queued) {
+        workers.remove(this);
+        complete(null, new CancellationException());
+      } else {
+        cancellation.cancel();
+      }
+      return true;
+    }
+
+    void fail(Throwable error) {
+      synchronized (this) {
+        if (state == DONE) {
+          return;
+        }
+        state = DONE;
+      }
+      complete(null, error);
+    }
+
+    /**
+     * An operation that finished despite a cancellation is resolved, one that failed after the cancellation
+     * is rejected with the cancellation code whatever the error of the interrupted query was.
+     */
+    private void complete(Object result, Throwable error) {
+      active.remove(this);
+      if (id != null) {
+        operations.remove(id, this);
+      }
+      ScheduledFuture<?> deadline = this.deadline;
+      if (deadline != null) {
+        deadline.cancel(false);
+      }
+
+      String code;
+      synchronized (this) {
+        code = cancelCode;
+      }
+      if (code != null && error != null) {
+        promise.reject(code, E_TIMEOUT.equals(code) ? "Operation exceeded its timeout" : "Operation was cancelled");
+      } else if (error != null) {
+        promise.reject(error);
+      } else {
+        promise.resolve(result);
+      }
+    }
+
+    @Override
+    public int compareTo(Operation other) {
+      if (priority != other.priority) {
+        return other.priority.compareTo(priority);
+      }
+      return Long.compare(sequence, other.sequence);
+    }
+  }
+
+}
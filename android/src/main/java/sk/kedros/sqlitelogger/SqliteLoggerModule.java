@@ -1,6 +1,7 @@
 package sk.kedros.sqlitelogger;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import android.content.Intent;
 import android.net.Uri;
@@ -10,51 +11,75 @@
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
-import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
 import com.facebook.react.bridge.ReadableMap;
 import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMapKeySetIterator;
 import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.module.annotations.ReactModule;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.slf4j.event.Level;
+import org.slf4j.spi.LoggingEventBuilder;
 
 import java.io.File;
 import java.io.FilenameFilter;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
-import ch.qos.logback.classic.AsyncAppender;
-import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.LoggerContext;
 import ch.qos.logback.core.Appender;
 import ch.qos.logback.classic.spi.ILoggingEvent;
+import sk.kedros.sqlitelogger.common.Cancellation;
+import sk.kedros.sqlitelogger.common.GroupBy;
+import sk.kedros.sqlitelogger.common.LogAggregate;
 import sk.kedros.sqlitelogger.common.LogEvent;
 import sk.kedros.sqlitelogger.common.LogLevel;
+import sk.kedros.sqlitelogger.common.LogQuery;
+import sk.kedros.sqlitelogger.common.SortOrder;
+import sk.kedros.sqlitelogger.db.LogAggregator;
+import sk.kedros.sqlitelogger.db.LoggerStats;
+import sk.kedros.sqlitelogger.db.RingBufferAppender;
 import sk.kedros.sqlitelogger.db.SQLiteAppender;
 
 @ReactModule(name = SqliteLoggerModule.NAME)
-public class SqliteLoggerModule extends ReactContextBaseJavaModule {
+public class SqliteLoggerModule extends SqliteLoggerSpec {
 
   private static final Logger logger = LoggerFactory.getLogger(SqliteLoggerModule.class);
   public static final String NAME = "SqliteLogger";
 
-  private final ExecutorService executor;
+  private static final int DEFAULT_PAGE_SIZE = 500;
+  private static final int MAX_PAGE_SIZE = 5000;
+  private static final int DEFAULT_SEARCH_LIMIT = 100;
+  private static final long DEFAULT_BUCKET_INTERVAL = 60;
+  private static final long DEFAULT_SUBSCRIPTION_INTERVAL = 250;
+  private static final int DEFAULT_SUBSCRIPTION_MAX_PENDING = 10000;
+  private static final String EXPORT_DIRECTORY = "sqlite-logger-exports";
+
+  private final OperationScheduler scheduler;
+  private final TagLevels tagLevels = new TagLevels();
+  private final Map<String, ch.qos.logback.classic.Logger> loggers = new ConcurrentHashMap<>();
+  private final LogSubscriptions subscriptions;
   private String logsDirectory;
   private ReadableMap configureOptions;
 
   public SqliteLoggerModule(ReactApplicationContext reactContext) {
     super(reactContext);
-    executor = Executors.newSingleThreadExecutor();
+    scheduler = new OperationScheduler();
+    subscriptions = new LogSubscriptions(reactContext);
   }
 
   private SQLiteAppender sqLiteAppender;
-  private AsyncAppender asyncAppender;
+  private RingBufferAppender asyncAppender;
 
   @Override
   @NonNull
@@ -70,6 +95,7 @@ public void configure(ReadableMap options, Promise promise) {
 
       LoggerContext loggerContext = (LoggerContext) LoggerFactory.getILoggerFactory();
 
+      Integer logLevel = options.hasKey("logLevel") ? options.getInt("logLevel") : null;
       String logFileDir = options.hasKey("logFileDir") ? options.getString("logFileDir") : null;
       String logFileName = options.hasKey("logFileName") ? options.getString("logFileName") : null;
       Long maxAge = options.hasKey("maxAge") ? (long) options.getDouble("maxAge") : null;
@@ -77,6 +103,20 @@ public void configure(ReadableMap options, Promise promise) {
       Boolean async = options.hasKey("async") ? options.getBoolean("async") : Boolean.TRUE;
       Integer queueSize = options.hasKey("queueSize") ? (int) options.getDouble("queueSize") : null;
       Integer maxFlushTime = options.hasKey("maxFlushTime") ? (int) options.getDouble("maxFlushTime") : null;
+      String overflowPolicy = options.hasKey("overflowPolicy") ? options.getString("overflowPolicy") : null;
+      Integer batchSize = options.hasKey("batchSize") ? (int) options.getDouble("batchSize") : null;
+      Long maxBatchDelay = options.hasKey("maxBatchDelay") ? (long) options.getDouble("maxBatchDelay") : null;
+      String durability = options.hasKey("durability") ? options.getString("durability") : null;
+      Long maxDbSizeBytes = options.hasKey("maxDbSizeBytes") ? (long) options.getDouble("maxDbSizeBytes") : null;
+      Long maxRowCount = options.hasKey("maxRowCount") ? (long) options.getDouble("maxRowCount") : null;
+      String storage = options.hasKey("storage") ? options.getString("storage") : null;
+      Long partitionInterval = options.hasKey("partitionInterval") ? (long) options.getDouble("partitionInterval") : null;
+      Long rollupInterval = options.hasKey("rollupInterval") ? (long) options.getDouble("rollupInterval") : null;
+      Boolean fullTextSearch = options.hasKey("fullTextSearch") ? options.getBoolean("fullTextSearch") : null;
+      Integer compressThreshold = options.hasKey("compressThreshold") ? (int) options.getDouble("compressThreshold") : null;
+      String compressCodec = options.hasKey("compressCodec") ? options.getString("compressCodec") : null;
+      Long dedupWindow = options.hasKey("dedupWindow") ? (long) options.getDouble("dedupWindow") : null;
+      ReadableMap rateLimits = options.hasKey("rateLimits") && !options.isNull("rateLimits") ? options.getMap("rateLimits") : null;
 
       sqLiteAppender = new SQLiteAppender();
       sqLiteAppender.setContext(loggerContext);
@@ -85,32 +125,57 @@ public void configure(ReadableMap options, Promise promise) {
       sqLiteAppender.setMaxAge(maxAge);
       sqLiteAppender.setName("SQLITE");
       sqLiteAppender.setDeleteInterval(deleteInterval);
+      sqLiteAppender.setBatchSize(batchSize);
+      sqLiteAppender.setMaxBatchDelay(maxBatchDelay);
+      sqLiteAppender.setDurability(durability);
+      sqLiteAppender.setMaxDbSizeBytes(maxDbSizeBytes);
+      sqLiteAppender.setMaxRowCount(maxRowCount);
+      sqLiteAppender.setStorageType(storage);
+      sqLiteAppender.setPartitionInterval(partitionInterval);
+      sqLiteAppender.setRollupInterval(rollupInterval);
+      sqLiteAppender.setFullTextSearch(fullTextSearch);
+      sqLiteAppender.setCompressThreshold(compressThreshold);
+      sqLiteAppender.setCompressCodec(compressCodec);
+      sqLiteAppender.setDedupWindow(dedupWindow);
+      if (rateLimits != null) {
+        ReadableMapKeySetIterator tags = rateLimits.keySetIterator();
+        while (tags.hasNextKey()) {
+          String tag = tags.nextKey();
+          ReadableMap limit = rateLimits.getMap(tag);
+          sqLiteAppender.setRateLimit(tag,
+            limit.hasKey("rate") ? limit.getDouble("rate") : null,
+            limit.hasKey("burst") ? (int) limit.getDouble("burst") : null);
+        }
+      }
       sqLiteAppender.start();
+      subscriptions.setAppender(sqLiteAppender);
 
       Appender<ILoggingEvent> appender;
       if (async) {
-        asyncAppender = new AsyncAppender();
-        if (queueSize != null) {
-          asyncAppender.setQueueSize(queueSize);
-        }
-        if (maxFlushTime != null) {
-          asyncAppender.setMaxFlushTime(maxFlushTime);
-        } else {
-          asyncAppender.setMaxFlushTime(0);
-        }
+        asyncAppender = new RingBufferAppender();
+        asyncAppender.setQueueSize(queueSize);
+        asyncAppender.setMaxFlushTime(maxFlushTime);
+        asyncAppender.setOverflowPolicy(overflowPolicy);
         asyncAppender.setContext(loggerContext);
         asyncAppender.setName("ASYNC");
-        asyncAppender.addAppender(sqLiteAppender);
-        asyncAppender.setDiscardingThreshold(0);
-        asyncAppender.setIncludeCallerData(false);
+        asyncAppender.setAppender(sqLiteAppender);
         asyncAppender.start();
         appender = asyncAppender;
       } else {
         appender = sqLiteAppender;
       }
 
+      LogLevel defaultLevel = logLevel == null ? LogLevel.UNKNOWN : LogLevel.fromCode(logLevel);
+      tagLevels.setDefaultLevel(defaultLevel == LogLevel.UNKNOWN ? LogLevel.DEBUG : defaultLevel);
+
+      if (!loggerContext.getTurboFilterList().contains(tagLevels)) {
+        tagLevels.setContext(loggerContext);
+        tagLevels.setName("TAG_LEVELS");
+        tagLevels.start();
+        loggerContext.addTurboFilter(tagLevels);
+      }
+
       ch.qos.logback.classic.Logger root = (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(Logger.ROOT_LOGGER_NAME);
-      root.setLevel(Level.DEBUG);
       root.detachAndStopAllAppenders();
       root.addAppender(appender);
 
@@ -133,10 +198,83 @@ public void setTagOverride(String tag, Promise promise) {
     promise.resolve(false);
   }
 
+  /**
+   * Sets the minimum level of the logs without their own tag level.
+   */
+  @ReactMethod
+  public void setLogLevel(double level) {
+    LogLevel logLevel = LogLevel.fromCode((int) level);
+    if (logLevel == LogLevel.UNKNOWN) {
+      return;
+    }
+    tagLevels.setDefaultLevel(logLevel);
+  }
+
+  /**
+   * Sets the minimum level of the logs with the tag, tags are matched exactly.
+   * @param level minimum level, null to use the default level again
+   */
   @ReactMethod
-  public void write(double level, String str, String tag) {
-    final Logger l = LoggerFactory.getLogger((tag == null) ? "main" : tag);
-    switch (LogLevel.fromCode((int) level)) {
+  public void setTagLevel(String tag, Double level) {
+    if (tag == null) {
+      return;
+    }
+    LogLevel logLevel = level == null ? null : LogLevel.fromCode(level.intValue());
+    if (logLevel == LogLevel.UNKNOWN) {
+      return;
+    }
+    tagLevels.setLevel(tag, logLevel);
+  }
+
+  private ch.qos.logback.classic.Logger getLogger(String tag) {
+    ch.qos.logback.classic.Logger l = loggers.get(tag);
+    if (l == null) {
+      l = (ch.qos.logback.classic.Logger) LoggerFactory.getLogger(tag);
+      loggers.put(tag, l);
+    }
+    return l;
+  }
+
+  /**
+   * @param fields structured fields of the log, values are strings, numbers or booleans
+   */
+  @ReactMethod
+  public void write(double level, String str, String tag, @Nullable ReadableMap fields) {
+    log(level, str, tag, fields);
+  }
+
+  /**
+   * Synchronous variant of {@link #write} called directly from the JS thread, through JSI when the
+   * new architecture is enabled, which avoids the bridge queue and its argument serialization.
+   * @return false if the message was rejected by the log level
+   */
+  @Override
+  @ReactMethod(isBlockingSynchronousMethod = true)
+  public boolean writeSync(double level, String str, @Nullable String tag, @Nullable ReadableMap fields) {
+    return log(level, str, tag, fields);
+  }
+
+  private boolean log(double level, String str, String tag, @Nullable ReadableMap fields) {
+    String name = (tag == null) ? "main" : tag;
+    LogLevel logLevel = LogLevel.fromCode((int) level);
+    if (!tagLevels.isEnabled(name, logLevel)) {
+      return false;
+    }
+    final Logger l = getLogger(name);
+    if (fields != null && fields.keySetIterator().hasNextKey()) {
+      Level slf4jLevel = toSlf4jLevel(logLevel);
+      if (slf4jLevel == null) {
+        return false;
+      }
+      // the fields reach the appender as the key/value pairs of the logging event
+      LoggingEventBuilder builder = l.atLevel(slf4jLevel);
+      for (Map.Entry<String, String> field : toFields(fields).entrySet()) {
+        builder.addKeyValue(field.getKey(), field.getValue());
+      }
+      builder.log(str);
+      return true;
+    }
+    switch (logLevel) {
       case TRACE:
         l.trace(str);
         break;
@@ -152,40 +290,221 @@ public void write(double level, String str, String tag) {
       case ERROR:
         l.error(str);
         break;
+      default:
+        return false;
+    }
+    return true;
+  }
+
+  private static Level toSlf4jLevel(LogLevel level) {
+    switch (level) {
+      case TRACE:
+        return Level.TRACE;
+      case DEBUG:
+        return Level.DEBUG;
+      case INFO:
+        return Level.INFO;
+      case WARN:
+        return Level.WARN;
+      case ERROR:
+        return Level.ERROR;
+      default:
+        return null;
+    }
+  }
+
+  /**
+   * Converts the JS field values to strings, numbers without a fraction are written as integers,
+   * values of other types are skipped.
+   */
+  private static Map<String, String> toFields(ReadableMap map) {
+    Map<String, String> fields = new LinkedHashMap<>();
+    ReadableMapKeySetIterator iterator = map.keySetIterator();
+    while (iterator.hasNextKey()) {
+      String key = iterator.nextKey();
+      switch (map.getType(key)) {
+        case String:
+          fields.put(key, map.getString(key));
+          break;
+        case Number:
+          double value = map.getDouble(key);
+          fields.put(key, value == Math.rint(value) && !Double.isInfinite(value)
+            ? String.valueOf((long) value) : String.valueOf(value));
+          break;
+        case Boolean:
+          fields.put(key, String.valueOf(map.getBoolean(key)));
+          break;
+        default:
+          break;
+      }
+    }
+    return fields;
+  }
+
+  /**
+   * Writes a batch of log entries buffered on the JS side. Every entry is an array of
+   * [timestamp, level, message, tag] with an optional map of structured fields as the fifth item.
+   */
+  @ReactMethod
+  public void writeBatch(ReadableArray entries) {
+    appendEntries(entries);
+  }
+
+  /**
+   * Synchronous variant of {@link #writeBatch}, the entries are only queued, so the JS thread
+   * does not wait for the DB.
+   * @return number of entries accepted by the log levels
+   */
+  @Override
+  @ReactMethod(isBlockingSynchronousMethod = true)
+  public double writeBatchSync(ReadableArray entries) {
+    return appendEntries(entries);
+  }
+
+  private int appendEntries(ReadableArray entries) {
+    SQLiteAppender appender = this.sqLiteAppender;
+    if (appender == null || entries == null) {
+      return 0;
     }
+
+    List<LogEvent> events = new ArrayList<>(entries.size());
+    for (int i = 0; i < entries.size(); i++) {
+      ReadableArray entry = entries.getArray(i);
+      LogLevel level = LogLevel.fromCode(entry.getInt(1));
+      String tag = entry.isNull(3) ? "main" : entry.getString(3);
+      if (!tagLevels.isEnabled(tag, level)) {
+        continue;
+      }
+      Map<String, String> fields = entry.size() > 4 && !entry.isNull(4) ? toFields(entry.getMap(4)) : null;
+      events.add(new LogEvent(null, (long) entry.getDouble(0), level, entry.getString(2), tag, fields));
+    }
+
+    RingBufferAppender asyncAppender = this.asyncAppender;
+    if (asyncAppender != null) {
+      asyncAppender.appendBatch(events);
+    } else {
+      appender.appendBatch(events);
+    }
+    return events.size();
   }
 
-  private void executeAsyncTask(Promise promise, Runnable runnable) {
+  /**
+   * Starts emitting the written logs matching the filters in batches, see {@link LogSubscriptions}.
+   * Resolves with the id of the subscription.
+   */
+  @ReactMethod
+  public void subscribe(ReadableMap options, Promise promise) {
     try {
-      executor.execute(() -> {
-        runnable.run();
-      });
+      ReadableArray tagsArray = options.hasKey("tags") ? options.getArray("tags") : null;
+      Integer minLevel = options.hasKey("minLevel") ? options.getInt("minLevel") : null;
+      long interval = options.hasKey("interval") ? (long) options.getDouble("interval") : DEFAULT_SUBSCRIPTION_INTERVAL;
+      int maxPending = options.hasKey("maxPending") ? options.getInt("maxPending") : DEFAULT_SUBSCRIPTION_MAX_PENDING;
+
+      Set<String> tags = new HashSet<>();
+      if (tagsArray != null) {
+        for (int i = 0; i < tagsArray.size(); i++) tags.add(tagsArray.getString(i));
+      }
+      if (interval <= 0 || maxPending <= 0) {
+        throw new IllegalArgumentException("Subscription interval and maxPending must be positive");
+      }
+
+      promise.resolve(subscriptions.subscribe(tags, minLevel == null ? null : LogLevel.fromCode(minLevel), interval, maxPending));
+    } catch (Throwable t) {
+      promise.reject(t);
+    }
+  }
+
+  @ReactMethod
+  public void unsubscribe(double subscription) {
+    subscriptions.unsubscribe((int) subscription);
+  }
+
+  /**
+   * Called by JS when it has processed a batch of the subscription, so the next batch can be emitted.
+   */
+  @ReactMethod
+  public void acknowledgeLogs(double subscription) {
+    subscriptions.acknowledge((int) subscription);
+  }
+
+  @ReactMethod
+  public void addListener(String eventName) {
+    // required by NativeEventEmitter, events are emitted for the subscriptions only
+  }
+
+  @ReactMethod
+  public void removeListeners(double count) {
+    // required by NativeEventEmitter
+  }
+
+  @Override
+  public void invalidate() {
+    subscriptions.close();
+    scheduler.close();
+    super.invalidate();
+  }
+
+  @ReactMethod
+  public void flush(Promise promise) {
+    try {
+      if (this.asyncAppender != null) {
+        this.asyncAppender.flush();
+      } else if (this.sqLiteAppender != null) {
+        this.sqLiteAppender.flush();
+      }
+      promise.resolve(null);
     } catch (Throwable t) {
       promise.reject(t);
     }
   }
 
+  /**
+   * Schedules the task with the {@code operationId}, {@code priority} and {@code timeout} (in milliseconds)
+   * of the options.
+   */
+  private void executeAsyncTask(@Nullable ReadableMap options, Promise promise, OperationScheduler.Task task) {
+    try {
+      String operationId = options != null && options.hasKey("operationId") ? options.getString("operationId") : null;
+      String priority = options != null && options.hasKey("priority") ? options.getString("priority") : null;
+      Long timeout = options != null && options.hasKey("timeout") ? (long) options.getDouble("timeout") : null;
+      scheduler.schedule(operationId, OperationScheduler.Priority.fromString(priority), timeout, promise, task);
+    } catch (Throwable t) {
+      promise.reject(t);
+    }
+  }
+
+  /**
+   * Cancels a queued or running operation scheduled with the {@code operationId}. Its promise is rejected
+   * with the {@code E_CANCELLED} code, unless it finished before the cancellation took effect.
+   * Resolves with false if there is no such operation.
+   */
+  @ReactMethod
+  public void cancel(String operationId, Promise promise) {
+    promise.resolve(scheduler.cancel(operationId));
+  }
+
   private void removeAllAppenders() throws Exception {
     Exception error = null;
 
     try {
-      if (sqLiteAppender != null) {
-        sqLiteAppender.stop();
+      if (asyncAppender != null) {
+        asyncAppender.stop();
       }
     } catch (Exception e) {
       error = e;
     } finally {
-      sqLiteAppender = null;
+      asyncAppender = null;
     }
 
     try {
-      if (asyncAppender != null) {
-        asyncAppender.stop();
+      if (sqLiteAppender != null) {
+        sqLiteAppender.stop();
       }
     } catch (Exception e) {
       error = e;
     } finally {
-      asyncAppender = null;
+      sqLiteAppender = null;
+      subscriptions.setAppender(null);
     }
 
     if (error != null) {
@@ -201,65 +520,274 @@ private WritableMap toMapObject(LogEvent logEvent) {
     result.putInt("level", logEvent.getLevel().getCode());
     result.putString("message", logEvent.getMessage());
     result.putString("tag", logEvent.getTag());
+    if (!logEvent.getFields().isEmpty()) {
+      result.putMap("fields", toMapObject(logEvent.getFields()));
+    }
+    if (logEvent.getRepeatCount() > 1) {
+      result.putInt("repeatCount", logEvent.getRepeatCount());
+      result.putDouble("lastTimestamp", (double) logEvent.getLastTimestamp());
+    }
 
     return result;
   }
 
+  static WritableMap toMapObject(Map<String, String> fields) {
+    WritableMap result = Arguments.createMap();
+    for (Map.Entry<String, String> field : fields.entrySet()) {
+      result.putString(field.getKey(), field.getValue());
+    }
+    return result;
+  }
+
+  private LogQuery toLogQuery(ReadableMap options, Cancellation cancellation) {
+    Long start = options.hasKey("start") ? (long) options.getDouble("start") : null;
+    Long end = options.hasKey("end") ? (long) options.getDouble("end") : null;
+    Integer level = options.hasKey("level") ? options.getInt("level") : null;
+    ReadableArray tagsArray = options.hasKey("tags") ? options.getArray("tags") : null;
+    String order = options.hasKey("order") ? options.getString("order") : null;
+    Integer explicitLevel = options.hasKey("explicitLevel") ? options.getInt("explicitLevel") : 1;
+    ReadableMap fields = options.hasKey("fields") && !options.isNull("fields") ? options.getMap("fields") : null;
+
+    List<String> tagsList = new ArrayList<>();
+    if (tagsArray != null) {
+      for (int i = 0; i < tagsArray.size(); i++) tagsList.add(tagsArray.getString(i));
+    }
+
+    return new LogQuery()
+      .setStart(start)
+      .setEnd(end)
+      .setLevel(level)
+      .setTags(tagsList)
+      .setOrder(SortOrder.fromString(order))
+      .setExplicitLevel(explicitLevel == 1)
+      .setFields(fields == null ? null : toFields(fields))
+      .setCancellation(cancellation);
+  }
+
   @ReactMethod
   public void getLogs(ReadableMap options, Promise promise) {
-    executeAsyncTask(promise, () -> {
-      try {
-        Long start = options.hasKey("start") ? (long) options.getDouble("start") : null;
-        Long end = options.hasKey("end") ? (long) options.getDouble("end") : null;
-        Integer limit = options.hasKey("limit") ? options.getInt("limit") : null;
-        Integer level = options.hasKey("level") ? options.getInt("level") : null;
-        ReadableArray tagsArray = options.hasKey("tags") ? options.getArray("tags") : null;
-        String order = options.hasKey("order") ? options.getString("order") : null;
-        Integer explicitLevel = options.hasKey("explicitLevel") ? options.getInt("explicitLevel") : 1;
-
-        List<String> tagsList = new ArrayList<>();
-        if (tagsArray != null) {
-          for (int i = 0; i < tagsArray.size(); i++) tagsList.add(tagsArray.getString(i));
+    executeAsyncTask(options, promise, cancellation -> {
+      Integer limit = options.hasKey("limit") ? options.getInt("limit") : null;
+      LogQuery query = toLogQuery(options, cancellation).setLimit(limit);
+
+      WritableArray result = Arguments.createArray();
+      this.sqLiteAppender.getLogStorage().forEachLog(query, log -> result.pushMap(toMapObject(log)));
+
+      return result;
+    });
+  }
+
+  /**
+   * Returns a single page of logs together with a continuation token of the next page. The token is null
+   * when there are no more logs.
+   */
+  @ReactMethod
+  public void getLogsPage(ReadableMap options, Promise promise) {
+    executeAsyncTask(options, promise, cancellation -> {
+      int pageSize = options.hasKey("pageSize") ? options.getInt("pageSize") : DEFAULT_PAGE_SIZE;
+      pageSize = Math.max(1, Math.min(pageSize, MAX_PAGE_SIZE));
+      LogQuery query = toLogQuery(options, cancellation).setLimit(pageSize);
+
+      String after = options.hasKey("after") && !options.isNull("after") ? options.getString("after") : null;
+      if (after != null) {
+        String[] position = after.split(":");
+        if (position.length != 2) {
+          throw new IllegalArgumentException("Invalid continuation token: " + after);
         }
+        query.setAfter(Long.parseLong(position[0]), Long.parseLong(position[1]));
+      } else if (options.hasKey("afterTimestamp") && options.hasKey("afterId")) {
+        query.setAfter((long) options.getDouble("afterTimestamp"), (long) options.getDouble("afterId"));
+      }
 
-        List<LogEvent> logs = this.sqLiteAppender.getLogStorage().getLogs(start, end, limit, level, tagsList, order, explicitLevel);
+      WritableArray logs = Arguments.createArray();
+      LogEvent[] last = new LogEvent[1];
+      int[] count = new int[1];
+      this.sqLiteAppender.getLogStorage().forEachLog(query, log -> {
+        logs.pushMap(toMapObject(log));
+        last[0] = log;
+        count[0]++;
+      });
 
-        WritableArray result = Arguments.createArray();
-        for (LogEvent log : logs) {
-          result.pushMap(toMapObject(log));
+      WritableMap result = Arguments.createMap();
+      result.putArray("logs", logs);
+      if (count[0] == pageSize) {
+        result.putString("next", last[0].getTimestamp() + ":" + last[0].getId());
+      } else {
+        result.putNull("next");
+      }
+      return result;
+    });
+  }
+
+  @ReactMethod
+  public void searchLogs(ReadableMap options, Promise promise) {
+    executeAsyncTask(options, promise, cancellation -> {
+      String text = options.hasKey("query") ? options.getString("query") : null;
+      Integer limit = options.hasKey("limit") ? options.getInt("limit") : DEFAULT_SEARCH_LIMIT;
+      if (text == null || text.trim().isEmpty()) {
+        throw new IllegalArgumentException("Search query must not be empty");
+      }
+      LogQuery query = toLogQuery(options, cancellation).setLimit(limit).setText(text);
+      if (query.getOrder() == SortOrder.NONE) {
+        query.setOrder(SortOrder.RELEVANCE);
+      }
+
+      WritableArray result = Arguments.createArray();
+      this.sqLiteAppender.getLogStorage().searchLogs(query, log -> result.pushMap(toMapObject(log)));
+
+      return result;
+    });
+  }
+
+  /**
+   * Counts the logs matching the filters per level, tag and/or time bucket.
+   */
+  @ReactMethod
+  public void aggregateLogs(ReadableMap options, Promise promise) {
+    executeAsyncTask(options, promise, cancellation -> {
+      ReadableArray groupByArray = options.hasKey("groupBy") ? options.getArray("groupBy") : null;
+      long bucketInterval = options.hasKey("bucketInterval") ? (long) options.getDouble("bucketInterval") : DEFAULT_BUCKET_INTERVAL;
+
+      Set<GroupBy> groupBy = EnumSet.noneOf(GroupBy.class);
+      if (groupByArray != null) {
+        for (int i = 0; i < groupByArray.size(); i++) {
+          GroupBy dimension = GroupBy.fromString(groupByArray.getString(i));
+          if (dimension == null) {
+            throw new IllegalArgumentException("Unknown groupBy value: " + groupByArray.getString(i));
+          }
+          groupBy.add(dimension);
         }
+      }
 
-        promise.resolve(result);
-      } catch (Throwable t) {
-        promise.reject(t);
+      LogAggregator aggregator = new LogAggregator(groupBy, bucketInterval * 1000);
+      this.sqLiteAppender.getLogStorage().aggregateLogs(toLogQuery(options, cancellation), aggregator);
+
+      WritableArray result = Arguments.createArray();
+      for (LogAggregate aggregate : aggregator.getAggregates()) {
+        result.pushMap(toMapObject(aggregate, aggregator));
       }
+
+      return result;
     });
   }
 
+  private WritableMap toMapObject(LogAggregate aggregate, LogAggregator aggregator) {
+    WritableMap result = Arguments.createMap();
+    if (aggregator.isGroupedBy(GroupBy.TIME_BUCKET)) {
+      result.putDouble("bucket", aggregate.getBucket());
+    }
+    if (aggregator.isGroupedBy(GroupBy.LEVEL)) {
+      result.putInt("level", aggregate.getLevel().getCode());
+    }
+    if (aggregator.isGroupedBy(GroupBy.TAG)) {
+      result.putString("tag", aggregate.getTag());
+    }
+    result.putDouble("count", aggregate.getCount());
+    return result;
+  }
+
+  /**
+   * Streams the logs matching the filter into a gzip-compressed NDJSON or CSV file in the cache directory
+   * and resolves with the absolute path of the file.
+   */
+  @ReactMethod
+  public void exportLogs(ReadableMap options, Promise promise) {
+    executeAsyncTask(options, promise, cancellation -> {
+      String format = options.hasKey("format") ? options.getString("format") : null;
+      File directory = new File(getReactApplicationContext().getCacheDir(), EXPORT_DIRECTORY);
+
+      File file = new LogExporter(this.sqLiteAppender.getLogStorage())
+        .export(toLogQuery(options, cancellation), LogExporter.Format.fromString(format), directory);
+
+      return file.getAbsolutePath();
+    });
+  }
+
+  /**
+   * Deletes are not interrupted once started, cancellation and timeout only remove a queued delete.
+   */
   @ReactMethod
   public void deleteLogs(ReadableMap options, Promise promise) {
-    executeAsyncTask(promise, () -> {
-      try {
-        Long start = options.hasKey("start") ? (long) options.getDouble("start") : null;
-        Long end = options.hasKey("end") ? (long) options.getDouble("end") : null;
-        Long maxId = options.hasKey("maxId") ? (long) options.getDouble("maxId") : null;
-        this.sqLiteAppender.getLogStorage().deleteLogs(start, end, maxId);
-        promise.resolve(null);
-      } catch (Throwable t) {
-        promise.reject(t);
-      }
+    executeAsyncTask(options, promise, cancellation -> {
+      Long start = options.hasKey("start") ? (long) options.getDouble("start") : null;
+      Long end = options.hasKey("end") ? (long) options.getDouble("end") : null;
+      Long maxId = options.hasKey("maxId") ? (long) options.getDouble("maxId") : null;
+      this.sqLiteAppender.getLogStorage().deleteLogs(start, end, maxId);
+      return null;
     });
   }
 
   @ReactMethod
   public void getDbFilePath(Promise promise){
-    executeAsyncTask(promise, () -> {
-      try {
-        File dbFile = this.sqLiteAppender.getLogStorage().getDbFile();
-        promise.resolve(dbFile == null ? null : dbFile.getAbsolutePath());
-      } catch (Throwable t) {
-        promise.reject(t);
+    executeAsyncTask(null, promise, cancellation -> {
+      File dbFile = this.sqLiteAppender.getLogStorage().getDbFile();
+      return dbFile == null ? null : dbFile.getAbsolutePath();
+    });
+  }
+
+  /**
+   * Returns counters of the logging pipeline since {@link #configure}. Latencies are in microseconds,
+   * histogram bucket {@code i} counts values lower than {@code 2^i} and not counted by the previous bucket.
+   */
+  @ReactMethod
+  public void getStats(Promise promise) {
+    executeAsyncTask(null, promise, cancellation -> {
+      LoggerStats stats = this.sqLiteAppender.getStats();
+      RingBufferAppender asyncAppender = this.asyncAppender;
+
+      WritableMap result = Arguments.createMap();
+      result.putDouble("received", stats.getReceived());
+      result.putDouble("written", stats.getWritten());
+      result.putDouble("dropped", stats.getDropped());
+      result.putDouble("queueDepth", asyncAppender == null ? 0 : asyncAppender.getQueueDepth());
+      result.putDouble("peakQueueDepth", stats.getPeakQueueDepth());
+      result.putDouble("retentionDeleted", stats.getRetentionDeleted());
+      result.putDouble("deduplicated", stats.getDeduplicated());
+      WritableMap rateLimited = Arguments.createMap();
+      for (Map.Entry<String, Long> entry : stats.getRateLimited().entrySet()) {
+        rateLimited.putDouble(entry.getKey(), entry.getValue());
       }
+      result.putMap("rateLimited", rateLimited);
+      result.putMap("insertLatency", toMapObject(stats.getInsertLatency()));
+      result.putMap("commitLatency", toMapObject(stats.getCommitLatency()));
+      result.putMap("batchSize", toMapObject(stats.getBatchSize()));
+      result.putDouble("dbFileSize", getFileSize(this.sqLiteAppender.getLogStorage().getDbFile()));
+      return result;
     });
   }
+
+  private WritableMap toMapObject(LoggerStats.Histogram histogram) {
+    WritableMap result = Arguments.createMap();
+    WritableArray buckets = Arguments.createArray();
+    for (long bucket : histogram.getBuckets()) {
+      buckets.pushDouble(bucket);
+    }
+    result.putDouble("count", histogram.getCount());
+    result.putDouble("sum", histogram.getSum());
+    result.putDouble("max", histogram.getMax());
+    result.putArray("buckets", buckets);
+    return result;
+  }
+
+  /**
+   * @return size of the database file including its journal, or of all the files in a directory
+   */
+  private static long getFileSize(File file) {
+    if (file == null) {
+      return 0;
+    }
+    if (file.isDirectory()) {
+      long size = 0;
+      File[] files = file.listFiles();
+      if (files != null) {
+        for (File child : files) {
+          size += child.length();
+        }
+      }
+      return size;
+    }
+    return file.length()
+      + new File(file.getPath() + "-journal").length()
+      + new File(file.getPath() + "-wal").length();
+  }
 }
@@ -0,0 +1,65 @@
+package sk.kedros.sqlitelogger;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.slf4j.Marker;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import sk.kedros.sqlitelogger.common.LogLevel;
+
+/**
+ * Minimum log levels per tag. The map is immutable and replaced on every change, so the lookup on the
+ * write path is a plain read without locking.
+ *
+ * <p>As a turbo filter it decides about the native logs too, before the logback logger levels, so tags
+ * are matched exactly for all logs and a tag level does not apply to the loggers below it.</p>
+ */
+class TagLevels extends TurboFilter {
+
+  private volatile Map<String, LogLevel> levels = Collections.emptyMap();
+  private volatile LogLevel defaultLevel = LogLevel.DEBUG;
+
+  LogLevel getDefaultLevel() {
+    return defaultLevel;
+  }
+
+  void setDefaultLevel(LogLevel defaultLevel) {
+    this.defaultLevel = defaultLevel;
+  }
+
+  /**
+   * @return minimum level of the tag, the default level if the tag has none
+   */
+  LogLevel getLevel(String tag) {
+    LogLevel level = levels.get(tag);
+    return level == null ? defaultLevel : level;
+  }
+
+  /**
+   * @param level minimum level of the tag, null to use the default level
+   */
+  synchronized void setLevel(String tag, LogLevel level) {
+    Map<String, LogLevel> copy = new HashMap<>(levels);
+    if (level == null) {
+      copy.remove(tag);
+    } else {
+      copy.put(tag, level);
+    }
+    levels = Collections.unmodifiableMap(copy);
+  }
+
+  boolean isEnabled(String tag, LogLevel level) {
+    return level != LogLevel.UNKNOWN && level.getCode() >= getLevel(tag).getCode();
+  }
+
+  @Override
+  public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+    return isEnabled(logger.getName(), LogLevel.fromLogbackLevel(level)) ? FilterReply.ACCEPT : FilterReply.DENY;
+  }
+
+}
@@ -0,0 +1,53 @@
+package sk.kedros.sqlitelogger.common;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cancellation request of a running query. Storages bind it to their own way of interrupting the query,
+ * e.g. a {@code CancellationSignal} of the running SQLite statement.
+ */
+public class Cancellation {
+
+  private volatile boolean cancelled;
+  private Runnable listener;
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  public void cancel() {
+    Runnable listener;
+    synchronized (this) {
+      if (cancelled) {
+        return;
+      }
+      cancelled = true;
+      listener = this.listener;
+    }
+    if (listener != null) {
+      listener.run();
+    }
+  }
+
+  /**
+   * Replaces the callback run on cancellation, the callback is run immediately if already cancelled.
+   */
+  public void setOnCancelListener(Runnable listener) {
+    synchronized (this) {
+      this.listener = listener;
+      if (!cancelled) {
+        return;
+      }
+    }
+    if (listener != null) {
+      listener.run();
+    }
+  }
+
+  public void throwIfCancelled() {
+    if (cancelled) {
+      throw new CancellationException("Query was cancelled");
+    }
+  }
+
+}
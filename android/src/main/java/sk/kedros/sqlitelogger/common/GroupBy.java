@@ -0,0 +1,33 @@
+package sk.kedros.sqlitelogger.common;
+
+/**
+ * Dimension of the log aggregation.
+ */
+public enum GroupBy {
+
+  LEVEL,
+  TAG,
+  TIME_BUCKET;
+
+  /**
+   * @return the dimension, or null if the name is unknown
+   */
+  public static GroupBy fromString(String groupBy) {
+
+    if (groupBy == null) {
+      return null;
+    }
+
+    switch (groupBy.toLowerCase()) {
+      case "level":
+        return LEVEL;
+      case "tag":
+        return TAG;
+      case "timebucket":
+        return TIME_BUCKET;
+      default:
+        return null;
+    }
+  }
+
+}
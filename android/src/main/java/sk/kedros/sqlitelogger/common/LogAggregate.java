@@ -0,0 +1,39 @@
+package sk.kedros.sqlitelogger.common;
+
+/**
+ * Number of logs in a group, the dimensions the logs are not grouped by are null.
+ */
+public class LogAggregate {
+
+  private final Long bucket;
+  private final LogLevel level;
+  private final String tag;
+  private final long count;
+
+  public LogAggregate(Long bucket, LogLevel level, String tag, long count) {
+    this.bucket = bucket;
+    this.level = level;
+    this.tag = tag;
+    this.count = count;
+  }
+
+  /**
+   * @return start timestamp of the time bucket
+   */
+  public Long getBucket() {
+    return bucket;
+  }
+
+  public LogLevel getLevel() {
+    return level;
+  }
+
+  public String getTag() {
+    return tag;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+}
@@ -1,6 +1,8 @@
 package sk.kedros.sqlitelogger.common;
 
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.Map;
 
 public class LogEvent implements Serializable {
 
@@ -9,17 +11,58 @@ public class LogEvent implements Serializable {
   private final LogLevel level;
   private final String message;
   private final String tag;
+  private final Map<String, String> fields;
+  private final int repeatCount;
+  private final Long lastTimestamp;
 
   public LogEvent(Long id, Long timestamp, LogLevel level, String message) {
     this(id, timestamp, level, message, null);
   }
 
   public LogEvent(Long id, Long timestamp, LogLevel level, String message, String tag) {
+    this(id, timestamp, level, message, tag, null);
+  }
+
+  /**
+   * @param fields structured key/value context of the log, e.g. a request id, null if there is none
+   */
+  public LogEvent(Long id, Long timestamp, LogLevel level, String message, String tag, Map<String, String> fields) {
+    this(id, timestamp, level, message, tag, fields, 1, null);
+  }
+
+  private LogEvent(Long id, Long timestamp, LogLevel level, String message, String tag, Map<String, String> fields,
+                   int repeatCount, Long lastTimestamp) {
     this.id = id;
     this.timestamp = timestamp;
     this.level = level;
     this.message = message;
     this.tag = tag;
+    this.fields = fields == null || fields.isEmpty() ? Collections.<String, String>emptyMap() : fields;
+    this.repeatCount = Math.max(repeatCount, 1);
+    this.lastTimestamp = lastTimestamp;
+  }
+
+  /**
+   * @return copy of the event with a different id
+   */
+  public LogEvent withId(Long id) {
+    return new LogEvent(id, timestamp, level, message, tag, fields, repeatCount, lastTimestamp);
+  }
+
+  /**
+   * @return copy of the event with different fields
+   */
+  public LogEvent withFields(Map<String, String> fields) {
+    return new LogEvent(id, timestamp, level, message, tag, fields, repeatCount, lastTimestamp);
+  }
+
+  /**
+   * @param repeatCount number of identical events folded into this one, including the first
+   * @param lastTimestamp timestamp of the last folded event
+   * @return copy of the event standing for a burst of identical events
+   */
+  public LogEvent withRepeats(int repeatCount, Long lastTimestamp) {
+    return new LogEvent(id, timestamp, level, message, tag, fields, repeatCount, lastTimestamp);
   }
 
   public Long getId() {
@@ -42,4 +85,25 @@ public String getTag() {
     return tag;
   }
 
+  /**
+   * @return structured fields of the log, never null
+   */
+  public Map<String, String> getFields() {
+    return fields;
+  }
+
+  /**
+   * @return number of identical events folded into this one, one if the event was not repeated
+   */
+  public int getRepeatCount() {
+    return repeatCount;
+  }
+
+  /**
+   * @return timestamp of the last folded event, equal to the timestamp if the event was not repeated
+   */
+  public Long getLastTimestamp() {
+    return lastTimestamp == null ? timestamp : lastTimestamp;
+  }
+
 }
@@ -0,0 +1,166 @@
+package sk.kedros.sqlitelogger.common;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Filter, ordering and keyset position of a log query.
+ */
+public class LogQuery {
+
+  private Long start;
+  private Long end;
+  private Integer limit;
+  private Integer level;
+  private boolean explicitLevel = true;
+  private List<String> tags = Collections.emptyList();
+  private Map<String, String> fields = Collections.emptyMap();
+  private SortOrder order = SortOrder.NONE;
+  private Long afterTimestamp;
+  private Long afterId;
+  private String text;
+  private Cancellation cancellation;
+
+  public LogQuery copy() {
+    LogQuery copy = new LogQuery();
+    copy.start = start;
+    copy.end = end;
+    copy.limit = limit;
+    copy.level = level;
+    copy.explicitLevel = explicitLevel;
+    copy.tags = tags;
+    copy.fields = fields;
+    copy.order = order;
+    copy.afterTimestamp = afterTimestamp;
+    copy.afterId = afterId;
+    copy.text = text;
+    copy.cancellation = cancellation;
+    return copy;
+  }
+
+  public Long getStart() {
+    return start;
+  }
+
+  public LogQuery setStart(Long start) {
+    this.start = start;
+    return this;
+  }
+
+  public Long getEnd() {
+    return end;
+  }
+
+  public LogQuery setEnd(Long end) {
+    this.end = end;
+    return this;
+  }
+
+  public Integer getLimit() {
+    return limit;
+  }
+
+  public LogQuery setLimit(Integer limit) {
+    this.limit = limit;
+    return this;
+  }
+
+  public Integer getLevel() {
+    return level;
+  }
+
+  public LogQuery setLevel(Integer level) {
+    this.level = level;
+    return this;
+  }
+
+  public boolean isExplicitLevel() {
+    return explicitLevel;
+  }
+
+  /**
+   * @param explicitLevel if true only logs with exactly the given level are matched, otherwise logs with level
+   *                      greater or equal
+   */
+  public LogQuery setExplicitLevel(boolean explicitLevel) {
+    this.explicitLevel = explicitLevel;
+    return this;
+  }
+
+  public List<String> getTags() {
+    return tags;
+  }
+
+  public LogQuery setTags(List<String> tags) {
+    this.tags = tags == null ? Collections.<String>emptyList() : tags;
+    return this;
+  }
+
+  public Map<String, String> getFields() {
+    return fields;
+  }
+
+  /**
+   * @param fields structured fields the logs must have, all of them with exactly the given value
+   */
+  public LogQuery setFields(Map<String, String> fields) {
+    this.fields = fields == null ? Collections.<String, String>emptyMap() : fields;
+    return this;
+  }
+
+  public SortOrder getOrder() {
+    return order;
+  }
+
+  public LogQuery setOrder(SortOrder order) {
+    this.order = order == null ? SortOrder.NONE : order;
+    return this;
+  }
+
+  public Long getAfterTimestamp() {
+    return afterTimestamp;
+  }
+
+  public Long getAfterId() {
+    return afterId;
+  }
+
+  /**
+   * Continue after the given (timestamp, id) position in the query order.
+   */
+  public LogQuery setAfter(Long afterTimestamp, Long afterId) {
+    this.afterTimestamp = afterTimestamp;
+    this.afterId = afterId;
+    return this;
+  }
+
+  public String getText() {
+    return text;
+  }
+
+  /**
+   * @param text full-text search expression the log message must match
+   */
+  public LogQuery setText(String text) {
+    this.text = text;
+    return this;
+  }
+
+  public Cancellation getCancellation() {
+    return cancellation;
+  }
+
+  /**
+   * @param cancellation interrupts the query when cancelled, the storage then throws an unchecked exception
+   */
+  public LogQuery setCancellation(Cancellation cancellation) {
+    this.cancellation = cancellation;
+    return this;
+  }
+
+  public boolean hasAfter() {
+    return afterTimestamp != null && afterId != null;
+  }
+
+}
@@ -4,7 +4,8 @@ public enum SortOrder {
 
   NONE,
   ASC,
-  DESC;
+  DESC,
+  RELEVANCE;
 
   public static SortOrder fromString(String order) {
 
@@ -17,6 +18,8 @@ public static SortOrder fromString(String order) {
         return ASC;
       case "desc":
         return DESC;
+      case "relevance":
+        return RELEVANCE;
       default:
         return NONE;
     }
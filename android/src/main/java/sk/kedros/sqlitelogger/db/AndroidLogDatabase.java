@@ -0,0 +1,272 @@
+package sk.kedros.sqlitelogger.db;
+
+import java.io.File;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.os.CancellationSignal;
+import android.util.Log;
+
+import ch.qos.logback.core.android.AndroidContextUtil;
+import sk.kedros.sqlitelogger.common.Cancellation;
+
+/**
+ * {@link LogDatabase} on the Android {@link SQLiteDatabase}.
+ */
+final class AndroidLogDatabase implements LogDatabase {
+
+  private static final String TAG = "AndroidLogDatabase";
+
+  private final SQLiteDatabase db;
+  private final File file;
+
+  private AndroidLogDatabase(SQLiteDatabase db, File file) {
+    this.db = db;
+    this.file = file;
+  }
+
+  /**
+   * Opens or creates the database, without a directory it is placed among the app databases.
+   */
+  static AndroidLogDatabase open(String logFileDir, String logFileName) {
+
+    if (logFileName == null || logFileName.trim().isEmpty()) {
+      logFileName = "log.sqlite";
+    }
+
+    File file;
+    if (logFileDir == null || logFileDir.trim().isEmpty()) {
+      file = new File(new AndroidContextUtil().getDatabasePath(logFileName));
+    } else {
+      file = new File(logFileDir, logFileName);
+    }
+
+    try {
+      file.getParentFile().mkdirs();
+      // without localized collators Android does not create the android_metadata table, so the page size and
+      // auto vacuum mode can still be set on a new database
+      SQLiteDatabase db = SQLiteDatabase.openDatabase(file.getPath(), null,
+        SQLiteDatabase.CREATE_IF_NECESSARY | SQLiteDatabase.NO_LOCALIZED_COLLATORS);
+      // the prepared statements are cached per connection, the query filters need more than the default
+      db.setMaxSqlCacheSize(SQLiteDatabase.MAX_SQL_CACHE_SIZE);
+      return new AndroidLogDatabase(db, file);
+    } catch (SQLiteException e) {
+      throw new IllegalArgumentException("Cannot open database", e);
+    }
+  }
+
+  @Override
+  public File getFile() {
+    return file;
+  }
+
+  @Override
+  public int getVersion() {
+    return db.getVersion();
+  }
+
+  @Override
+  public void setVersion(int version) {
+    db.setVersion(version);
+    Log.d(TAG, "setVersion version:" + version);
+  }
+
+  /**
+   * WAL gives the database a pool of reader connections, the queries run on them alongside the writer.
+   */
+  @Override
+  public void setWriteAheadLogging(boolean enabled) {
+    if (enabled) {
+      db.enableWriteAheadLogging();
+    } else {
+      db.disableWriteAheadLogging();
+    }
+  }
+
+  @Override
+  public void execSQL(String sql) {
+    db.execSQL(sql);
+  }
+
+  @Override
+  public void execSQL(String sql, Object[] args) {
+    db.execSQL(sql, args);
+  }
+
+  /**
+   * Since Android 11 the statement is run on every connection of the pool and on the connections opened later.
+   * Before, it runs inside a transaction, which always takes the primary connection, so the writer is
+   * configured and the reader connections keep the platform defaults.
+   */
+  @Override
+  public void execPerConnectionSQL(String sql) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+      db.execPerConnectionSQL(sql, null);
+      return;
+    }
+    db.beginTransactionNonExclusive();
+    try {
+      // some PRAGMAs return a row, so they cannot be run through execSQL
+      Cursor cursor = db.rawQuery(sql, null);
+      try {
+        cursor.moveToFirst();
+      } finally {
+        cursor.close();
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * Binds the cancellation of the query to a {@link CancellationSignal}, so cancelling interrupts the running
+   * statement and the next fill of the cursor window with an {@link android.os.OperationCanceledException}.
+   */
+  @Override
+  public LogCursor rawQuery(String sql, String[] args, Cancellation cancellation) {
+    if (cancellation == null) {
+      return new AndroidLogCursor(db.rawQuery(sql, args));
+    }
+    CancellationSignal signal = new CancellationSignal();
+    cancellation.setOnCancelListener(signal::cancel);
+    return new AndroidLogCursor(db.rawQuery(sql, args, signal));
+  }
+
+  @Override
+  public LogStatement compileStatement(String sql) {
+    return new AndroidLogStatement(db.compileStatement(sql));
+  }
+
+  @Override
+  public void beginTransactionNonExclusive() {
+    db.beginTransactionNonExclusive();
+  }
+
+  @Override
+  public void setTransactionSuccessful() {
+    db.setTransactionSuccessful();
+  }
+
+  @Override
+  public void endTransaction() {
+    db.endTransaction();
+  }
+
+  @Override
+  public boolean inTransaction() {
+    return db.inTransaction();
+  }
+
+  @Override
+  public void close() {
+    db.close();
+  }
+
+  private static final class AndroidLogStatement implements LogStatement {
+
+    private final SQLiteStatement stmt;
+
+    AndroidLogStatement(SQLiteStatement stmt) {
+      this.stmt = stmt;
+    }
+
+    @Override
+    public void bindLong(int index, long value) {
+      stmt.bindLong(index, value);
+    }
+
+    @Override
+    public void bindString(int index, String value) {
+      stmt.bindString(index, value);
+    }
+
+    @Override
+    public void bindBlob(int index, byte[] value) {
+      stmt.bindBlob(index, value);
+    }
+
+    @Override
+    public void bindNull(int index) {
+      stmt.bindNull(index);
+    }
+
+    @Override
+    public void clearBindings() {
+      stmt.clearBindings();
+    }
+
+    @Override
+    public long executeInsert() {
+      return stmt.executeInsert();
+    }
+
+    @Override
+    public int executeUpdateDelete() {
+      return stmt.executeUpdateDelete();
+    }
+
+    @Override
+    public long simpleQueryForLong() {
+      return stmt.simpleQueryForLong();
+    }
+
+    @Override
+    public void close() {
+      stmt.close();
+    }
+  }
+
+  private static final class AndroidLogCursor implements LogCursor {
+
+    private final Cursor cursor;
+
+    AndroidLogCursor(Cursor cursor) {
+      this.cursor = cursor;
+    }
+
+    @Override
+    public boolean moveToNext() {
+      return cursor.moveToNext();
+    }
+
+    @Override
+    public boolean moveToFirst() {
+      return cursor.moveToFirst();
+    }
+
+    @Override
+    public boolean isNull(int column) {
+      return cursor.isNull(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+      return cursor.getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+      return cursor.getInt(column);
+    }
+
+    @Override
+    public String getString(int column) {
+      return cursor.getString(column);
+    }
+
+    @Override
+    public byte[] getBlob(int column) {
+      return cursor.getBlob(column);
+    }
+
+    @Override
+    public void close() {
+      cursor.close();
+    }
+  }
+
+}
@@ -0,0 +1,72 @@
+package sk.kedros.sqlitelogger.db;
+
+/**
+ * Trade-off between durability of the written logs and insert throughput.
+ */
+public enum DurabilityProfile {
+
+  /**
+   * Rollback journal with full sync on every commit. Nothing that was committed is lost, even on power loss.
+   */
+  SAFE(false, "FULL", -2000, 0),
+  /**
+   * WAL journal synced on checkpoints only. Survives app crashes, the last commits can be lost on power loss.
+   * The default, it switches databases created with the rollback journal to WAL when they are opened.
+   */
+  BALANCED(true, "NORMAL", -4000, 0),
+  /**
+   * WAL journal synced on checkpoints only, bigger page cache and memory mapped I/O. Same durability as
+   * {@link #BALANCED}, synchronous OFF is not used since it can corrupt the database on power loss or OS crash.
+   */
+  FAST(true, "NORMAL", -8000, 64 * 1024 * 1024);
+
+  public static final int PAGE_SIZE = 4096;
+
+  private final boolean writeAheadLogging;
+  private final String synchronous;
+  private final int cacheSize;
+  private final long mmapSize;
+
+  DurabilityProfile(boolean writeAheadLogging, String synchronous, int cacheSize, long mmapSize) {
+    this.writeAheadLogging = writeAheadLogging;
+    this.synchronous = synchronous;
+    this.cacheSize = cacheSize;
+    this.mmapSize = mmapSize;
+  }
+
+  public boolean isWriteAheadLogging() {
+    return writeAheadLogging;
+  }
+
+  public String getSynchronous() {
+    return synchronous;
+  }
+
+  /**
+   * @return page cache size in the PRAGMA cache_size format (negative value is size in KiB)
+   */
+  public int getCacheSize() {
+    return cacheSize;
+  }
+
+  public long getMmapSize() {
+    return mmapSize;
+  }
+
+  public static DurabilityProfile fromString(String profile) {
+
+    if (profile == null) {
+      return BALANCED;
+    }
+
+    switch (profile.toLowerCase()) {
+      case "safe":
+        return SAFE;
+      case "fast":
+        return FAST;
+      default:
+        return BALANCED;
+    }
+  }
+
+}
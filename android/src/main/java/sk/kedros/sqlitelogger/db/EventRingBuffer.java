@@ -0,0 +1,119 @@
+package sk.kedros.sqlitelogger.db;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import sk.kedros.sqlitelogger.common.LogEvent;
+
+/**
+ * Bounded lock-free queue of log events (Vyukov's ring buffer). Every slot carries a sequence number which tells
+ * whether the slot is free for the producer claiming the position or filled for the consumer reading it, so
+ * producers never take a lock. Positions are claimed by CAS on both ends, which lets producers also evict
+ * the oldest event when the queue is full.
+ */
+final class EventRingBuffer {
+
+  private final int mask;
+  private final AtomicReferenceArray<LogEvent> events;
+  private final AtomicLongArray sequences;
+  private final AtomicLong tail = new AtomicLong(); // next position to write
+  private final AtomicLong head = new AtomicLong(); // next position to read
+
+  /**
+   * @param capacity minimal capacity, rounded up to a power of two
+   */
+  EventRingBuffer(int capacity) {
+    int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+    this.mask = size - 1;
+    this.events = new AtomicReferenceArray<>(size);
+    this.sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+  }
+
+  /**
+   * @return false if the queue is full
+   */
+  boolean offer(LogEvent event) {
+    long position = tail.get();
+    while (true) {
+      int index = (int) (position & mask);
+      long available = sequences.get(index) - position;
+      if (available == 0) {
+        if (tail.compareAndSet(position, position + 1)) {
+          events.lazySet(index, event);
+          sequences.set(index, position + 1); // publishes the event
+          return true;
+        }
+        position = tail.get();
+      } else if (available < 0) {
+        return false;
+      } else {
+        position = tail.get();
+      }
+    }
+  }
+
+  /**
+   * @return the oldest event or null if the queue is empty
+   */
+  LogEvent poll() {
+    long position = head.get();
+    while (true) {
+      int index = (int) (position & mask);
+      long filled = sequences.get(index) - (position + 1);
+      if (filled == 0) {
+        if (head.compareAndSet(position, position + 1)) {
+          LogEvent event = events.get(index);
+          events.lazySet(index, null);
+          sequences.set(index, position + mask + 1); // frees the slot for the next round
+          return event;
+        }
+        position = head.get();
+      } else if (filled < 0) {
+        return null;
+      } else {
+        position = head.get();
+      }
+    }
+  }
+
+  /**
+   * Moves at most {@code max} of the oldest events into the list.
+   * @return number of moved events
+   */
+  int drainTo(List<LogEvent> target, int max) {
+    int count = 0;
+    LogEvent event;
+    while (count < max && (event = poll()) != null) {
+      target.add(event);
+      count++;
+    }
+    return count;
+  }
+
+  int size() {
+    long size = tail.get() - head.get();
+    return (int) Math.max(0, Math.min(size, capacity()));
+  }
+
+  boolean isEmpty() {
+    return size() == 0;
+  }
+
+  int capacity() {
+    return mask + 1;
+  }
+
+  long getHead() {
+    return head.get();
+  }
+
+  long getTail() {
+    return tail.get();
+  }
+
+}
@@ -0,0 +1,126 @@
+package sk.kedros.sqlitelogger.db;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+import sk.kedros.sqlitelogger.common.GroupBy;
+import sk.kedros.sqlitelogger.common.LogAggregate;
+import sk.kedros.sqlitelogger.common.LogEvent;
+import sk.kedros.sqlitelogger.common.LogLevel;
+
+/**
+ * Sums the log counts of the groups reported by the storages, so partial results of more partitions,
+ * rollup tables and raw logs can be merged.
+ */
+public class LogAggregator {
+
+  private static final Comparator<LogAggregate> ORDER = Comparator
+    .comparing(LogAggregate::getBucket, Comparator.nullsFirst(Comparator.naturalOrder()))
+    .thenComparing(LogAggregate::getLevel, Comparator.nullsFirst(Comparator.naturalOrder()))
+    .thenComparing(LogAggregate::getTag, Comparator.nullsFirst(Comparator.naturalOrder()));
+
+  private final Set<GroupBy> groupBy;
+  private final long bucketSize;
+  private final Map<Group, long[]> counts = new HashMap<>();
+
+  /**
+   * @param bucketSize length of the time buckets in milliseconds, required when grouped by {@link GroupBy#TIME_BUCKET}
+   */
+  public LogAggregator(Set<GroupBy> groupBy, long bucketSize) {
+    this.groupBy = groupBy.isEmpty() ? EnumSet.noneOf(GroupBy.class) : EnumSet.copyOf(groupBy);
+    if (this.groupBy.contains(GroupBy.TIME_BUCKET) && bucketSize <= 0) {
+      throw new IllegalArgumentException("Time bucket size must be positive");
+    }
+    this.bucketSize = bucketSize;
+  }
+
+  public boolean isGroupedBy(GroupBy dimension) {
+    return groupBy.contains(dimension);
+  }
+
+  public long getBucketSize() {
+    return bucketSize;
+  }
+
+  /**
+   * @return start timestamp of the time bucket containing the timestamp
+   */
+  public long getBucket(long timestamp) {
+    return Math.floorDiv(timestamp, bucketSize) * bucketSize;
+  }
+
+  public synchronized void add(LogEvent event) {
+    add(isGroupedBy(GroupBy.TIME_BUCKET) ? getBucket(event.getTimestamp()) : null, event.getLevel(), event.getTag(),
+      event.getRepeatCount());
+  }
+
+  /**
+   * Adds the count to the group, values of the dimensions the logs are not grouped by are ignored.
+   */
+  public synchronized void add(Long bucket, LogLevel level, String tag, long count) {
+    if (count == 0) {
+      return;
+    }
+    Group group = new Group(
+      isGroupedBy(GroupBy.TIME_BUCKET) ? bucket : null,
+      isGroupedBy(GroupBy.LEVEL) ? level : null,
+      isGroupedBy(GroupBy.TAG) ? tag : null
+    );
+    long[] sum = counts.get(group);
+    if (sum == null) {
+      counts.put(group, new long[] {count});
+    } else {
+      sum[0] += count;
+    }
+  }
+
+  /**
+   * @return non-empty groups ordered by bucket, level and tag
+   */
+  public synchronized List<LogAggregate> getAggregates() {
+    List<LogAggregate> aggregates = new ArrayList<>(counts.size());
+    for (Map.Entry<Group, long[]> entry : counts.entrySet()) {
+      if (entry.getValue()[0] > 0) {
+        Group group = entry.getKey();
+        aggregates.add(new LogAggregate(group.bucket, group.level, group.tag, entry.getValue()[0]));
+      }
+    }
+    Collections.sort(aggregates, ORDER);
+    return aggregates;
+  }
+
+  private static final class Group {
+
+    private final Long bucket;
+    private final LogLevel level;
+    private final String tag;
+
+    Group(Long bucket, LogLevel level, String tag) {
+      this.bucket = bucket;
+      this.level = level;
+      this.tag = tag;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Group)) {
+        return false;
+      }
+      Group other = (Group) o;
+      return Objects.equals(bucket, other.bucket) && level == other.level && Objects.equals(tag, other.tag);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(bucket, level, tag);
+    }
+  }
+
+}
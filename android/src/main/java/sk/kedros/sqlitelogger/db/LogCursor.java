@@ -0,0 +1,27 @@
+package sk.kedros.sqlitelogger.db;
+
+/**
+ * Forward-only result of a {@link LogDatabase} query, column indexes start at 0.
+ */
+interface LogCursor {
+
+  boolean moveToNext();
+
+  /**
+   * Moves to the first row, only before the cursor was moved.
+   */
+  boolean moveToFirst();
+
+  boolean isNull(int column);
+
+  long getLong(int column);
+
+  int getInt(int column);
+
+  String getString(int column);
+
+  byte[] getBlob(int column);
+
+  void close();
+
+}
@@ -0,0 +1,60 @@
+package sk.kedros.sqlitelogger.db;
+
+import java.io.File;
+
+import sk.kedros.sqlitelogger.common.Cancellation;
+
+/**
+ * SQLite database used by {@link SQLiteLogStorage}. The methods follow {@code android.database.sqlite.SQLiteDatabase},
+ * so the storage runs on Android and, through sqlite-jdbc, in the JVM benchmarks. Errors of the database are
+ * thrown as unchecked exceptions.
+ */
+interface LogDatabase {
+
+  File getFile();
+
+  int getVersion();
+
+  void setVersion(int version);
+
+  /**
+   * Switches the database between the WAL and the rollback journal.
+   */
+  void setWriteAheadLogging(boolean enabled);
+
+  void execSQL(String sql);
+
+  void execSQL(String sql, Object[] args);
+
+  /**
+   * Runs the statement on every connection of the database, also on the ones opened later. With WAL the
+   * queries run on a pool of reader connections, so a PRAGMA run by {@link #rawQuery} may reach one reader
+   * only, not the writer.
+   */
+  void execPerConnectionSQL(String sql);
+
+  /**
+   * @param cancellation interrupts the running statement once cancelled, may be null
+   */
+  LogCursor rawQuery(String sql, String[] args, Cancellation cancellation);
+
+  LogStatement compileStatement(String sql);
+
+  /**
+   * Begins an IMMEDIATE transaction, it takes the write lock but lets readers of a WAL database go on.
+   * Transactions may be nested, only the outermost one commits.
+   */
+  void beginTransactionNonExclusive();
+
+  void setTransactionSuccessful();
+
+  /**
+   * Commits the transaction if it was marked successful, otherwise rolls it back.
+   */
+  void endTransaction();
+
+  boolean inTransaction();
+
+  void close();
+
+}
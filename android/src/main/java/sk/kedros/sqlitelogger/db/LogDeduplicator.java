@@ -0,0 +1,205 @@
+package sk.kedros.sqlitelogger.db;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Predicate;
+
+import sk.kedros.sqlitelogger.common.LogEvent;
+import sk.kedros.sqlitelogger.common.LogLevel;
+
+/**
+ * Folds identical logs (same tag, level, message and fields) written within a time window since the first log
+ * of a burst. The first log is written right away, the later copies are only counted and the counts are added
+ * to the stored log by {@link #drainRepeats}, so a burst of thousands of copies costs one row and a crash loses
+ * at most the count of the last copies, never a log. When more bursts are open than the limit, the oldest one
+ * is closed early.
+ */
+final class LogDeduplicator {
+
+  private final long window;
+  private final int maxBursts;
+  private final Predicate<LogEvent> admission;
+  private final LoggerStats stats;
+  private final Map<Key, Burst> bursts = new LinkedHashMap<>();
+  // closed bursts with copies not added to the stored log yet
+  private final List<Burst> closed = new ArrayList<>();
+  // first logs of the bursts which are not written yet, by identity
+  private final Map<LogEvent, Burst> unwritten = new IdentityHashMap<>();
+  private long generation;
+
+  /**
+   * @param window length of the window in milliseconds since the first log of a burst
+   * @param maxBursts maximal number of bursts open at once
+   * @param admission decides whether a log starting a new burst is kept, e.g. by its rate limit
+   */
+  LogDeduplicator(long window, int maxBursts, Predicate<LogEvent> admission, LoggerStats stats) {
+    if (window <= 0) {
+      throw new IllegalArgumentException("Deduplication window must be positive");
+    }
+    this.window = window;
+    this.maxBursts = Math.max(maxBursts, 1);
+    this.admission = admission;
+    this.stats = stats;
+  }
+
+  /**
+   * Folds the log into the open burst of its identical logs, or opens a new burst.
+   * @return true if the log opens a burst and is to be written, false if it was folded or not admitted
+   */
+  synchronized boolean offer(LogEvent event) {
+    Key key = new Key(event);
+    Burst burst = bursts.get(key);
+    if (burst != null) {
+      if (event.getTimestamp() < burst.first.getTimestamp() + window) {
+        burst.fold(event.getTimestamp());
+        stats.recordDeduplicated();
+        return false;
+      }
+      bursts.remove(key);
+      close(burst);
+    }
+    if (admission != null && !admission.test(event)) {
+      return false;
+    }
+    burst = new Burst(event, generation);
+    bursts.put(key, burst);
+    unwritten.put(event, burst);
+    if (bursts.size() > maxBursts) {
+      Iterator<Burst> eldest = bursts.values().iterator();
+      close(eldest.next());
+      eldest.remove();
+    }
+    return true;
+  }
+
+  /**
+   * Records the ids of the stored first logs of the bursts.
+   * @param ids ids of the events returned by {@link LogStorage#insertLogs}
+   */
+  synchronized void onWritten(List<LogEvent> events, long[] ids) {
+    if (unwritten.isEmpty()) {
+      return;
+    }
+    for (int i = 0; i < ids.length; i++) {
+      Burst burst = unwritten.remove(events.get(i));
+      if (burst != null) {
+        burst.logId = ids[i];
+      }
+    }
+  }
+
+  /**
+   * Collects the copies folded since the last call as repeats of the stored logs and closes the bursts whose
+   * window has passed. Callers write the pending events first, so a burst whose first log is still not written
+   * after a whole drain period was not stored and its copies are dropped.
+   * @param now current time in milliseconds, {@link Long#MIN_VALUE} keeps all bursts open
+   * @param repeats collects events with the id of the stored log, the number of the new copies as repeat count
+   *                and the timestamp of the last copy
+   */
+  synchronized void drainRepeats(long now, List<LogEvent> repeats) {
+    generation++;
+    Iterator<Burst> iterator = bursts.values().iterator();
+    while (iterator.hasNext()) {
+      Burst burst = iterator.next();
+      if (burst.first.getTimestamp() + window <= now) {
+        iterator.remove();
+        close(burst);
+      } else if (burst.logId == -1 && burst.generation < generation - 1) {
+        // the next copy opens a new burst and is written
+        iterator.remove();
+      } else {
+        burst.drain(repeats);
+      }
+    }
+    Iterator<Burst> closedIterator = closed.iterator();
+    while (closedIterator.hasNext()) {
+      Burst burst = closedIterator.next();
+      burst.drain(repeats);
+      if (burst.count == 0 || burst.generation < generation - 1) {
+        closedIterator.remove();
+      }
+    }
+    Iterator<Burst> unwrittenIterator = unwritten.values().iterator();
+    while (unwrittenIterator.hasNext()) {
+      if (unwrittenIterator.next().generation < generation - 1) {
+        unwrittenIterator.remove();
+      }
+    }
+  }
+
+  private void close(Burst burst) {
+    if (burst.count > 0) {
+      closed.add(burst);
+    }
+  }
+
+  private static final class Burst {
+
+    private final LogEvent first;
+    private final long generation;
+    private long logId = -1;
+    // copies folded since the last drain
+    private int count;
+    private long lastTimestamp;
+
+    Burst(LogEvent first, long generation) {
+      this.first = first;
+      this.generation = generation;
+      this.lastTimestamp = first.getTimestamp();
+    }
+
+    void fold(long timestamp) {
+      count++;
+      lastTimestamp = Math.max(lastTimestamp, timestamp);
+    }
+
+    void drain(List<LogEvent> repeats) {
+      if (count == 0 || logId == -1) {
+        return;
+      }
+      repeats.add(first.withId(logId).withRepeats(count, lastTimestamp));
+      count = 0;
+    }
+  }
+
+  private static final class Key {
+
+    private final String tag;
+    private final LogLevel level;
+    private final String message;
+    private final Map<String, String> fields;
+    private final int hash;
+
+    Key(LogEvent event) {
+      this.tag = event.getTag();
+      this.level = event.getLevel();
+      this.message = event.getMessage();
+      this.fields = event.getFields();
+      this.hash = Objects.hash(tag, level, message, fields);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return hash == other.hash && level == other.level && Objects.equals(tag, other.tag)
+        && Objects.equals(message, other.message) && fields.equals(other.fields);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+}
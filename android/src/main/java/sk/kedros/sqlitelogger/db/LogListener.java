@@ -0,0 +1,18 @@
+package sk.kedros.sqlitelogger.db;
+
+import java.util.List;
+
+import sk.kedros.sqlitelogger.common.LogEvent;
+
+/**
+ * Receives the events written by the {@link SQLiteAppender}.
+ */
+public interface LogListener {
+
+  /**
+   * Called on the writing thread right after the events are stored, so it must not block.
+   * The events carry the ids of the stored logs. The list must not be kept or modified.
+   */
+  void onLogsWritten(List<LogEvent> events);
+
+}
@@ -0,0 +1,199 @@
+package sk.kedros.sqlitelogger.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import sk.kedros.sqlitelogger.common.GroupBy;
+import sk.kedros.sqlitelogger.common.LogQuery;
+import sk.kedros.sqlitelogger.common.SortOrder;
+
+/**
+ * Translates a {@link LogQuery} into SQL. Kept free of Android classes, so the benchmarks can run the same
+ * statements on a plain JVM.
+ */
+final class LogQueryBuilder {
+
+  private LogQueryBuilder() {
+  }
+
+  /**
+   * Builds the SELECT statement of the log query. All values are bound parameters, so statements of queries
+   * with the same filter combination share the SQL text and are reused from the prepared statement cache.
+   * @param tagIds dictionary ids of the known tags
+   * @param fullTextSearch whether the full-text index exists
+   * @param args collects the bound arguments
+   * @return the statement, or null if the query cannot match any row
+   */
+  static String buildGetLogsQuery(LogQuery query, Map<String, Long> tagIds, boolean fullTextSearch, List<String> args) {
+
+    if (query.getText() != null && !fullTextSearch) {
+      throw new IllegalStateException("Full-text search is not enabled");
+    }
+
+    List<String> selection = buildSelection(query, tagIds, true, args);
+    if (selection == null) {
+      return null;
+    }
+    boolean descending = query.getOrder() == SortOrder.DESC;
+
+    if (query.hasAfter()) {
+      selection.add(descending ? SQLQuery.SELECTION_KEYSET_BEFORE : SQLQuery.SELECTION_KEYSET_AFTER);
+      args.add(String.valueOf(query.getAfterTimestamp()));
+      args.add(String.valueOf(query.getAfterTimestamp()));
+      args.add(String.valueOf(query.getAfterId()));
+    }
+
+    StringBuilder sql = new StringBuilder(SQLQuery.QUERY_GET_LOGS);
+    if (!selection.isEmpty()) {
+      sql.append(" WHERE ").append(String.join(" AND ", selection));
+    }
+    sql.append(" ORDER BY ").append(descending ? SQLQuery.ORDER_BY_KEYSET_DESC : SQLQuery.ORDER_BY_KEYSET_ASC);
+    if (query.getLimit() != null) {
+      sql.append(" LIMIT ?");
+      args.add(String.valueOf(query.getLimit()));
+    }
+
+    return sql.toString();
+  }
+
+  /**
+   * Builds the statement counting the logs matching the query per aggregator group. The result columns are
+   * the bucket start, level, tag id and the count, the dimensions the aggregator does not group by are null.
+   * @param table either the logs or the rollup table, they share the filtered columns except the structured
+   *              fields, which can only be filtered in the logs table
+   * @param countExpression {@link SQLQuery#COUNT_LOGS} for the logs, sum(count) for the rollup table
+   * @param tagIds dictionary ids of the known tags
+   * @param args collects the bound arguments
+   * @return the statement, or null if the query cannot match any row
+   */
+  static String buildAggregateQuery(String table, String countExpression, LogQuery query, Map<String, Long> tagIds,
+                                    LogAggregator aggregator, List<String> args) {
+
+    List<String> selection = buildSelection(query, tagIds, false, args);
+    if (selection == null) {
+      return null;
+    }
+
+    List<String> groups = new ArrayList<>(3);
+    StringBuilder sql = new StringBuilder("SELECT ");
+    if (aggregator.isGroupedBy(GroupBy.TIME_BUCKET)) {
+      sql.append(SQLQuery.bucketOf(SQLQuery.COLUMN_TIMESTAMP, aggregator.getBucketSize()));
+      groups.add("1");
+    } else {
+      sql.append("NULL");
+    }
+    if (aggregator.isGroupedBy(GroupBy.LEVEL)) {
+      sql.append(", level");
+      groups.add("2");
+    } else {
+      sql.append(", NULL");
+    }
+    if (aggregator.isGroupedBy(GroupBy.TAG)) {
+      sql.append(", NULLIF(tag_id, 0)");
+      groups.add("3");
+    } else {
+      sql.append(", NULL");
+    }
+    sql.append(", ").append(countExpression).append(" FROM ").append(table);
+    if (!selection.isEmpty()) {
+      sql.append(" WHERE ").append(String.join(" AND ", selection));
+    }
+    if (!groups.isEmpty()) {
+      sql.append(" GROUP BY ").append(String.join(", ", groups));
+    }
+
+    return sql.toString();
+  }
+
+  /**
+   * Builds the filter conditions of the log query.
+   * @param tagIds dictionary ids of the known tags
+   * @param includeText whether to add the full-text condition, the full-text index must exist
+   * @param args collects the bound arguments
+   * @return the conditions, or null if the query cannot match any row
+   */
+  static List<String> buildSelection(LogQuery query, Map<String, Long> tagIds, boolean includeText, List<String> args) {
+
+    List<String> selection = new ArrayList<>(6);
+
+    if (query.getStart() != null) {
+      selection.add(SQLQuery.SELECTION_TIMESTAMP_GTE);
+      args.add(String.valueOf(query.getStart()));
+    }
+
+    if (query.getEnd() != null) {
+      selection.add(SQLQuery.SELECTION_TIMESTAMP_LTE);
+      args.add(String.valueOf(query.getEnd()));
+    }
+
+    if (query.getLevel() != null) {
+      if (query.isExplicitLevel()) {
+          selection.add(SQLQuery.SELECTION_LEVEL_EQ);
+      } else {
+          selection.add(SQLQuery.SELECTION_LEVEL_GTE);
+      }
+      args.add(String.valueOf(query.getLevel()));
+    }
+
+    List<String> tags = query.getTags();
+    if (tags.size() > 0) {
+      List<String> tagIdList = new ArrayList<>(tags.size());
+      for (String tag : tags) {
+        Long tagId = tagIds.get(tag);
+        if (tagId != null) {
+          tagIdList.add(String.valueOf(tagId));
+        }
+      }
+      if (tagIdList.isEmpty()) {
+        // none of the requested tags was ever logged
+        return null;
+      }
+      // pad the list to a power of two by repeating the last id, so only a few distinct statements exist
+      int placeholders = paddedSize(tagIdList.size());
+      StringBuilder in = new StringBuilder("tag_id IN (");
+      for (int i = 0; i < placeholders; i++) {
+        in.append(i == 0 ? "?" : ", ?");
+        args.add(tagIdList.get(Math.min(i, tagIdList.size() - 1)));
+      }
+      selection.add(in.append(")").toString());
+    }
+
+    for (Map.Entry<String, String> field : query.getFields().entrySet()) {
+      if (field.getValue() == null) {
+        return null;
+      }
+      selection.add(SQLQuery.SELECTION_FIELD_EQ);
+      args.add(field.getKey());
+      args.add(field.getValue());
+    }
+
+    if (includeText && query.getText() != null) {
+      selection.add(SQLQuery.SELECTION_FTS_MATCH);
+      args.add(query.getText());
+    }
+
+    return selection;
+  }
+
+  /**
+   * Builds the statement reading the structured fields of the given logs, ordered by log id and field name.
+   * @param logIds ids of the logs, not empty
+   * @param args collects the bound arguments
+   */
+  static String buildFieldsQuery(List<Long> logIds, List<String> args) {
+    int placeholders = paddedSize(logIds.size());
+    StringBuilder sql = new StringBuilder(SQLQuery.QUERY_FIELDS).append(" WHERE log_id IN (");
+    for (int i = 0; i < placeholders; i++) {
+      sql.append(i == 0 ? "?" : ", ?");
+      args.add(String.valueOf(logIds.get(Math.min(i, logIds.size() - 1))));
+    }
+    return sql.append(") ORDER BY log_id, name").toString();
+  }
+
+  private static int paddedSize(int size) {
+    int padded = Integer.highestOneBit(size);
+    return padded < size ? padded << 1 : padded;
+  }
+
+}
@@ -0,0 +1,35 @@
+package sk.kedros.sqlitelogger.db;
+
+/**
+ * Compiled statement of a {@link LogDatabase}, bind indexes start at 1.
+ */
+interface LogStatement {
+
+  void bindLong(int index, long value);
+
+  void bindString(int index, String value);
+
+  void bindBlob(int index, byte[] value);
+
+  void bindNull(int index);
+
+  void clearBindings();
+
+  /**
+   * @return row id of the inserted row, -1 if no row was inserted
+   */
+  long executeInsert();
+
+  /**
+   * @return number of changed rows
+   */
+  int executeUpdateDelete();
+
+  /**
+   * @return value of the first column of the first row
+   */
+  long simpleQueryForLong();
+
+  void close();
+
+}
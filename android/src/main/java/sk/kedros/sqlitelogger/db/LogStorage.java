@@ -0,0 +1,104 @@
+package sk.kedros.sqlitelogger.db;
+
+import java.io.File;
+import java.util.List;
+import java.util.function.Consumer;
+
+import sk.kedros.sqlitelogger.common.LogEvent;
+import sk.kedros.sqlitelogger.common.LogLevel;
+import sk.kedros.sqlitelogger.common.LogQuery;
+
+/**
+ * Storage of log events used by {@link SQLiteAppender}.
+ */
+public interface LogStorage {
+
+  void insertLog(Long timestamp, LogLevel level, String message, String tag);
+
+  /**
+   * Inserts all the given events in as few transactions as possible.
+   * @return ids of the stored events in the order of the events, -1 for a skipped event
+   */
+  long[] insertLogs(List<LogEvent> events);
+
+  /**
+   * Adds repeated copies to the stored logs of their bursts, logs deleted meanwhile are skipped.
+   * @param repeats events with the id of the stored log, the number of the added copies as repeat count and
+   *                the timestamp of the last copy
+   */
+  void addRepeats(List<LogEvent> repeats);
+
+  /**
+   * Streams the logs matching the query to the consumer in the query order. Queries with a
+   * {@link sk.kedros.sqlitelogger.common.Cancellation} stop with an unchecked exception once cancelled.
+   */
+  void forEachLog(LogQuery query, Consumer<LogEvent> consumer);
+
+  /**
+   * Streams the logs whose message matches the full-text expression of the query.
+   */
+  void searchLogs(LogQuery query, Consumer<LogEvent> consumer);
+
+  /**
+   * Adds the number of logs matching the query to the aggregator groups, the limit, order and keyset
+   * of the query are ignored.
+   */
+  void aggregateLogs(LogQuery query, LogAggregator aggregator);
+
+  void deleteLogs(Long start, Long end, Long maxId);
+
+  /**
+   * Deletes a bounded chunk of logs with timestamp lower or equal to {@code expiredBefore}.
+   * @return number of deleted logs, a value lower than {@code limit} means there are no more expired logs
+   */
+  int deleteExpiredLogs(long expiredBefore, int limit);
+
+  /**
+   * Deletes a bounded chunk of the oldest logs exceeding the {@code maxRowCount} newest logs.
+   * @return number of deleted logs
+   */
+  int deleteLogsOverCount(long maxRowCount, int limit);
+
+  /**
+   * Deletes a bounded chunk of the oldest logs.
+   * @return number of deleted logs
+   */
+  int deleteOldestLogs(int limit);
+
+  long getLogCount();
+
+  /**
+   * @return size of the stored data, free space is not included
+   */
+  long getUsedBytes();
+
+  /**
+   * Returns a bounded amount of free space to the filesystem. May run a one-time migration of the database,
+   * so it is called on a background thread.
+   */
+  void incrementalVacuum(int pages);
+
+  void setFullTextSearch(boolean enabled);
+
+  void setCompression(int threshold, MessageCodec codec);
+
+  /**
+   * Maintains the log counts per time bucket, level and tag on insert, so aggregations read
+   * one row per group instead of every log.
+   * @param interval length of the rollup buckets in milliseconds, zero drops the rollups
+   */
+  void setRollupInterval(long interval);
+
+  /**
+   * @param stats receives the commit latencies, may be null
+   */
+  void setStats(LoggerStats stats);
+
+  /**
+   * @return the database file, or the directory of the files if the storage consists of more files
+   */
+  File getDbFile();
+
+  void close();
+
+}
@@ -0,0 +1,191 @@
+package sk.kedros.sqlitelogger.db;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of the logging pipeline. Recording is lock-free and cheap enough to stay enabled, readers get
+ * a consistent value of every single counter but not a consistent snapshot of all of them.
+ */
+public class LoggerStats {
+
+  private final LongAdder received = new LongAdder();
+  private final LongAdder written = new LongAdder();
+  private final LongAdder dropped = new LongAdder();
+  private final LongAdder retentionDeleted = new LongAdder();
+  private final LongAdder deduplicated = new LongAdder();
+  private final Map<String, LongAdder> rateLimited = new ConcurrentHashMap<>();
+  private final AtomicLong peakQueueDepth = new AtomicLong();
+  private final Histogram insertLatency = new Histogram();
+  private final Histogram commitLatency = new Histogram();
+  private final Histogram batchSize = new Histogram();
+
+  /**
+   * Histogram with power of two buckets: bucket {@code i} counts values lower than {@code 2^i} and not counted
+   * by the previous bucket.
+   */
+  public static class Histogram {
+
+    public static final int BUCKET_COUNT = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong max = new AtomicLong();
+
+    public void record(long value) {
+      value = Math.max(value, 0);
+      int bucket = Math.min(64 - Long.numberOfLeadingZeros(value), BUCKET_COUNT - 1);
+      buckets.incrementAndGet(bucket);
+      count.increment();
+      sum.add(value);
+      long current = max.get();
+      while (value > current && !max.compareAndSet(current, value)) {
+        current = max.get();
+      }
+    }
+
+    public long getCount() {
+      return count.sum();
+    }
+
+    public long getSum() {
+      return sum.sum();
+    }
+
+    public long getMax() {
+      return max.get();
+    }
+
+    /**
+     * @return bucket counts without the trailing empty buckets
+     */
+    public long[] getBuckets() {
+      int size = BUCKET_COUNT;
+      while (size > 0 && buckets.get(size - 1) == 0) {
+        size--;
+      }
+      long[] result = new long[size];
+      for (int i = 0; i < size; i++) {
+        result[i] = buckets.get(i);
+      }
+      return result;
+    }
+  }
+
+  public void recordReceived(int count) {
+    received.add(count);
+  }
+
+  public void recordDropped() {
+    dropped.increment();
+  }
+
+  /**
+   * @param count number of events written by a single insert call
+   * @param nanos duration of the insert call
+   */
+  public void recordWritten(int count, long nanos) {
+    written.add(count);
+    batchSize.record(count);
+    insertLatency.record(nanos / 1000);
+  }
+
+  public void recordCommit(long nanos) {
+    commitLatency.record(nanos / 1000);
+  }
+
+  public void recordRetentionDeleted(long count) {
+    retentionDeleted.add(count);
+  }
+
+  /**
+   * Counts a log folded into an identical log written before it.
+   */
+  public void recordDeduplicated() {
+    deduplicated.increment();
+  }
+
+  /**
+   * Counts a log suppressed by the rate limit of its tag.
+   */
+  public void recordRateLimited(String tag) {
+    LongAdder count = rateLimited.get(tag);
+    if (count == null) {
+      count = rateLimited.computeIfAbsent(tag, t -> new LongAdder());
+    }
+    count.increment();
+  }
+
+  public void recordQueueDepth(long depth) {
+    long peak = peakQueueDepth.get();
+    while (depth > peak && !peakQueueDepth.compareAndSet(peak, depth)) {
+      peak = peakQueueDepth.get();
+    }
+  }
+
+  public long getReceived() {
+    return received.sum();
+  }
+
+  public long getWritten() {
+    return written.sum();
+  }
+
+  public long getDropped() {
+    return dropped.sum();
+  }
+
+  public long getRetentionDeleted() {
+    return retentionDeleted.sum();
+  }
+
+  public long getDeduplicated() {
+    return deduplicated.sum();
+  }
+
+  /**
+   * @return number of logs suppressed by the rate limits per tag
+   */
+  public Map<String, Long> getRateLimited() {
+    if (rateLimited.isEmpty()) {
+      return Collections.emptyMap();
+    }
+    Map<String, Long> result = new HashMap<>();
+    for (Map.Entry<String, LongAdder> entry : rateLimited.entrySet()) {
+      result.put(entry.getKey(), entry.getValue().sum());
+    }
+    return result;
+  }
+
+  public long getPeakQueueDepth() {
+    return peakQueueDepth.get();
+  }
+
+  /**
+   * @return duration of the insert calls (in microseconds), including waiting for the storage lock
+   */
+  public Histogram getInsertLatency() {
+    return insertLatency;
+  }
+
+  /**
+   * @return duration of the transaction commits (in microseconds)
+   */
+  public Histogram getCommitLatency() {
+    return commitLatency;
+  }
+
+  /**
+   * @return number of events written by a single insert call
+   */
+  public Histogram getBatchSize() {
+    return batchSize;
+  }
+
+}
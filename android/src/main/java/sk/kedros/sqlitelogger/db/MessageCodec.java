@@ -0,0 +1,117 @@
+package sk.kedros.sqlitelogger.db;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression of large log messages. The code is stored with the row, so rows written with different
+ * codecs can be read back.
+ */
+public enum MessageCodec {
+
+  NONE(0),
+  DEFLATE(1),
+  GZIP(2);
+
+  private static final int BUFFER_SIZE = 8192;
+
+  private final int code;
+
+  MessageCodec(int code) {
+    this.code = code;
+  }
+
+  public int getCode() {
+    return code;
+  }
+
+  public byte[] encode(String message) {
+    return encode(message.getBytes(StandardCharsets.UTF_8));
+  }
+
+  /**
+   * @param data UTF-8 bytes of the message
+   */
+  public byte[] encode(byte[] data) {
+    if (this == NONE) {
+      return data;
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length / 4 + 64);
+    try (OutputStream out = openOutput(bytes)) {
+      out.write(data);
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot compress message", e);
+    }
+    return bytes.toByteArray();
+  }
+
+  public String decode(byte[] data) {
+    if (this == NONE) {
+      return new String(data, StandardCharsets.UTF_8);
+    }
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(data.length * 4);
+    byte[] buffer = new byte[BUFFER_SIZE];
+    try (InputStream in = openInput(new ByteArrayInputStream(data))) {
+      int read;
+      while ((read = in.read(buffer)) != -1) {
+        bytes.write(buffer, 0, read);
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot decompress message", e);
+    }
+    return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+  }
+
+  private OutputStream openOutput(OutputStream out) throws IOException {
+    if (this == GZIP) {
+      return new GZIPOutputStream(out, BUFFER_SIZE);
+    }
+    return new DeflaterOutputStream(out, new Deflater(Deflater.BEST_SPEED), BUFFER_SIZE);
+  }
+
+  private InputStream openInput(InputStream in) throws IOException {
+    if (this == GZIP) {
+      return new GZIPInputStream(in, BUFFER_SIZE);
+    }
+    return new InflaterInputStream(in);
+  }
+
+  public static MessageCodec fromCode(int code) {
+    switch (code) {
+      case 1:
+        return DEFLATE;
+      case 2:
+        return GZIP;
+      default:
+        return NONE;
+    }
+  }
+
+  public static MessageCodec fromString(String codec) {
+
+    if (codec == null) {
+      return DEFLATE;
+    }
+
+    switch (codec.toLowerCase()) {
+      case "gzip":
+        return GZIP;
+      case "none":
+        return NONE;
+      default:
+        return DEFLATE;
+    }
+  }
+
+}
@@ -0,0 +1,43 @@
+package sk.kedros.sqlitelogger.db;
+
+/**
+ * What the async appender does with a new event when its queue is full.
+ */
+public enum OverflowPolicy {
+
+  /**
+   * Waits until the writer frees a slot. No event is lost, the logging thread can be stalled by a slow disk.
+   */
+  BLOCK,
+  /**
+   * Drops the new event.
+   */
+  DROP_NEWEST,
+  /**
+   * Drops the oldest queued event to make room for the new one.
+   */
+  DROP_OLDEST,
+  /**
+   * Drops TRACE and DEBUG events once the queue is 80% full and any new event when it is full.
+   */
+  SHED_DEBUG;
+
+  public static OverflowPolicy fromString(String policy) {
+
+    if (policy == null) {
+      return SHED_DEBUG;
+    }
+
+    switch (policy.toLowerCase()) {
+      case "block":
+        return BLOCK;
+      case "dropnewest":
+        return DROP_NEWEST;
+      case "dropoldest":
+        return DROP_OLDEST;
+      default:
+        return SHED_DEBUG;
+    }
+  }
+
+}
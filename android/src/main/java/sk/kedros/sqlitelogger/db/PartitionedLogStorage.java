@@ -0,0 +1,782 @@
+package sk.kedros.sqlitelogger.db;
+
+import java.io.File;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.PriorityQueue;
+import java.util.TimeZone;
+import java.util.TreeMap;
+import java.util.function.BiPredicate;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import android.util.Log;
+
+import ch.qos.logback.core.android.AndroidContextUtil;
+import sk.kedros.sqlitelogger.common.LogEvent;
+import sk.kedros.sqlitelogger.common.LogLevel;
+import sk.kedros.sqlitelogger.common.LogQuery;
+import sk.kedros.sqlitelogger.common.SortOrder;
+
+/**
+ * Stores logs in one database file per time bucket, e.g. one file per day. Expired partitions are closed
+ * and deleted as a whole, queries fan out over the partitions overlapping the requested time range.
+ * Partitions cover disjoint time ranges, so results merged in partition order keep the requested sort order.
+ * Only the newest partition and a few recently used ones are kept open, queries run outside of the storage
+ * lock and a partition dropped while queried is closed and deleted after the query.
+ *
+ * The file name keeps the time range of the partition, so partitions created with a different interval are
+ * still found by their own range. A new partition is shortened to the gap between the existing ones.
+ *
+ * Log ids are unique across partitions: the hour the partition starts at is stored in the upper bits of the id,
+ * the id within the partition in the lower 32 bits. Ids stay below 2^53, so they can be represented by JS numbers.
+ */
+public class PartitionedLogStorage implements LogStorage {
+
+  private static final String TAG = "PartitionedLogStorage";
+
+  public static final long MIN_PARTITION_INTERVAL = 60 * 60 * 1000; // 1 hour (in milliseconds)
+
+  // open partitions besides the newest one
+  private static final int MAX_OPEN_PARTITIONS = 3;
+  private static final int LOCAL_ID_BITS = 32;
+  private static final long LOCAL_ID_MASK = (1L << LOCAL_ID_BITS) - 1;
+  private static final int MIGRATE_CHUNK_SIZE = 1000;
+  private static final String PARTITION_DATE_FORMAT = "yyyyMMddHH";
+  private static final String[] PARTITION_FILE_SUFFIXES = new String[] {"", "-journal", "-wal", "-shm"};
+
+  private final File directory;
+  private final String baseName;
+  private final long interval;
+  private final DurabilityProfile durability;
+  // base-<start>-<end>.sqlite, the hours the partition starts and ends at
+  private final Pattern partitionPattern;
+  // base-<start>.sqlite, written before the end was part of the name
+  private final Pattern legacyPartitionPattern;
+
+  private final TreeMap<Long, Partition> partitions = new TreeMap<>();
+  // dropped partitions still read by queries, their files are deleted once the last query finishes
+  private final Map<File, Partition> dropping = new HashMap<>();
+  private long useCount;
+  private boolean closed;
+
+  private boolean fullTextSearch;
+  private int compressThreshold;
+  private long rollupInterval;
+  private MessageCodec compressCodec = MessageCodec.DEFLATE;
+  private LoggerStats stats;
+
+  private static final class Partition {
+
+    // hours since the epoch the partition starts at, the key of the partition and the upper bits of its log ids
+    final long ordinal;
+    // time range of the logs (in milliseconds), the end is exclusive
+    final long start;
+    final long end;
+    final File file;
+    // null while the partition is closed
+    SQLiteLogStorage storage;
+    // queries using the storage outside of the storage lock
+    int readers;
+    long lastUsed;
+    // logs in the partition, counted when first needed and then kept up to date by the inserts and deletes,
+    // -1 while unknown
+    long count = -1;
+
+    Partition(long start, long end, File file) {
+      this.ordinal = Math.floorDiv(start, MIN_PARTITION_INTERVAL);
+      this.start = start;
+      this.end = end;
+      this.file = file;
+    }
+  }
+
+  private static final class Match {
+
+    final LogEvent event;
+    final double score;
+
+    Match(LogEvent event, double score) {
+      this.event = event;
+      this.score = score;
+    }
+  }
+
+  /**
+   * @param interval length of the time bucket of a single partition (in milliseconds), a whole number of hours
+   *                 as the file names keep the hours the partition starts and ends at
+   */
+  public PartitionedLogStorage(String logFileDir, String logFileName, DurabilityProfile durability, long interval) {
+
+    if (interval < MIN_PARTITION_INTERVAL || interval % MIN_PARTITION_INTERVAL != 0) {
+      throw new IllegalArgumentException("Partition interval must be a multiple of " + MIN_PARTITION_INTERVAL + " ms");
+    }
+
+    if (logFileName == null || logFileName.trim().isEmpty()) {
+      logFileName = "log.sqlite";
+    }
+
+    if (logFileDir == null || logFileDir.trim().isEmpty()) {
+      this.directory = new File(new AndroidContextUtil().getDatabasePath(logFileName)).getParentFile();
+    } else {
+      this.directory = new File(logFileDir);
+    }
+
+    int extension = logFileName.lastIndexOf('.');
+    this.baseName = extension > 0 ? logFileName.substring(0, extension) : logFileName;
+    this.interval = interval;
+    this.durability = durability;
+    this.partitionPattern = Pattern.compile(Pattern.quote(baseName) + "-(\\d{10})-(\\d{10})\\.sqlite");
+    this.legacyPartitionPattern = Pattern.compile(Pattern.quote(baseName) + "-(\\d{10})\\.sqlite");
+
+    directory.mkdirs();
+    findPartitions(new File(directory, logFileName));
+  }
+
+  /**
+   * Registers the partitions of the directory. The partition files named by their start only and the database
+   * of the storage without partitions are migrated, see {@link #migrate}.
+   * @param singleFile database file of the storage without partitions
+   */
+  private synchronized void findPartitions(File singleFile) {
+    File[] files = directory.listFiles();
+    if (files == null) {
+      return;
+    }
+    List<File> legacyFiles = new ArrayList<>();
+    for (File file : files) {
+      Matcher matcher = partitionPattern.matcher(file.getName());
+      if (matcher.matches()) {
+        try {
+          Partition partition = new Partition(parseHour(matcher.group(1)), parseHour(matcher.group(2)), file);
+          partitions.put(partition.ordinal, partition);
+        } catch (ParseException e) {
+          Log.w(TAG, "findPartitions skipped " + file.getName(), e);
+        }
+      } else if (legacyPartitionPattern.matcher(file.getName()).matches()) {
+        legacyFiles.add(file);
+      }
+    }
+    // the names sort by the start of the partition
+    legacyFiles.sort((a, b) -> a.getName().compareTo(b.getName()));
+    if (singleFile.isFile()) {
+      legacyFiles.add(singleFile);
+    }
+    for (File file : legacyFiles) {
+      migrate(file);
+    }
+  }
+
+  /**
+   * Turns a database file without the partition range in its name into a partition. The file is renamed to a
+   * partition of the hours its logs span if no partition overlaps them, otherwise its logs are copied into the
+   * partitions and the file is deleted. A copy interrupted by a crash is repeated from the start.
+   */
+  private void migrate(File file) {
+    SQLiteLogStorage storage = null;
+    try {
+      storage = new SQLiteLogStorage(AndroidLogDatabase.open(directory.getPath(), file.getName()), durability);
+      long[] range = storage.getTimestampRange();
+
+      if (range == null) {
+        storage.close();
+        storage = null;
+        deleteFiles(file);
+        return;
+      }
+
+      long start = Math.floorDiv(range[0], MIN_PARTITION_INTERVAL) * MIN_PARTITION_INTERVAL;
+      long end = (Math.floorDiv(range[1], MIN_PARTITION_INTERVAL) + 1) * MIN_PARTITION_INTERVAL;
+      Map.Entry<Long, Partition> previous = partitions.lowerEntry(Math.floorDiv(end, MIN_PARTITION_INTERVAL));
+
+      if (previous == null || previous.getValue().end <= start) {
+        storage.close();
+        storage = null;
+        Partition partition = new Partition(start, end, getPartitionFile(start, end));
+        for (String suffix : PARTITION_FILE_SUFFIXES) {
+          File source = new File(file.getPath() + suffix);
+          if (source.exists() && !source.renameTo(new File(partition.file.getPath() + suffix))) {
+            throw new IllegalStateException("Cannot rename " + source.getName());
+          }
+        }
+        partitions.put(partition.ordinal, partition);
+        Log.d(TAG, "migrate " + file.getName() + " to " + partition.file.getName());
+        return;
+      }
+
+      List<LogEvent> chunk = new ArrayList<>(MIGRATE_CHUNK_SIZE);
+      storage.forEachLog(new LogQuery().setOrder(SortOrder.ASC), event -> {
+        chunk.add(event);
+        if (chunk.size() == MIGRATE_CHUNK_SIZE) {
+          insertLogs(chunk);
+          chunk.clear();
+        }
+      });
+      insertLogs(chunk);
+      storage.close();
+      storage = null;
+      deleteFiles(file);
+      Log.d(TAG, "migrate copied " + file.getName());
+    } catch (RuntimeException e) {
+      Log.w(TAG, "migrate skipped " + file.getName(), e);
+    } finally {
+      if (storage != null) {
+        storage.close();
+      }
+    }
+  }
+
+  private static SimpleDateFormat createDateFormat() {
+    SimpleDateFormat format = new SimpleDateFormat(PARTITION_DATE_FORMAT, Locale.US);
+    format.setTimeZone(TimeZone.getTimeZone("UTC"));
+    return format;
+  }
+
+  private static long parseHour(String hour) throws ParseException {
+    return createDateFormat().parse(hour).getTime();
+  }
+
+  private File getPartitionFile(long start, long end) {
+    SimpleDateFormat format = createDateFormat();
+    return new File(directory, baseName + "-" + format.format(new Date(start)) + "-" + format.format(new Date(end)) + ".sqlite");
+  }
+
+  /**
+   * Finds the partition of the timestamp. Without one, a partition of the interval bucket of the timestamp is
+   * registered, shortened to the gap between the neighbouring partitions. Its file is created when opened.
+   */
+  private synchronized long getOrdinal(long timestamp) {
+    long hour = Math.floorDiv(timestamp, MIN_PARTITION_INTERVAL);
+    Map.Entry<Long, Partition> previous = partitions.floorEntry(hour);
+    if (previous != null && timestamp < previous.getValue().end) {
+      return previous.getKey();
+    }
+    long start = Math.floorDiv(timestamp, interval) * interval;
+    long end = start + interval;
+    if (previous != null) {
+      start = Math.max(start, previous.getValue().end);
+    }
+    Map.Entry<Long, Partition> next = partitions.higherEntry(hour);
+    if (next != null) {
+      end = Math.min(end, next.getValue().start);
+    }
+    Partition partition = new Partition(start, end, getPartitionFile(start, end));
+    partitions.put(partition.ordinal, partition);
+    return partition.ordinal;
+  }
+
+  /**
+   * Opens the partition. The storage may be closed by the next call, so callers must hold the storage lock
+   * and not keep it.
+   */
+  private synchronized SQLiteLogStorage getPartition(long ordinal) {
+    if (closed) {
+      throw new IllegalStateException("Log storage is closed");
+    }
+    Partition partition = partitions.get(ordinal);
+    partition.lastUsed = ++useCount;
+    if (partition.storage == null) {
+      SQLiteLogStorage storage = new SQLiteLogStorage(AndroidLogDatabase.open(directory.getPath(), partition.file.getName()), durability);
+      storage.setFullTextSearch(fullTextSearch);
+      storage.setCompression(compressThreshold, compressCodec);
+      storage.setRollupInterval(rollupInterval);
+      storage.setStats(stats);
+      if (dropping.remove(partition.file) != null) {
+        // the file of the dropped partition is still open by a query, its logs are deleted instead
+        storage.deleteLogs(null, null, null);
+      }
+      partition.storage = storage;
+      closeIdlePartitions();
+    }
+    return partition.storage;
+  }
+
+  /**
+   * Closes the least recently used partitions over the limit, except the newest one and the queried ones.
+   */
+  private void closeIdlePartitions() {
+    List<Partition> idle = new ArrayList<>();
+    long newest = partitions.lastKey();
+    for (Partition partition : partitions.values()) {
+      if (partition.storage != null && partition.readers == 0 && partition.ordinal != newest) {
+        idle.add(partition);
+      }
+    }
+    if (idle.size() <= MAX_OPEN_PARTITIONS) {
+      return;
+    }
+    idle.sort((a, b) -> Long.compare(a.lastUsed, b.lastUsed));
+    for (Partition partition : idle.subList(0, idle.size() - MAX_OPEN_PARTITIONS)) {
+      partition.storage.close();
+      partition.storage = null;
+    }
+  }
+
+  /**
+   * Opens the partition for a query outside of the storage lock, it must be released afterwards.
+   * @return null if the partition was dropped meanwhile
+   */
+  private synchronized Partition acquire(long ordinal) {
+    if (!partitions.containsKey(ordinal)) {
+      return null;
+    }
+    getPartition(ordinal);
+    Partition partition = partitions.get(ordinal);
+    partition.readers++;
+    return partition;
+  }
+
+  private synchronized void release(Partition partition) {
+    if (--partition.readers > 0) {
+      return;
+    }
+    if (dropping.get(partition.file) == partition) {
+      dropping.remove(partition.file);
+      partition.storage.close();
+      deleteFiles(partition.file);
+    } else if (partition.storage != null && partitions.get(partition.ordinal) != partition) {
+      // closed, or dropped and created again meanwhile and the new partition owns the file
+      partition.storage.close();
+    } else if (partition.storage != null) {
+      closeIdlePartitions();
+    }
+  }
+
+  /**
+   * Runs the visitor on the partitions outside of the storage lock, until it returns false.
+   */
+  private void forEachPartition(List<Long> ordinals, BiPredicate<Long, SQLiteLogStorage> visitor) {
+    for (long ordinal : ordinals) {
+      Partition partition = acquire(ordinal);
+      if (partition == null) {
+        continue;
+      }
+      try {
+        if (!visitor.test(ordinal, partition.storage)) {
+          return;
+        }
+      } finally {
+        release(partition);
+      }
+    }
+  }
+
+  private synchronized void dropPartition(long ordinal) {
+    Partition partition = partitions.remove(ordinal);
+    if (partition == null) {
+      return;
+    }
+    if (partition.readers > 0) {
+      dropping.put(partition.file, partition);
+      Log.d(TAG, "dropPartition deferred " + partition.file.getName());
+      return;
+    }
+    if (partition.storage != null) {
+      partition.storage.close();
+    }
+    deleteFiles(partition.file);
+  }
+
+  private static void deleteFiles(File file) {
+    for (String suffix : PARTITION_FILE_SUFFIXES) {
+      new File(file.getPath() + suffix).delete();
+    }
+    Log.d(TAG, "deleteFiles " + file.getName());
+  }
+
+  /**
+   * @return ordinals of the partitions overlapping the time range, in the given order
+   */
+  private synchronized List<Long> getOrdinals(Long start, Long end, boolean descending) {
+    NavigableMap<Long, Partition> range = partitions;
+    if (start != null) {
+      // the partition starting before the range may still reach into it
+      Long first = partitions.floorKey(Math.floorDiv(start, MIN_PARTITION_INTERVAL));
+      if (first == null || partitions.get(first).end <= start) {
+        first = Math.floorDiv(start, MIN_PARTITION_INTERVAL);
+      }
+      range = range.tailMap(first, true);
+    }
+    if (end != null) {
+      range = range.headMap(Math.floorDiv(end, MIN_PARTITION_INTERVAL), true);
+    }
+    return new ArrayList<>(descending ? range.descendingKeySet() : range.navigableKeySet());
+  }
+
+  private static long toGlobalId(long ordinal, long localId) {
+    return (ordinal << LOCAL_ID_BITS) | localId;
+  }
+
+  @Override
+  public synchronized void insertLog(Long timestamp, LogLevel level, String message, String tag) {
+    long ordinal = getOrdinal(timestamp);
+    getPartition(ordinal).insertLog(timestamp, level, message, tag);
+    addCount(ordinal, 1);
+  }
+
+  @Override
+  public synchronized long[] insertLogs(List<LogEvent> events) {
+    // indexes of the events per partition, so the ids are returned in the order of the events
+    Map<Long, List<Integer>> byPartition = new LinkedHashMap<>();
+    for (int i = 0; i < events.size(); i++) {
+      long ordinal = getOrdinal(events.get(i).getTimestamp());
+      List<Integer> indexes = byPartition.get(ordinal);
+      if (indexes == null) {
+        indexes = new ArrayList<>(events.size());
+        byPartition.put(ordinal, indexes);
+      }
+      indexes.add(i);
+    }
+    long[] ids = new long[events.size()];
+    for (Map.Entry<Long, List<Integer>> entry : byPartition.entrySet()) {
+      long ordinal = entry.getKey();
+      List<Integer> indexes = entry.getValue();
+      List<LogEvent> partitionEvents = new ArrayList<>(indexes.size());
+      for (int index : indexes) {
+        partitionEvents.add(events.get(index));
+      }
+      long[] localIds = getPartition(ordinal).insertLogs(partitionEvents);
+      int inserted = 0;
+      for (int i = 0; i < localIds.length; i++) {
+        ids[indexes.get(i)] = localIds[i] == -1 ? -1 : toGlobalId(ordinal, localIds[i]);
+        inserted += localIds[i] == -1 ? 0 : 1;
+      }
+      addCount(ordinal, inserted);
+    }
+    return ids;
+  }
+
+  /**
+   * Repeats of logs in dropped partitions are skipped.
+   */
+  @Override
+  public synchronized void addRepeats(List<LogEvent> repeats) {
+    Map<Long, List<LogEvent>> byPartition = new LinkedHashMap<>();
+    for (LogEvent repeat : repeats) {
+      long ordinal = repeat.getId() >>> LOCAL_ID_BITS;
+      if (!partitions.containsKey(ordinal)) {
+        continue;
+      }
+      List<LogEvent> partitionRepeats = byPartition.get(ordinal);
+      if (partitionRepeats == null) {
+        partitionRepeats = new ArrayList<>(repeats.size());
+        byPartition.put(ordinal, partitionRepeats);
+      }
+      partitionRepeats.add(repeat.withId(repeat.getId() & LOCAL_ID_MASK));
+    }
+    for (Map.Entry<Long, List<LogEvent>> entry : byPartition.entrySet()) {
+      getPartition(entry.getKey()).addRepeats(entry.getValue());
+    }
+  }
+
+  @Override
+  public void forEachLog(LogQuery query, Consumer<LogEvent> consumer) {
+    fanOut(query, false, consumer);
+  }
+
+  /**
+   * With {@link SortOrder#RELEVANCE} the best matches of every partition are merged by score, the inverse
+   * document frequency of the score is computed per partition.
+   */
+  @Override
+  public void searchLogs(LogQuery query, Consumer<LogEvent> consumer) {
+    if (query.getOrder() == SortOrder.RELEVANCE) {
+      searchRanked(query, consumer);
+    } else {
+      fanOut(query, true, consumer);
+    }
+  }
+
+  private void fanOut(LogQuery query, boolean search, Consumer<LogEvent> consumer) {
+
+    boolean descending = query.getOrder() == SortOrder.DESC || query.getOrder() == SortOrder.RELEVANCE;
+    int[] remaining = new int[] {query.getLimit() == null ? Integer.MAX_VALUE : query.getLimit()};
+
+    forEachPartition(getOrdinals(query.getStart(), query.getEnd(), descending), (ordinal, storage) -> {
+
+      if (remaining[0] <= 0) {
+        return false;
+      }
+
+      LogQuery partitionQuery = toPartitionQuery(query, ordinal, descending);
+      if (partitionQuery == null) {
+        return true;
+      }
+      partitionQuery.setLimit(query.getLimit() == null ? null : remaining[0]);
+
+      Consumer<LogEvent> partitionConsumer = event -> {
+        remaining[0]--;
+        consumer.accept(event.withId(toGlobalId(ordinal, event.getId())));
+      };
+
+      if (search) {
+        storage.searchLogs(partitionQuery, partitionConsumer);
+      } else {
+        storage.forEachLog(partitionQuery, partitionConsumer);
+      }
+      return true;
+    });
+  }
+
+  private void searchRanked(LogQuery query, Consumer<LogEvent> consumer) {
+
+    int limit = query.getLimit() == null ? SQLiteLogStorage.DEFAULT_SEARCH_LIMIT : query.getLimit();
+    // min-heap of the best matches of all partitions
+    PriorityQueue<Match> best = new PriorityQueue<>(limit + 1, (a, b) -> Double.compare(a.score, b.score));
+
+    forEachPartition(getOrdinals(query.getStart(), query.getEnd(), true), (ordinal, storage) -> {
+      LogQuery partitionQuery = toPartitionQuery(query, ordinal, true);
+      if (partitionQuery == null) {
+        return true;
+      }
+      storage.searchRanked(partitionQuery.setLimit(limit), (event, score) -> {
+        best.add(new Match(event.withId(toGlobalId(ordinal, event.getId())), score));
+        if (best.size() > limit) {
+          best.poll();
+        }
+      });
+      return true;
+    });
+
+    List<Match> ranked = new ArrayList<>(best);
+    ranked.sort((a, b) -> Double.compare(b.score, a.score));
+    for (Match match : ranked) {
+      consumer.accept(match.event);
+    }
+  }
+
+  /**
+   * @return copy of the query with the pagination translated to the partition, null if the partition
+   * precedes the page
+   */
+  private static LogQuery toPartitionQuery(LogQuery query, long ordinal, boolean descending) {
+    LogQuery partitionQuery = query.copy();
+    if (!query.hasAfter()) {
+      return partitionQuery;
+    }
+    long afterOrdinal = query.getAfterId() >>> LOCAL_ID_BITS;
+    if (descending ? ordinal > afterOrdinal : ordinal < afterOrdinal) {
+      return null;
+    }
+    if (ordinal == afterOrdinal) {
+      partitionQuery.setAfter(query.getAfterTimestamp(), query.getAfterId() & LOCAL_ID_MASK);
+    } else {
+      partitionQuery.setAfter(null, null);
+    }
+    return partitionQuery;
+  }
+
+  @Override
+  public void aggregateLogs(LogQuery query, LogAggregator aggregator) {
+    forEachPartition(getOrdinals(query.getStart(), query.getEnd(), false), (ordinal, storage) -> {
+      storage.aggregateLogs(query, aggregator);
+      return true;
+    });
+  }
+
+  @Override
+  public synchronized void deleteLogs(Long start, Long end, Long maxId) {
+
+    Long maxOrdinal = maxId == null ? null : maxId >>> LOCAL_ID_BITS;
+
+    for (long ordinal : getOrdinals(start, end, false)) {
+      if (maxOrdinal != null && ordinal > maxOrdinal) {
+        break;
+      }
+      Long localMaxId = maxOrdinal != null && ordinal == maxOrdinal ? maxId & LOCAL_ID_MASK : null;
+      Partition partition = partitions.get(ordinal);
+      boolean covered = (start == null || start <= partition.start) && (end == null || end >= partition.end - 1);
+      if (covered && localMaxId == null) {
+        dropPartition(ordinal);
+      } else {
+        getPartition(ordinal).deleteLogs(start, end, localMaxId);
+        partition.count = -1;
+      }
+    }
+  }
+
+  /**
+   * Expired partitions are deleted as whole files, only the partition containing {@code expiredBefore}
+   * is deleted in chunks.
+   */
+  @Override
+  public synchronized int deleteExpiredLogs(long expiredBefore, int limit) {
+
+    boolean dropped = false;
+    for (long ordinal : getOrdinals(null, expiredBefore, false)) {
+      if (partitions.get(ordinal).end - 1 <= expiredBefore) {
+        dropPartition(ordinal);
+        dropped = true;
+      } else {
+        int deleted = getPartition(ordinal).deleteExpiredLogs(expiredBefore, limit);
+        addCount(ordinal, -deleted);
+        return dropped ? limit : deleted;
+      }
+    }
+    return dropped ? limit : 0;
+  }
+
+  /**
+   * Partitions are counted once, so only the partition crossing the limit is opened by the next chunks.
+   */
+  @Override
+  public synchronized int deleteLogsOverCount(long maxRowCount, int limit) {
+
+    long newerCount = 0;
+    boolean dropped = false;
+    int deleted = 0;
+
+    for (long ordinal : getOrdinals(null, null, true)) {
+      if (newerCount >= maxRowCount) {
+        dropPartition(ordinal);
+        dropped = true;
+        continue;
+      }
+      long count = getCount(ordinal);
+      if (newerCount + count > maxRowCount) {
+        deleted = getPartition(ordinal).deleteLogsOverCount(maxRowCount - newerCount, limit);
+        addCount(ordinal, -deleted);
+      }
+      newerCount += count;
+    }
+
+    return dropped ? limit : deleted;
+  }
+
+  @Override
+  public synchronized int deleteOldestLogs(int limit) {
+
+    List<Long> ordinals = getOrdinals(null, null, false);
+    if (ordinals.isEmpty()) {
+      return 0;
+    }
+
+    long oldest = ordinals.get(0);
+    long count = getCount(oldest);
+    if (ordinals.size() > 1 && count <= limit) {
+      dropPartition(oldest);
+      return (int) count;
+    }
+    int deleted = getPartition(oldest).deleteOldestLogs(limit);
+    addCount(oldest, -deleted);
+    return deleted;
+  }
+
+  /**
+   * @return number of logs in the partition, the partition is opened only until it was counted
+   */
+  private synchronized long getCount(long ordinal) {
+    Partition partition = partitions.get(ordinal);
+    if (partition.count < 0) {
+      partition.count = getPartition(ordinal).getLogCount();
+    }
+    return partition.count;
+  }
+
+  private synchronized void addCount(long ordinal, long delta) {
+    Partition partition = partitions.get(ordinal);
+    if (partition.count >= 0) {
+      partition.count += delta;
+    }
+  }
+
+  @Override
+  public long getLogCount() {
+    long[] count = new long[1];
+    forEachPartition(getOrdinals(null, null, false), (ordinal, storage) -> {
+      count[0] += storage.getLogCount();
+      return true;
+    });
+    return count[0];
+  }
+
+  @Override
+  public long getUsedBytes() {
+    long[] bytes = new long[1];
+    forEachPartition(getOrdinals(null, null, false), (ordinal, storage) -> {
+      bytes[0] += storage.getUsedBytes();
+      return true;
+    });
+    return bytes[0];
+  }
+
+  @Override
+  public void incrementalVacuum(int pages) {
+    forEachPartition(getOrdinals(null, null, false), (ordinal, storage) -> {
+      storage.incrementalVacuum(pages);
+      return true;
+    });
+  }
+
+  @Override
+  public synchronized void setFullTextSearch(boolean enabled) {
+    this.fullTextSearch = enabled;
+    for (Partition partition : partitions.values()) {
+      if (partition.storage != null) {
+        partition.storage.setFullTextSearch(enabled);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void setCompression(int threshold, MessageCodec codec) {
+    this.compressThreshold = threshold;
+    this.compressCodec = codec;
+    for (Partition partition : partitions.values()) {
+      if (partition.storage != null) {
+        partition.storage.setCompression(threshold, codec);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void setRollupInterval(long interval) {
+    this.rollupInterval = interval;
+    for (Partition partition : partitions.values()) {
+      if (partition.storage != null) {
+        partition.storage.setRollupInterval(interval);
+      }
+    }
+  }
+
+  @Override
+  public synchronized void setStats(LoggerStats stats) {
+    this.stats = stats;
+    for (Partition partition : partitions.values()) {
+      if (partition.storage != null) {
+        partition.storage.setStats(stats);
+      }
+    }
+  }
+
+  @Override
+  public File getDbFile() {
+    return directory;
+  }
+
+  /**
+   * Partitions read by a query are closed when the query releases them, see {@link #release}, and the dropped
+   * ones are deleted then.
+   */
+  @Override
+  public synchronized void close() {
+    closed = true;
+    for (Partition partition : partitions.values()) {
+      if (partition.storage != null && partition.readers == 0) {
+        partition.storage.close();
+        partition.storage = null;
+      }
+    }
+    partitions.clear();
+  }
+
+}
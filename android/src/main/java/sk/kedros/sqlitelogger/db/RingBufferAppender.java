@@ -0,0 +1,229 @@
+package sk.kedros.sqlitelogger.db;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+import sk.kedros.sqlitelogger.common.LogEvent;
+import sk.kedros.sqlitelogger.common.LogLevel;
+
+/**
+ * Asynchronous front of the {@link SQLiteAppender}. Events are converted on the logging thread and put into
+ * a lock-free ring buffer, a single writer thread drains them in batches and writes every batch in one
+ * transaction. What happens when the buffer is full is decided by the {@link OverflowPolicy}.
+ */
+public class RingBufferAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+
+  private static final int DEFAULT_QUEUE_SIZE = 1024;
+  private static final int DRAIN_BATCH_SIZE = 256; // max events written in a single transaction
+  private static final int SHED_THRESHOLD_RATIO = 5; // shed debug events when less than 1/5 of the queue is free
+  private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+  private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+  private SQLiteAppender appender;
+  private int queueSize = DEFAULT_QUEUE_SIZE;
+  private long maxFlushTime;
+  private OverflowPolicy overflowPolicy = OverflowPolicy.SHED_DEBUG;
+  private EventRingBuffer buffer;
+  private int shedThreshold;
+  private Thread worker;
+  private volatile boolean workerParked;
+  // held while a batch is taken from the buffer and written, so a flush waits for the batch in flight
+  private final Object drainLock = new Object();
+
+  public SQLiteAppender getAppender() {
+    return appender;
+  }
+
+  public void setAppender(SQLiteAppender appender) {
+    this.appender = appender;
+  }
+
+  public int getQueueSize() {
+    return queueSize;
+  }
+
+  /**
+   * Capacity of the queue, rounded up to a power of two.
+   */
+  public void setQueueSize(Integer queueSize) {
+    this.queueSize = queueSize == null ? DEFAULT_QUEUE_SIZE : queueSize;
+  }
+
+  public long getMaxFlushTime() {
+    return maxFlushTime;
+  }
+
+  /**
+   * Maximal time (in milliseconds) to wait for the queued events to be written on stop.
+   * Zero means no limit.
+   */
+  public void setMaxFlushTime(Integer maxFlushTime) {
+    this.maxFlushTime = maxFlushTime == null ? 0 : maxFlushTime;
+  }
+
+  public OverflowPolicy getOverflowPolicy() {
+    return overflowPolicy;
+  }
+
+  public void setOverflowPolicy(String overflowPolicy) {
+    this.overflowPolicy = OverflowPolicy.fromString(overflowPolicy);
+  }
+
+  public int getQueueDepth() {
+    EventRingBuffer buffer = this.buffer;
+    return buffer == null ? 0 : buffer.size();
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see ch.qos.logback.core.UnsynchronizedAppenderBase#start()
+   */
+  @Override
+  public void start() {
+    if (appender == null) {
+      addError("No appender set for " + name);
+      return;
+    }
+    buffer = new EventRingBuffer(queueSize);
+    shedThreshold = buffer.capacity() / SHED_THRESHOLD_RATIO;
+    worker = new Thread(this::drainLoop, "SqliteLogger-" + name);
+    worker.setDaemon(true);
+    super.start();
+    worker.start();
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see ch.qos.logback.core.UnsynchronizedAppenderBase#stop()
+   */
+  @Override
+  public void stop() {
+    if (!isStarted()) {
+      return;
+    }
+    this.started = false;
+    Thread worker = this.worker;
+    LockSupport.unpark(worker);
+    try {
+      worker.join(maxFlushTime);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (worker.isAlive()) {
+      addWarn("Max flush time exceeded, " + buffer.size() + " queued events were not written");
+      return;
+    }
+    drain();
+  }
+
+  /*
+   * (non-Javadoc)
+   * @see ch.qos.logback.core.UnsynchronizedAppenderBase#append(java.lang.Object)
+   */
+  @Override
+  protected void append(ILoggingEvent event) {
+    enqueue(SQLiteAppender.toLogEvent(event));
+  }
+
+  /**
+   * Queues already converted events, bypassing the logback pipeline.
+   * @param events events to write
+   */
+  public void appendBatch(List<LogEvent> events) {
+    if (!isStarted() || events == null) {
+      return;
+    }
+    for (LogEvent event : events) {
+      enqueue(event);
+    }
+  }
+
+  private void enqueue(LogEvent event) {
+
+    LoggerStats stats = appender.getStats();
+    stats.recordReceived(1);
+
+    if (overflowPolicy == OverflowPolicy.SHED_DEBUG
+      && event.getLevel().getCode() <= LogLevel.DEBUG.getCode()
+      && buffer.capacity() - buffer.size() < shedThreshold) {
+      stats.recordDropped();
+      return;
+    }
+
+    while (!buffer.offer(event)) {
+      switch (overflowPolicy) {
+        case BLOCK:
+          if (!isStarted()) {
+            stats.recordDropped();
+            return;
+          }
+          LockSupport.unpark(worker);
+          LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+          break;
+        case DROP_OLDEST:
+          if (buffer.poll() != null) {
+            stats.recordDropped();
+          }
+          break;
+        default:
+          stats.recordDropped();
+          return;
+      }
+    }
+
+    stats.recordQueueDepth(buffer.size());
+    if (workerParked) {
+      LockSupport.unpark(worker);
+    }
+  }
+
+  private void drainLoop() {
+    while (isStarted()) {
+      if (drainBatch() == 0) {
+        workerParked = true;
+        if (buffer.isEmpty() && isStarted()) {
+          LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+        }
+        workerParked = false;
+      }
+    }
+  }
+
+  private void drain() {
+    while (drainBatch() > 0) {
+      // until the buffer is empty
+    }
+  }
+
+  private int drainBatch() {
+    synchronized (drainLock) {
+      List<LogEvent> batch = new ArrayList<>(Math.min(buffer.size(), DRAIN_BATCH_SIZE));
+      int count = buffer.drainTo(batch, DRAIN_BATCH_SIZE);
+      if (count > 0) {
+        appender.appendEvents(batch);
+      }
+      return count;
+    }
+  }
+
+  /**
+   * Passes the events queued before the call to the {@link SQLiteAppender} on the calling thread, after
+   * the batch the writer thread may be writing, then flushes its pending batch. Does not depend on the writer
+   * thread, which may be parked or gone.
+   */
+  public void flush() {
+    EventRingBuffer buffer = this.buffer;
+    if (isStarted()) {
+      long target = buffer.getTail();
+      while (buffer.getHead() < target && drainBatch() > 0) {
+        // until the events queued before the call are taken
+      }
+    }
+    appender.flush();
+  }
+
+}
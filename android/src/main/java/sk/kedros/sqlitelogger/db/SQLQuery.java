@@ -1,11 +1,5 @@
 package sk.kedros.sqlitelogger.db;
 
-import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteException;
-import android.database.sqlite.SQLiteStatement;
-import ch.qos.logback.classic.spi.ILoggingEvent;
-import sk.kedros.sqlitelogger.common.LogLevel;
-
 abstract class SQLQuery {
 
   public static final String COLUMN_TIMESTAMP = "timestamp";
@@ -20,16 +14,154 @@ abstract class SQLQuery {
 
   public static final String CREATE_DB_INDEX = "CREATE INDEX IF NOT EXISTS i_log_timestamp ON logs (timestamp);";
 
-  public static final String INSERT_EVENT = "INSERT INTO logs (timestamp, level, message, tag) VALUES (?, ?, ?, ?)";
+  // repeat_count and last_timestamp stay null unless the row stands for a burst of identical logs
+  public static final String INSERT_EVENT = "INSERT INTO logs (timestamp, level, message, tag_id, message_blob, codec, "
+    + "repeat_count, last_timestamp) VALUES (?, ?, ?, ?, ?, ?, ?, ?)";
+
+  // folds repeated copies into the stored log of a burst
+  public static final String UPDATE_REPEATS = "UPDATE logs SET repeat_count = IFNULL(repeat_count, 1) + ?, "
+    + "last_timestamp = max(IFNULL(last_timestamp, timestamp), ?) WHERE log_id = ?";
+
+  public static final String INSERT_TAG = "INSERT OR IGNORE INTO tags (name) VALUES (?)";
+
+  public static final String QUERY_TAG_ID = "SELECT id FROM tags WHERE name = ?";
+
+  public static final String QUERY_ALL_TAGS = "SELECT id, name FROM tags";
+
+  // log_id follows insertion order, so the oldest expired rows are deleted first using the primary key
+  public static final String DELETE_EXPIRED_CHUNK = "DELETE FROM logs WHERE log_id IN "
+    + "(SELECT log_id FROM logs WHERE timestamp <= ? ORDER BY log_id LIMIT ?)";
+
+  public static final String DELETE_ID_LTE_CHUNK = "DELETE FROM logs WHERE log_id IN "
+    + "(SELECT log_id FROM logs WHERE log_id <= ? ORDER BY log_id LIMIT ?)";
+
+  public static final String QUERY_LOG_COUNT = "SELECT count(*) FROM logs";
+  // separate subqueries, so both are answered from the timestamp index
+  public static final String QUERY_TIMESTAMP_RANGE = "SELECT (SELECT min(timestamp) FROM logs), (SELECT max(timestamp) FROM logs)";
+
+  public static final String QUERY_ID_AT_OFFSET_DESC = "SELECT log_id FROM logs ORDER BY log_id DESC LIMIT 1 OFFSET ?";
+
+  public static final String PRAGMA_AUTO_VACUUM = "PRAGMA auto_vacuum";
+  public static final String PRAGMA_PAGE_COUNT = "PRAGMA page_count";
+  public static final String PRAGMA_FREELIST_COUNT = "PRAGMA freelist_count";
+  public static final String PRAGMA_PAGE_SIZE = "PRAGMA page_size";
+  public static final long AUTO_VACUUM_INCREMENTAL = 2;
+
+  public static final String QUERY_GET_LOGS = "SELECT log_id, timestamp, level, message, tag_id, message_blob, codec, "
+    + "repeat_count, last_timestamp FROM logs";
+
+  public static final String[] CREATE_FTS = new String[] {
+    "CREATE VIRTUAL TABLE IF NOT EXISTS logs_fts USING fts4(content=\"logs\", message);",
+    "CREATE TRIGGER IF NOT EXISTS logs_fts_bd BEFORE DELETE ON logs BEGIN "
+      + "DELETE FROM logs_fts WHERE docid = old.log_id; END;",
+    "CREATE TRIGGER IF NOT EXISTS logs_fts_bu BEFORE UPDATE OF message ON logs BEGIN "
+      + "DELETE FROM logs_fts WHERE docid = old.log_id; END;",
+    "CREATE TRIGGER IF NOT EXISTS logs_fts_ai AFTER INSERT ON logs BEGIN "
+      + "INSERT INTO logs_fts (docid, message) VALUES (new.log_id, new.message); END;",
+    "CREATE TRIGGER IF NOT EXISTS logs_fts_au AFTER UPDATE OF message ON logs BEGIN "
+      + "INSERT INTO logs_fts (docid, message) VALUES (new.log_id, new.message); END;",
+  };
+
+  public static final String[] DROP_FTS = new String[] {
+    "DROP TRIGGER IF EXISTS logs_fts_bd;",
+    "DROP TRIGGER IF EXISTS logs_fts_bu;",
+    "DROP TRIGGER IF EXISTS logs_fts_ai;",
+    "DROP TRIGGER IF EXISTS logs_fts_au;",
+    "DROP TABLE IF EXISTS logs_fts;",
+  };
+
+  public static final String REBUILD_FTS = "INSERT INTO logs_fts (logs_fts) VALUES ('rebuild');";
+
+  public static final String QUERY_FTS_EXISTS = "SELECT count(*) FROM sqlite_master WHERE type = 'table' AND name = 'logs_fts'";
+
+  // 'pcnx' = phrase count, column count, row count and per phrase hits in the row, in all rows and rows with hits
+  public static final String QUERY_FTS_RANK = "SELECT docid, matchinfo(logs_fts, 'pcnx') FROM logs_fts "
+    + "JOIN logs ON log_id = docid";
+
+  // log counts per (bucket start, level, tag), the timestamp column holds the bucket start and tag_id 0 stands
+  // for logs without a tag, so the log selections apply to the rollup as well
+  public static final String[] CREATE_ROLLUP = new String[] {
+    "CREATE TABLE IF NOT EXISTS log_rollup (timestamp INTEGER NOT NULL, level TINYINT NOT NULL, "
+      + "tag_id INTEGER NOT NULL, count INTEGER NOT NULL, PRIMARY KEY (timestamp, level, tag_id)) WITHOUT ROWID;",
+    "CREATE TABLE IF NOT EXISTS log_rollup_config (id INTEGER PRIMARY KEY CHECK (id = 0), interval INTEGER NOT NULL);",
+  };
+
+  public static final String[] DROP_ROLLUP = new String[] {
+    "DROP TRIGGER IF EXISTS logs_rollup_ad;",
+    "DROP TABLE IF EXISTS log_rollup;",
+    "DROP TABLE IF EXISTS log_rollup_config;",
+  };
 
-  public static final String[] QUERY_GET_LOGS_COLUMNS = new String[] {"log_id", "timestamp", "level", "message", "tag"};
+  public static final String DROP_ROLLUP_TRIGGER = "DROP TRIGGER IF EXISTS logs_rollup_ad;";
+
+  public static final String CLEAR_ROLLUP = "DELETE FROM log_rollup;";
+
+  public static final String SET_ROLLUP_INTERVAL = "INSERT OR REPLACE INTO log_rollup_config (id, interval) VALUES (0, ?)";
+
+  public static final String QUERY_ROLLUP_EXISTS = "SELECT count(*) FROM sqlite_master WHERE type = 'table' AND name = 'log_rollup_config'";
+
+  public static final String QUERY_ROLLUP_INTERVAL = "SELECT IFNULL(max(interval), 0) FROM log_rollup_config";
+
+  public static final String UPDATE_ROLLUP = "UPDATE log_rollup SET count = count + ? WHERE timestamp = ? AND level = ? AND tag_id = ?";
+
+  public static final String INSERT_ROLLUP = "INSERT INTO log_rollup (count, timestamp, level, tag_id) VALUES (?, ?, ?, ?)";
+
+  // buckets emptied by deletes
+  public static final String TRIM_ROLLUP = "DELETE FROM log_rollup WHERE count <= 0";
+
+  // number of logs stored in the rows, a row of a deduplicated burst stands for all its copies
+  public static final String COUNT_LOGS = "sum(IFNULL(repeat_count, 1))";
+
+  public static String rebuildRollup(long interval) {
+    return "INSERT INTO log_rollup (timestamp, level, tag_id, count) SELECT " + bucketOf("timestamp", interval)
+      + ", level, IFNULL(tag_id, 0), " + COUNT_LOGS + " FROM logs WHERE timestamp IS NOT NULL AND level IS NOT NULL GROUP BY 1, 2, 3;";
+  }
+
+  // deletes, including retention, decrement the rollup counts, inserts are counted by the storage per batch
+  public static String createRollupTrigger(long interval) {
+    return "CREATE TRIGGER IF NOT EXISTS logs_rollup_ad AFTER DELETE ON logs BEGIN "
+      + "UPDATE log_rollup SET count = count - IFNULL(old.repeat_count, 1) WHERE timestamp = " + bucketOf("old.timestamp", interval)
+      + " AND level = old.level AND tag_id = IFNULL(old.tag_id, 0); END;";
+  }
+
+  public static String bucketOf(String column, long interval) {
+    return "(" + column + " / " + interval + ") * " + interval;
+  }
+
+  public static final String TABLE_LOG_ROLLUP = "log_rollup";
+
+  // structured fields, the primary key reads the fields of a log, the index finds the logs with a field value
+  public static final String[] CREATE_FIELDS = new String[] {
+    "CREATE TABLE IF NOT EXISTS log_fields (log_id INTEGER NOT NULL, name TEXT NOT NULL, value TEXT NOT NULL, "
+      + "PRIMARY KEY (log_id, name)) WITHOUT ROWID;",
+    "CREATE INDEX IF NOT EXISTS i_log_fields_name_value ON log_fields (name, value);",
+    "CREATE TRIGGER IF NOT EXISTS logs_fields_ad AFTER DELETE ON logs BEGIN "
+      + "DELETE FROM log_fields WHERE log_id = old.log_id; END;"
+  };
+
+  public static final String INSERT_FIELD = "INSERT OR REPLACE INTO log_fields (log_id, name, value) VALUES (?, ?, ?)";
+
+  public static final String QUERY_FIELDS_EXIST = "SELECT EXISTS (SELECT 1 FROM log_fields)";
+
+  public static final String QUERY_FIELDS = "SELECT log_id, name, value FROM log_fields";
+
+  public static final String[] QUERY_GET_LOGS_COLUMNS = new String[] {"log_id", "timestamp", "level", "message", "tag_id", "message_blob", "codec",
+    "repeat_count", "last_timestamp"};
 
   public static final String SELECTION_ID_LTE = "log_id <= ?";
   public static final String SELECTION_LEVEL_EQ = "level = ?";
-  public static final String SELECTION_TAG_EQ = "tag = ?";
+  public static final String SELECTION_TAG_ID_EQ = "tag_id = ?";
   public static final String SELECTION_LEVEL_GTE = "level >= ?";
   public static final String SELECTION_TIMESTAMP_GTE = "timestamp >= ?";
   public static final String SELECTION_TIMESTAMP_LTE = "timestamp <= ?";
+  public static final String SELECTION_FIELD_EQ = "log_id IN (SELECT log_id FROM log_fields WHERE name = ? AND value = ?)";
+  public static final String SELECTION_FTS_MATCH = "log_id IN (SELECT docid FROM logs_fts WHERE logs_fts MATCH ?)";
+  // keyset pagination on (timestamp, log_id), the range condition on timestamp keeps the index usable
+  public static final String SELECTION_KEYSET_AFTER = "timestamp >= ? AND (timestamp > ? OR log_id > ?)";
+  public static final String SELECTION_KEYSET_BEFORE = "timestamp <= ? AND (timestamp < ? OR log_id < ?)";
+
+  public static final String ORDER_BY_KEYSET_ASC = "timestamp, log_id";
+  public static final String ORDER_BY_KEYSET_DESC = "timestamp DESC, log_id DESC";
 
   public static final String TABLE_LOGS = "logs";
 }
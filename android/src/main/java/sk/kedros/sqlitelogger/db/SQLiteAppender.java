@@ -2,9 +2,17 @@
 
 import java.io.File;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
 
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
@@ -18,19 +26,46 @@
 import ch.qos.logback.core.UnsynchronizedAppenderBase;
 import ch.qos.logback.core.android.AndroidContextUtil;
 import ch.qos.logback.core.util.Duration;
+import org.slf4j.event.KeyValuePair;
+import sk.kedros.sqlitelogger.common.LogEvent;
 import sk.kedros.sqlitelogger.common.LogLevel;
 
 public class SQLiteAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
 
   private static final long DEFAULT_DELETE_INTERVAL = 5 * 60; // 5 minutes
   private static final long DEFAULT_MAX_AGE = 5 * 24 * 60 * 60; // cca 5 days (in seconds)
+  private static final int DEFAULT_BATCH_SIZE = 1; // batching disabled
+  private static final long DEFAULT_MAX_BATCH_DELAY = 1000; // 1 second (in milliseconds)
+  private static final int RETENTION_CHUNK_SIZE = 500; // rows deleted in a single transaction
+  private static final long RETENTION_CHUNK_PAUSE = 50; // pause between chunks (in milliseconds)
+  private static final int RETENTION_VACUUM_PAGES = 256; // free pages returned to the filesystem per chunk
+  private static final long STOP_TIMEOUT = 5000; // max wait for the running background task (in milliseconds)
+  private static final int MAX_DEDUP_BURSTS = 256; // distinct logs open in the deduplication at once
 
-  private SQLiteLogStorage logStorage;
+  private LogStorage logStorage;
   private String logFileDir;
   private String logFileName;
   private long maxAge;
-  private long lastCleanupTime = 0;
   private long deleteInterval;
+  private long maxDbSizeBytes;
+  private long maxRowCount;
+  private long partitionInterval;
+  private long rollupInterval;
+  private StorageType storageType = StorageType.SQLITE;
+  private boolean fullTextSearch;
+  private int compressThreshold;
+  private MessageCodec compressCodec = MessageCodec.DEFLATE;
+  private int batchSize = DEFAULT_BATCH_SIZE;
+  private long maxBatchDelay = DEFAULT_MAX_BATCH_DELAY;
+  private DurabilityProfile durability = DurabilityProfile.BALANCED;
+  private long dedupWindow;
+  private final TagRateLimiter rateLimiter = new TagRateLimiter();
+  private volatile LogDeduplicator deduplicator;
+  private final Object batchLock = new Object();
+  private List<LogEvent> pendingEvents = new ArrayList<>();
+  private ScheduledExecutorService scheduler;
+  private final LoggerStats stats = new LoggerStats();
+  private final List<LogListener> listeners = new CopyOnWriteArrayList<>();
 
   public String getLogFileDir() {
     return logFileDir;
@@ -64,6 +99,146 @@ public void setDeleteInterval(Long deleteInterval) {
     this.deleteInterval = (deleteInterval == null ? DEFAULT_DELETE_INTERVAL : deleteInterval) * 1000;
   }
 
+  public long getMaxDbSizeBytes() {
+    return maxDbSizeBytes;
+  }
+
+  /**
+   * Maximal size of the data in the database file, oldest logs are evicted first. Zero means no limit.
+   */
+  public void setMaxDbSizeBytes(Long maxDbSizeBytes) {
+    this.maxDbSizeBytes = maxDbSizeBytes == null ? 0 : maxDbSizeBytes;
+  }
+
+  public long getMaxRowCount() {
+    return maxRowCount;
+  }
+
+  /**
+   * Maximal number of logs in the database, oldest logs are evicted first. Zero means no limit.
+   */
+  public void setMaxRowCount(Long maxRowCount) {
+    this.maxRowCount = maxRowCount == null ? 0 : maxRowCount;
+  }
+
+  public StorageType getStorageType() {
+    return storageType;
+  }
+
+  public void setStorageType(String storageType) {
+    this.storageType = StorageType.fromString(storageType);
+  }
+
+  public long getPartitionInterval() {
+    return partitionInterval;
+  }
+
+  /**
+   * Length of the time bucket (in seconds) stored in a single database file. Zero stores all logs in a single file.
+   */
+  public void setPartitionInterval(Long partitionInterval) {
+    this.partitionInterval = (partitionInterval == null ? 0 : partitionInterval) * 1000;
+  }
+
+  public long getRollupInterval() {
+    return rollupInterval;
+  }
+
+  /**
+   * Length of the time bucket (in seconds) of the log counts maintained for aggregations. Zero disables the rollups.
+   */
+  public void setRollupInterval(Long rollupInterval) {
+    this.rollupInterval = (rollupInterval == null ? 0 : rollupInterval) * 1000;
+  }
+
+  public boolean isFullTextSearch() {
+    return fullTextSearch;
+  }
+
+  public void setFullTextSearch(Boolean fullTextSearch) {
+    this.fullTextSearch = fullTextSearch != null && fullTextSearch;
+  }
+
+  public int getCompressThreshold() {
+    return compressThreshold;
+  }
+
+  /**
+   * Messages longer than the threshold (in characters) are stored compressed. Zero disables compression.
+   */
+  public void setCompressThreshold(Integer compressThreshold) {
+    this.compressThreshold = compressThreshold == null ? 0 : compressThreshold;
+  }
+
+  public MessageCodec getCompressCodec() {
+    return compressCodec;
+  }
+
+  public void setCompressCodec(String compressCodec) {
+    this.compressCodec = MessageCodec.fromString(compressCodec);
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+  /**
+   * Maximal number of events written in a single transaction. Values lower or equal to one disable batching.
+   */
+  public void setBatchSize(Integer batchSize) {
+    this.batchSize = (batchSize == null ? DEFAULT_BATCH_SIZE : batchSize);
+  }
+
+  public long getMaxBatchDelay() {
+    return maxBatchDelay;
+  }
+
+  /**
+   * Maximal time (in milliseconds) an event waits in the pending batch before it is written.
+   */
+  public void setMaxBatchDelay(Long maxBatchDelay) {
+    this.maxBatchDelay = (maxBatchDelay == null ? DEFAULT_MAX_BATCH_DELAY : maxBatchDelay);
+  }
+
+  public DurabilityProfile getDurability() {
+    return durability;
+  }
+
+  public void setDurability(String durability) {
+    this.durability = DurabilityProfile.fromString(durability);
+  }
+
+  public long getDedupWindow() {
+    return dedupWindow;
+  }
+
+  /**
+   * Identical logs (same tag, level, message and fields) within the window (in milliseconds) are written as
+   * a single row with a repeat count. Logs are held for the window before they are written. Zero disables
+   * the deduplication.
+   */
+  public void setDedupWindow(Long dedupWindow) {
+    this.dedupWindow = dedupWindow == null ? 0 : Math.max(dedupWindow, 0);
+  }
+
+  /**
+   * Limits the rate of logs with the tag, logs over the limit are dropped and counted in the stats.
+   * @param rate logs per second, null or zero removes the limit
+   * @param burst logs admitted at once after a quiet period, defaults to the rate
+   */
+  public void setRateLimit(String tag, Double rate, Integer burst) {
+    double perSecond = rate == null ? 0 : rate;
+    rateLimiter.setLimit(tag, perSecond, burst == null ? (int) Math.ceil(perSecond) : burst);
+  }
+
+  public void clearRateLimits() {
+    rateLimiter.clear();
+  }
+
+  private boolean isBatching() {
+    return batchSize > 1;
+  }
+
   /*
    * (non-Javadoc)
    * @see ch.qos.logback.core.UnsynchronizedAppenderBase#start()
@@ -75,8 +250,26 @@ public void start() {
       if (logStorage != null) {
         logStorage.close();
       }
-      logStorage = new SQLiteLogStorage(this.logFileDir, this.logFileName);
-      clearExpiredLogs();
+      logStorage = openStorage();
+      logStorage.setFullTextSearch(this.fullTextSearch);
+      logStorage.setCompression(this.compressThreshold, this.compressCodec);
+      logStorage.setRollupInterval(this.rollupInterval);
+      logStorage.setStats(this.stats);
+      scheduler = Executors.newSingleThreadScheduledExecutor();
+      if (isBatching() && maxBatchDelay > 0) {
+        scheduler.scheduleWithFixedDelay(this::flushBatchSafely, maxBatchDelay, maxBatchDelay, TimeUnit.MILLISECONDS);
+      }
+      deduplicator = dedupWindow > 0 ? new LogDeduplicator(dedupWindow, MAX_DEDUP_BURSTS, this::admit, stats) : null;
+      if (deduplicator != null) {
+        // the copies of a burst are added to its stored log at most one window after they were folded
+        scheduler.scheduleWithFixedDelay(this::writeRepeatsSafely, dedupWindow, dedupWindow, TimeUnit.MILLISECONDS);
+      }
+      if (this.deleteInterval > 0 && (this.maxAge > 0 || this.maxRowCount > 0 || this.maxDbSizeBytes > 0)) {
+        scheduler.execute(this::clearExpiredLogs);
+      } else {
+        // the retention vacuums after every chunk, without it the free space is returned once per start
+        scheduler.execute(this::vacuumSafely);
+      }
       super.start();
     } catch (Exception e) {
       addError(e.getMessage(), e);
@@ -84,22 +277,78 @@ public void start() {
   }
 
   /**
-   * Removes expired logs from the database
-   * @param db
+   * Opens the storage of the configured type. The benchmarks open a storage on sqlite-jdbc instead.
+   */
+  LogStorage openStorage() {
+    if (this.storageType == StorageType.SEGMENTS) {
+      return new SegmentLogStorage(this.logFileDir, this.logFileName, this.durability);
+    } else if (this.partitionInterval > 0) {
+      return new PartitionedLogStorage(this.logFileDir, this.logFileName, this.durability, this.partitionInterval);
+    } else {
+      return new SQLiteLogStorage(AndroidLogDatabase.open(this.logFileDir, this.logFileName), this.durability);
+    }
+  }
+
+  /**
+   * Removes expired logs and logs exceeding the row count or size limits from the database on the background
+   * scheduler. Logs are deleted in bounded chunks, each in its own transaction, so the writer is never blocked
+   * for long. Freed pages are returned to the filesystem by incremental vacuum after every chunk. The next run
+   * is scheduled after the last chunk.
    */
   private void clearExpiredLogs() {
+    clearExpiredLogs(System.currentTimeMillis() - maxAge);
+  }
+
+  private void clearExpiredLogs(long expiredBefore) {
 
-    if (this.deleteInterval <= 0 || this.maxAge <= 0) {
+    ScheduledExecutorService scheduler = this.scheduler;
+    LogStorage storage = this.logStorage;
+
+    if (storage == null || scheduler == null || scheduler.isShutdown()) {
       return;
     }
 
-    final long now = System.currentTimeMillis();
+    try {
+      boolean hasMore = false;
+      if (maxAge > 0) {
+        int deleted = storage.deleteExpiredLogs(expiredBefore, RETENTION_CHUNK_SIZE);
+        stats.recordRetentionDeleted(deleted);
+        hasMore |= deleted >= RETENTION_CHUNK_SIZE;
+      }
+      if (maxRowCount > 0) {
+        int deleted = storage.deleteLogsOverCount(maxRowCount, RETENTION_CHUNK_SIZE);
+        stats.recordRetentionDeleted(deleted);
+        hasMore |= deleted >= RETENTION_CHUNK_SIZE;
+      }
+      if (maxDbSizeBytes > 0 && storage.getUsedBytes() > maxDbSizeBytes) {
+        int deleted = storage.deleteOldestLogs(RETENTION_CHUNK_SIZE);
+        stats.recordRetentionDeleted(deleted);
+        hasMore |= deleted > 0;
+      }
+      storage.incrementalVacuum(RETENTION_VACUUM_PAGES);
+      if (hasMore) {
+        scheduler.schedule(() -> clearExpiredLogs(expiredBefore), RETENTION_CHUNK_PAUSE, TimeUnit.MILLISECONDS);
+        return;
+      }
+    } catch (Throwable e) {
+      addError("Cannot clear expired logs", e);
+    }
 
-    if (lastCleanupTime <= 0 || now - lastCleanupTime >= deleteInterval) {
-        lastCleanupTime = now;
-        this.logStorage.deleteLogs(null, now - maxAge, null);
+    if (!scheduler.isShutdown()) {
+      scheduler.schedule(() -> clearExpiredLogs(), deleteInterval, TimeUnit.MILLISECONDS);
     }
+  }
 
+  private void vacuumSafely() {
+    LogStorage storage = this.logStorage;
+    if (storage == null) {
+      return;
+    }
+    try {
+      storage.incrementalVacuum(RETENTION_VACUUM_PAGES);
+    } catch (Throwable e) {
+      addError("Cannot vacuum database", e);
+    }
   }
 
   /*
@@ -119,6 +368,24 @@ protected void finalize() throws Throwable {
    */
   @Override
   public void stop() {
+    this.started = false;
+    if (this.scheduler != null) {
+      try {
+        this.scheduler.shutdownNow();
+        this.scheduler.awaitTermination(STOP_TIMEOUT, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        this.scheduler = null;
+      }
+    }
+    try {
+      flushBatch();
+      // closes all bursts
+      writeRepeats(Long.MAX_VALUE);
+    } catch (Throwable e) {
+      addError("Cannot flush pending events", e);
+    }
     if (this.logStorage != null) {
       try {
         this.logStorage.close();
@@ -126,7 +393,6 @@ public void stop() {
         this.logStorage = null;
       }
     }
-    this.lastCleanupTime = 0;
   }
 
   /*
@@ -140,20 +406,246 @@ public void append(ILoggingEvent event) {
       return;
     }
 
+    stats.recordReceived(1);
     try {
-      clearExpiredLogs();
-      logStorage.insertLog(
-        event.getTimeStamp(),
-        LogLevel.fromLogbackLevel(event.getLevel()),
-        event.getFormattedMessage(),
-        event.getLoggerName()
-      );
+      if (isThrottling()) {
+        writeEvents(throttle(Collections.singletonList(toLogEvent(event))));
+      } else if (isBatching()) {
+        LogEvent logEvent = toLogEvent(event);
+        synchronized (batchLock) {
+          pendingEvents.add(logEvent);
+          if (pendingEvents.size() >= batchSize) {
+            flushBatch();
+          }
+        }
+      } else if (hasKeyValuePairs(event) || !listeners.isEmpty()) {
+        // the listeners get the id of the stored log
+        insertLogs(Collections.singletonList(toLogEvent(event)));
+      } else {
+        long start = System.nanoTime();
+        logStorage.insertLog(
+          event.getTimeStamp(),
+          LogLevel.fromLogbackLevel(event.getLevel()),
+          event.getFormattedMessage(),
+          event.getLoggerName()
+        );
+        stats.recordWritten(1, System.nanoTime() - start);
+      }
     } catch (Throwable e) {
       addError("Cannot append event", e);
     }
   }
 
-  public SQLiteLogStorage getLogStorage() {
+  static LogEvent toLogEvent(ILoggingEvent event) {
+    return new LogEvent(
+      null,
+      event.getTimeStamp(),
+      LogLevel.fromLogbackLevel(event.getLevel()),
+      event.getFormattedMessage(),
+      event.getLoggerName(),
+      hasKeyValuePairs(event) ? toFields(event.getKeyValuePairs()) : null
+    );
+  }
+
+  private static boolean hasKeyValuePairs(ILoggingEvent event) {
+    List<KeyValuePair> pairs = event.getKeyValuePairs();
+    return pairs != null && !pairs.isEmpty();
+  }
+
+  /**
+   * Converts the key/value pairs added through the slf4j fluent API into structured fields.
+   */
+  private static Map<String, String> toFields(List<KeyValuePair> pairs) {
+    Map<String, String> fields = new LinkedHashMap<>(pairs.size() * 2);
+    for (KeyValuePair pair : pairs) {
+      if (pair.key != null && pair.value != null) {
+        fields.put(pair.key, String.valueOf(pair.value));
+      }
+    }
+    return fields;
+  }
+
+  /**
+   * Appends already converted events in one go, bypassing the logback pipeline.
+   * @param events events to write
+   */
+  public void appendBatch(List<LogEvent> events) {
+
+    if (!isStarted() || events == null || events.isEmpty()) {
+      return;
+    }
+
+    stats.recordReceived(events.size());
+    appendEvents(events);
+  }
+
+  /**
+   * Appends events already counted as received by the {@link RingBufferAppender}.
+   */
+  void appendEvents(List<LogEvent> events) {
+
+    if (!isStarted() || events.isEmpty()) {
+      return;
+    }
+
+    try {
+      writeEvents(isThrottling() ? throttle(events) : events);
+    } catch (Throwable e) {
+      addError("Cannot append events", e);
+    }
+  }
+
+  private void writeEvents(List<LogEvent> events) {
+    if (events.isEmpty()) {
+      return;
+    }
+    if (isBatching()) {
+      synchronized (batchLock) {
+        pendingEvents.addAll(events);
+        if (pendingEvents.size() >= batchSize) {
+          flushBatch();
+        }
+      }
+    } else {
+      insertLogs(events);
+    }
+  }
+
+  private boolean isThrottling() {
+    return deduplicator != null || rateLimiter.hasLimits();
+  }
+
+  /**
+   * Passes the events through the deduplication and the rate limits.
+   * @return events to write, the copies folded by the deduplication are added to their stored log later
+   */
+  private List<LogEvent> throttle(List<LogEvent> events) {
+    LogDeduplicator deduplicator = this.deduplicator;
+    List<LogEvent> admitted = new ArrayList<>(events.size());
+    for (LogEvent event : events) {
+      // the rate limit applies to the logs starting a burst, the folded copies cost no row
+      if (deduplicator != null ? deduplicator.offer(event) : admit(event)) {
+        admitted.add(event);
+      }
+    }
+    return admitted;
+  }
+
+  private boolean admit(LogEvent event) {
+    if (rateLimiter.tryAcquire(event.getTag(), event.getTimestamp())) {
+      return true;
+    }
+    stats.recordRateLimited(event.getTag());
+    return false;
+  }
+
+  /**
+   * Writes all pending events and the copies folded by the deduplication so far into the database.
+   * The bursts stay open, later copies are still folded into their stored log.
+   */
+  public void flush() {
+    flushBatch();
+    writeRepeats(Long.MIN_VALUE);
+  }
+
+  /**
+   * Adds the copies folded by the deduplication to their stored logs. Callers flush the batch first, so the
+   * first logs of the bursts are stored.
+   * @param now current time in milliseconds, bursts whose window has passed are closed
+   */
+  private void writeRepeats(long now) {
+    LogDeduplicator deduplicator = this.deduplicator;
+    LogStorage storage = this.logStorage;
+    if (deduplicator == null || storage == null) {
+      return;
+    }
+    List<LogEvent> repeats = new ArrayList<>();
+    deduplicator.drainRepeats(now, repeats);
+    if (!repeats.isEmpty()) {
+      storage.addRepeats(repeats);
+    }
+  }
+
+  /**
+   * Writes all pending events into the database in a single transaction.
+   */
+  private void flushBatch() {
+    synchronized (batchLock) {
+      if (pendingEvents.isEmpty() || logStorage == null) {
+        return;
+      }
+      List<LogEvent> events = pendingEvents;
+      pendingEvents = new ArrayList<>(batchSize);
+      insertLogs(events);
+    }
+  }
+
+  private void insertLogs(List<LogEvent> events) {
+    long start = System.nanoTime();
+    long[] ids = logStorage.insertLogs(events);
+    stats.recordWritten(events.size(), System.nanoTime() - start);
+    LogDeduplicator deduplicator = this.deduplicator;
+    if (deduplicator != null) {
+      deduplicator.onWritten(events, ids);
+    }
+    if (!listeners.isEmpty()) {
+      notifyListeners(events, ids);
+    }
+  }
+
+  private void notifyListeners(List<LogEvent> events, long[] ids) {
+    List<LogEvent> written = new ArrayList<>(events.size());
+    for (int i = 0; i < ids.length; i++) {
+      if (ids[i] != -1) {
+        written.add(events.get(i).withId(ids[i]));
+      }
+    }
+    if (written.isEmpty()) {
+      return;
+    }
+    written = Collections.unmodifiableList(written);
+    for (LogListener listener : listeners) {
+      try {
+        listener.onLogsWritten(written);
+      } catch (Throwable e) {
+        addError("Log listener failed", e);
+      }
+    }
+  }
+
+  /**
+   * @param listener receives the events after they are written into the storage
+   */
+  public void addListener(LogListener listener) {
+    listeners.add(listener);
+  }
+
+  public void removeListener(LogListener listener) {
+    listeners.remove(listener);
+  }
+
+  private void flushBatchSafely() {
+    try {
+      flushBatch();
+    } catch (Throwable e) {
+      addError("Cannot flush pending events", e);
+    }
+  }
+
+  private void writeRepeatsSafely() {
+    try {
+      flushBatch();
+      writeRepeats(System.currentTimeMillis());
+    } catch (Throwable e) {
+      addError("Cannot write deduplicated events", e);
+    }
+  }
+
+  public LogStorage getLogStorage() {
     return logStorage;
   }
+
+  public LoggerStats getStats() {
+    return stats;
+  }
 }
@@ -1,64 +1,169 @@
 package sk.kedros.sqlitelogger.db;
 
 import java.io.File;
-import java.sql.SQLException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
-import java.util.stream.Collectors;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.ObjDoubleConsumer;
 
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteException;
-import android.database.sqlite.SQLiteStatement;
-import android.util.Log;
-
-import ch.qos.logback.core.android.AndroidContextUtil;
+import sk.kedros.sqlitelogger.common.GroupBy;
 import sk.kedros.sqlitelogger.common.LogEvent;
 import sk.kedros.sqlitelogger.common.LogLevel;
+import sk.kedros.sqlitelogger.common.LogQuery;
 import sk.kedros.sqlitelogger.common.SortOrder;
 
-public class SQLiteLogStorage {
+/**
+ * {@link LogStorage} in a SQLite database. The database is reached through the {@link LogDatabase} seam, the
+ * app runs on {@link AndroidLogDatabase}.
+ */
+public class SQLiteLogStorage implements LogStorage {
 
-  private static final String TAG = "SQLiteLogStorage";
+  static final int DEFAULT_SEARCH_LIMIT = 100;
 
   private static final int GET_LOGS_ID_INDEX = 0;
   private static final int GET_LOGS_TIMESTAMP_INDEX = 1;
   private static final int GET_LOGS_LEVEL_INDEX = 2;
   private static final int GET_LOGS_MESSAGE_INDEX  = 3;
   private static final int GET_LOGS_TAG_INDEX  = 4;
+  private static final int GET_LOGS_MESSAGE_BLOB_INDEX  = 5;
+  private static final int GET_LOGS_CODEC_INDEX  = 6;
+  private static final int GET_LOGS_REPEAT_COUNT_INDEX  = 7;
+  private static final int GET_LOGS_LAST_TIMESTAMP_INDEX  = 8;
+  private static final int FIELDS_CHUNK_SIZE = 256;
   private static final int INSERT_LOG_TIMESTAMP_INDEX = 1;
   private static final int INSERT_LOG_LEVEL_INDEX = 2;
   private static final int INSERT_LOG_MESSAGE_INDEX  = 3;
   private static final int INSERT_LOG_TAG_INDEX  = 4;
+  private static final int INSERT_LOG_MESSAGE_BLOB_INDEX  = 5;
+  private static final int INSERT_LOG_CODEC_INDEX  = 6;
+  private static final int INSERT_LOG_REPEAT_COUNT_INDEX  = 7;
+  private static final int INSERT_LOG_LAST_TIMESTAMP_INDEX  = 8;
 
-  private final SQLiteDatabase db;
+  private final LogDatabase db;
   private final File dbFile;
+  private final DurabilityProfile durability;
+
+  // compiled once and reused for every inserted row, guarded by the storage lock
+  private LogStatement insertStatement;
+  private LogStatement insertTagStatement;
+  private LogStatement updateRollupStatement;
+  private LogStatement insertRollupStatement;
+  private LogStatement insertFieldStatement;
+
+  // tag dictionary cache, written by the inserting thread and read by queries
+  private final Map<String, Long> tagIds = new ConcurrentHashMap<>();
+  private final Map<Long, String> tagNames = new ConcurrentHashMap<>();
+  // tags inserted into the dictionary by the running transaction, evicted from the cache if it rolls back
+  private final List<String> uncommittedTags = new ArrayList<>();
+
+  private volatile boolean fullTextSearch;
+  // whether any log has structured fields, so queries of logs without fields skip reading them
+  private volatile boolean hasFields;
+  private volatile LoggerStats stats;
+  // length of the rollup buckets in milliseconds, zero if there are no rollups
+  private volatile long rollupInterval;
+  // false until a database created with auto_vacuum NONE is migrated
+  private volatile boolean incrementalVacuumEnabled;
+
+  // messages longer than the threshold (in UTF-16 chars) are compressed, zero disables compression
+  private int compressThreshold;
+  private MessageCodec compressCodec = MessageCodec.DEFLATE;
+
+  SQLiteLogStorage(LogDatabase db, DurabilityProfile durability) {
 
-  public SQLiteLogStorage(String logFileDir, String logFileName) {
+    this.db = db;
+    this.dbFile = db.getFile();
+    this.durability = durability == null ? DurabilityProfile.BALANCED : durability;
 
-    this.dbFile = getDatabaseFile(logFileDir, logFileName);
+    configureDatabase();
+    createOrUpgradeSchema();
+    this.incrementalVacuumEnabled = queryLong(SQLQuery.PRAGMA_AUTO_VACUUM) == SQLQuery.AUTO_VACUUM_INCREMENTAL;
+    loadTags();
+    this.rollupInterval = queryLong(SQLQuery.QUERY_ROLLUP_EXISTS) > 0 ? queryLong(SQLQuery.QUERY_ROLLUP_INTERVAL) : 0;
+    this.hasFields = queryLong(SQLQuery.QUERY_FIELDS_EXIST) > 0;
+    this.insertStatement = db.compileStatement(SQLQuery.INSERT_EVENT);
+  }
+
+  /**
+   * Applies journal mode and PRAGMAs of the selected durability profile.
+   */
+  private void configureDatabase() {
+    try {
+      if (this.db.getVersion() == 0) {
+        // page size and auto vacuum can only be changed before the first table is created, outside of a
+        // transaction, execSQL runs them on the connection that creates the schema
+        this.db.execSQL("PRAGMA page_size = " + DurabilityProfile.PAGE_SIZE);
+        this.db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+      }
+      this.db.setWriteAheadLogging(durability.isWriteAheadLogging());
+      // with WAL the queries run on a pool of connections, every one of them needs the settings
+      this.db.execPerConnectionSQL("PRAGMA synchronous = " + durability.getSynchronous());
+      this.db.execPerConnectionSQL("PRAGMA cache_size = " + durability.getCacheSize());
+      this.db.execPerConnectionSQL("PRAGMA mmap_size = " + durability.getMmapSize());
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException("Cannot configure database", e);
+    }
+  }
 
-    if (dbFile == null) {
-      throw new IllegalArgumentException("Cannot determine database filename");
+  /**
+   * Executes a PRAGMA statement. Some PRAGMAs return a row, so they cannot be run through execSQL.
+   */
+  private void executePragma(String pragma) {
+    LogCursor cursor = this.db.rawQuery(pragma, null, null);
+    try {
+      cursor.moveToFirst();
+    } finally {
+      cursor.close();
     }
+  }
 
+  /**
+   * Databases created before incremental vacuum was introduced need a one-time full VACUUM to switch the
+   * auto_vacuum mode. VACUUM rewrites the whole database into a temporary copy, so it is postponed while the
+   * filesystem has less free space than twice the database size.
+   * @return whether the database is in the incremental vacuum mode
+   */
+  private synchronized boolean migrateToIncrementalVacuum() {
+    if (incrementalVacuumEnabled) {
+      return true;
+    }
+    long size = dbFile.length();
+    if (dbFile.getUsableSpace() < 2 * size) {
+      return false;
+    }
     try {
-      dbFile.getParentFile().mkdirs();
-      this.db = SQLiteDatabase.openOrCreateDatabase(dbFile.getPath(), null);
-    } catch (SQLiteException e) {
-      throw new IllegalArgumentException("Cannot open database", e);
+      // the mode is set on the connection running the VACUUM, which applies it
+      this.db.execSQL("PRAGMA auto_vacuum = INCREMENTAL");
+      this.db.execSQL("VACUUM");
+    } catch (RuntimeException e) {
+      throw new IllegalStateException("Cannot switch database to incremental vacuum", e);
     }
+    incrementalVacuumEnabled = true;
+    return true;
+  }
 
-    createOrUpgradeSchema();
+  private long queryLong(String sql) {
+    LogStatement stmt = this.db.compileStatement(sql);
+    try {
+      return stmt.simpleQueryForLong();
+    } finally {
+      stmt.close();
+    }
   }
 
   private void createOrUpgradeSchema() {
     int currentVersion = this.db.getVersion();
-    Log.d(TAG, "createOrUpgradeSchema version:" + currentVersion);
     if (currentVersion == 0) {
       // initial schema create
       try {
@@ -66,8 +171,7 @@ private void createOrUpgradeSchema() {
         this.db.execSQL(SQLQuery.CREATE_DB_INDEX);
         this.db.setVersion(1);
         currentVersion = 1;
-        Log.d(TAG, "createOrUpgradeSchema created initial schema.");
-      } catch (SQLiteException e) {
+      } catch (RuntimeException e) {
         throw new IllegalArgumentException("Cannot create database initial tables", e);
       }
     }
@@ -78,35 +182,207 @@ private void createOrUpgradeSchema() {
         this.db.execSQL("CREATE INDEX IF NOT EXISTS i_log_tag ON logs (tag);");
         this.db.setVersion(2);
         currentVersion = 2;
-        Log.d(TAG, "createOrUpgradeSchema upgraded schema to v2.");
-      } catch (SQLiteException e) {
+      } catch (RuntimeException e) {
         throw new IllegalArgumentException("Cannot upgrade database to v2", e);
       }
     }
+
+    if (currentVersion == 2) {
+      // move tags into a dictionary table, the logs table is rebuilt to drop the tag column
+      try {
+        this.db.beginTransactionNonExclusive();
+        this.db.execSQL("CREATE TABLE IF NOT EXISTS tags (id INTEGER PRIMARY KEY, name TEXT NOT NULL UNIQUE);");
+        this.db.execSQL("INSERT OR IGNORE INTO tags (name) SELECT DISTINCT tag FROM logs WHERE tag IS NOT NULL;");
+        this.db.execSQL("CREATE TABLE logs_v3 (log_id INTEGER PRIMARY KEY AUTOINCREMENT, timestamp INTEGER, level TINYINT, message TEXT, tag_id INTEGER);");
+        this.db.execSQL("INSERT INTO logs_v3 (log_id, timestamp, level, message, tag_id) "
+          + "SELECT l.log_id, l.timestamp, l.level, l.message, t.id FROM logs l LEFT JOIN tags t ON t.name = l.tag;");
+        this.db.execSQL("DROP TABLE logs;");
+        this.db.execSQL("ALTER TABLE logs_v3 RENAME TO logs;");
+        this.db.execSQL(SQLQuery.CREATE_DB_INDEX);
+        this.db.execSQL("CREATE INDEX IF NOT EXISTS i_log_tag_id ON logs (tag_id);");
+        this.db.setVersion(3);
+        this.db.setTransactionSuccessful();
+        currentVersion = 3;
+      } catch (RuntimeException e) {
+        throw new IllegalArgumentException("Cannot upgrade database to v3", e);
+      } finally {
+        if (this.db.inTransaction()) {
+          this.db.endTransaction();
+        }
+      }
+    }
+
+    if (currentVersion == 3) {
+      // composite indexes serve the level and tag filters together with the timestamp range and ordering
+      try {
+        this.db.execSQL("CREATE INDEX IF NOT EXISTS i_log_tag_id_timestamp ON logs (tag_id, timestamp);");
+        this.db.execSQL("CREATE INDEX IF NOT EXISTS i_log_level_timestamp ON logs (level, timestamp);");
+        this.db.execSQL("DROP INDEX IF EXISTS i_log_tag_id;");
+        this.db.setVersion(4);
+        currentVersion = 4;
+      } catch (RuntimeException e) {
+        throw new IllegalArgumentException("Cannot upgrade database to v4", e);
+      }
+    }
+
+    if (currentVersion == 4) {
+      try {
+        this.db.execSQL("ALTER TABLE logs ADD COLUMN message_blob BLOB;");
+        this.db.execSQL("ALTER TABLE logs ADD COLUMN codec TINYINT;");
+        this.db.setVersion(5);
+        currentVersion = 5;
+      } catch (RuntimeException e) {
+        throw new IllegalArgumentException("Cannot upgrade database to v5", e);
+      }
+    }
+
+    if (currentVersion == 5) {
+      try {
+        this.db.beginTransactionNonExclusive();
+        for (String sql : SQLQuery.CREATE_FIELDS) {
+          this.db.execSQL(sql);
+        }
+        this.db.setVersion(6);
+        this.db.setTransactionSuccessful();
+        currentVersion = 6;
+      } catch (RuntimeException e) {
+        throw new IllegalArgumentException("Cannot upgrade database to v6", e);
+      } finally {
+        if (this.db.inTransaction()) {
+          this.db.endTransaction();
+        }
+      }
+    }
+
+    if (currentVersion == 6) {
+      // bursts of identical logs folded by the appender, null in rows of a single log
+      try {
+        this.db.beginTransactionNonExclusive();
+        this.db.execSQL("ALTER TABLE logs ADD COLUMN repeat_count INTEGER;");
+        this.db.execSQL("ALTER TABLE logs ADD COLUMN last_timestamp INTEGER;");
+        this.db.setVersion(7);
+        this.db.setTransactionSuccessful();
+        currentVersion = 7;
+      } catch (RuntimeException e) {
+        throw new IllegalArgumentException("Cannot upgrade database to v7", e);
+      } finally {
+        if (this.db.inTransaction()) {
+          this.db.endTransaction();
+        }
+      }
+    }
+
+    if (currentVersion == 7) {
+      // the rollup counts the copies of the deduplicated bursts, the trigger and the counts are rebuilt
+      try {
+        this.db.beginTransactionNonExclusive();
+        long interval = queryLong(SQLQuery.QUERY_ROLLUP_EXISTS) > 0 ? queryLong(SQLQuery.QUERY_ROLLUP_INTERVAL) : 0;
+        if (interval > 0) {
+          this.db.execSQL(SQLQuery.DROP_ROLLUP_TRIGGER);
+          this.db.execSQL(SQLQuery.CLEAR_ROLLUP);
+          this.db.execSQL(SQLQuery.rebuildRollup(interval));
+          this.db.execSQL(SQLQuery.createRollupTrigger(interval));
+        }
+        this.db.setVersion(8);
+        this.db.setTransactionSuccessful();
+        currentVersion = 8;
+      } catch (RuntimeException e) {
+        throw new IllegalArgumentException("Cannot upgrade database to v8", e);
+      } finally {
+        if (this.db.inTransaction()) {
+          this.db.endTransaction();
+        }
+      }
+    }
   }
 
-  private File getDatabaseFile(String logFileDir, String logFileName) {
+  private void loadTags() {
+    LogCursor cursor = this.db.rawQuery(SQLQuery.QUERY_ALL_TAGS, null, null);
+    try {
+      while (cursor.moveToNext()) {
+        cacheTag(cursor.getString(1), cursor.getLong(0));
+      }
+    } finally {
+      cursor.close();
+    }
+  }
 
-    File dbFile = null;
+  private void cacheTag(String name, long id) {
+    tagIds.put(name, id);
+    tagNames.put(id, name);
+  }
 
-    if (logFileName == null || logFileName.trim().isEmpty()) {
-      logFileName = "log.sqlite";
+  /**
+   * Returns the dictionary id of the tag, the tag is inserted into the dictionary if it is not there yet.
+   * Callers must hold the storage lock.
+   */
+  private long resolveTagId(String tag) {
+    Long id = tagIds.get(tag);
+    if (id != null) {
+      return id;
     }
 
-    if (logFileDir == null || logFileDir.trim().isEmpty()) {
-      dbFile = new File(new AndroidContextUtil().getDatabasePath(logFileName));
-    } else {
-      dbFile = new File(logFileDir, logFileName);
+    if (insertTagStatement == null) {
+      insertTagStatement = db.compileStatement(SQLQuery.INSERT_TAG);
     }
+    insertTagStatement.bindString(1, tag);
+    id = insertTagStatement.executeInsert();
 
-    return dbFile;
+    if (id == -1) {
+      // already inserted by another storage instance
+      LogStatement stmt = db.compileStatement(SQLQuery.QUERY_TAG_ID);
+      try {
+        stmt.bindString(1, tag);
+        id = stmt.simpleQueryForLong();
+      } finally {
+        stmt.close();
+      }
+    }
+
+    cacheTag(tag, id);
+    if (db.inTransaction()) {
+      uncommittedTags.add(tag);
+    }
+    return id;
   }
 
+  private String getTagName(LogCursor cursor, int index) {
+    return cursor.isNull(index) ? null : tagNames.get(cursor.getLong(index));
+  }
+
+  @Override
   public File getDbFile() {
     return dbFile;
   }
 
-  public void close() {
+  public DurabilityProfile getDurability() {
+    return durability;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (insertStatement != null) {
+      try {
+        insertStatement.close();
+      } finally {
+        insertStatement = null;
+      }
+    }
+    if (insertTagStatement != null) {
+      try {
+        insertTagStatement.close();
+      } finally {
+        insertTagStatement = null;
+      }
+    }
+    closeRollupStatements();
+    if (insertFieldStatement != null) {
+      try {
+        insertFieldStatement.close();
+      } finally {
+        insertFieldStatement = null;
+      }
+    }
     if (db != null) {
       db.close();
     }
@@ -116,138 +392,875 @@ public void insertLog(Long timestamp, LogLevel level, String message) {
     this.insertLog(timestamp, level, message, null);
   }
 
-  public void insertLog(Long timestamp, LogLevel level, String message, String tag) {
+  @Override
+  public synchronized void insertLog(Long timestamp, LogLevel level, String message, String tag) {
 
     if (level == null || level == LogLevel.UNKNOWN) {
       return;
     }
 
-    SQLiteStatement stmt = db.compileStatement(SQLQuery.INSERT_EVENT);
-    stmt.bindLong(INSERT_LOG_TIMESTAMP_INDEX, timestamp);
-    stmt.bindLong(INSERT_LOG_LEVEL_INDEX, level.getCode());
-    stmt.bindString(INSERT_LOG_MESSAGE_INDEX, message);
-    stmt.bindString(INSERT_LOG_TAG_INDEX, tag);
-
+    boolean successful = false;
     try {
-      db.beginTransaction();
-      long eventId = stmt.executeInsert();
+      db.beginTransactionNonExclusive();
+      long eventId = bindAndInsert(timestamp, level, message, tag, 1, null);
       if (eventId != -1) {
+        long interval = this.rollupInterval;
+        if (interval > 0) {
+          updateRollup(Math.floorDiv(timestamp, interval) * interval, level.getCode(), rollupTagId(tag), 1);
+        }
         db.setTransactionSuccessful();
+        successful = true;
       }
     } finally {
       if (db.inTransaction()) {
-        db.endTransaction();
+        endInsertTransaction(successful);
+      }
+    }
+  }
+
+  /**
+   * Inserts all the given events in a single transaction.
+   * @param events events to insert, events with unknown level are skipped
+   */
+  @Override
+  public synchronized long[] insertLogs(List<LogEvent> events) {
+
+    if (events == null || events.isEmpty()) {
+      return new long[0];
+    }
+
+    long[] ids = new long[events.size()];
+    Arrays.fill(ids, -1);
+
+    long interval = this.rollupInterval;
+    // a batch usually falls into a few rollup rows, so they are counted first and updated once
+    Map<RollupKey, long[]> rollup = interval > 0 ? new HashMap<>() : null;
+
+    boolean successful = false;
+    try {
+      db.beginTransactionNonExclusive();
+      for (int i = 0; i < ids.length; i++) {
+        LogEvent event = events.get(i);
+        LogLevel level = event.getLevel();
+        if (level == null || level == LogLevel.UNKNOWN) {
+          continue;
+        }
+        long eventId = bindAndInsert(event.getTimestamp(), level, event.getMessage(), event.getTag(),
+          event.getRepeatCount(), event.getLastTimestamp());
+        ids[i] = eventId;
+        if (eventId != -1 && !event.getFields().isEmpty()) {
+          insertFields(eventId, event.getFields());
+        }
+        if (rollup != null && eventId != -1) {
+          RollupKey key = new RollupKey(Math.floorDiv(event.getTimestamp(), interval) * interval, level.getCode(),
+            rollupTagId(event.getTag()));
+          long[] count = rollup.get(key);
+          if (count == null) {
+            rollup.put(key, new long[] {event.getRepeatCount()});
+          } else {
+            count[0] += event.getRepeatCount();
+          }
+        }
+      }
+      if (rollup != null) {
+        for (Map.Entry<RollupKey, long[]> entry : rollup.entrySet()) {
+          RollupKey key = entry.getKey();
+          updateRollup(key.bucket, key.level, key.tagId, entry.getValue()[0]);
+        }
+      }
+      db.setTransactionSuccessful();
+      successful = true;
+    } finally {
+      if (db.inTransaction()) {
+        endInsertTransaction(successful);
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * Folds the repeated copies into the stored logs in a single transaction, the rollup counts the copies too.
+   */
+  @Override
+  public synchronized void addRepeats(List<LogEvent> repeats) {
+
+    if (repeats == null || repeats.isEmpty()) {
+      return;
+    }
+
+    long interval = this.rollupInterval;
+    LogStatement stmt = db.compileStatement(SQLQuery.UPDATE_REPEATS);
+
+    boolean successful = false;
+    try {
+      db.beginTransactionNonExclusive();
+      for (LogEvent repeat : repeats) {
+        stmt.bindLong(1, repeat.getRepeatCount());
+        stmt.bindLong(2, repeat.getLastTimestamp());
+        stmt.bindLong(3, repeat.getId());
+        // the log may have been deleted by the retention meanwhile
+        if (stmt.executeUpdateDelete() > 0 && interval > 0) {
+          updateRollup(Math.floorDiv(repeat.getTimestamp(), interval) * interval, repeat.getLevel().getCode(),
+            rollupTagId(repeat.getTag()), repeat.getRepeatCount());
+        }
+      }
+      db.setTransactionSuccessful();
+      successful = true;
+    } finally {
+      if (db.inTransaction()) {
+        endInsertTransaction(successful);
       }
       stmt.close();
     }
   }
 
+  /**
+   * Callers must hold the storage lock and run in a transaction.
+   */
+  private void insertFields(long logId, Map<String, String> fields) {
+    if (insertFieldStatement == null) {
+      insertFieldStatement = db.compileStatement(SQLQuery.INSERT_FIELD);
+    }
+    for (Map.Entry<String, String> field : fields.entrySet()) {
+      if (field.getKey() == null || field.getValue() == null) {
+        continue;
+      }
+      insertFieldStatement.bindLong(1, logId);
+      insertFieldStatement.bindString(2, field.getKey());
+      insertFieldStatement.bindString(3, field.getValue());
+      insertFieldStatement.executeInsert();
+    }
+    hasFields = true;
+  }
+
+  private long rollupTagId(String tag) {
+    return tag == null ? 0 : resolveTagId(tag);
+  }
+
+  /**
+   * Adds the count to the rollup row, the row is created if it does not exist yet.
+   * Callers must hold the storage lock and run in a transaction.
+   */
+  private void updateRollup(long bucket, int level, long tagId, long count) {
+    if (updateRollupStatement == null) {
+      updateRollupStatement = db.compileStatement(SQLQuery.UPDATE_ROLLUP);
+      insertRollupStatement = db.compileStatement(SQLQuery.INSERT_ROLLUP);
+    }
+    // the upsert syntax needs SQLite 3.24, which is not available on all supported Android versions
+    if (bindRollup(updateRollupStatement, bucket, level, tagId, count).executeUpdateDelete() == 0) {
+      bindRollup(insertRollupStatement, bucket, level, tagId, count).executeInsert();
+    }
+  }
+
+  private static LogStatement bindRollup(LogStatement stmt, long bucket, int level, long tagId, long count) {
+    stmt.bindLong(1, count);
+    stmt.bindLong(2, bucket);
+    stmt.bindLong(3, level);
+    stmt.bindLong(4, tagId);
+    return stmt;
+  }
+
+  private void closeRollupStatements() {
+    if (updateRollupStatement != null) {
+      updateRollupStatement.close();
+      updateRollupStatement = null;
+    }
+    if (insertRollupStatement != null) {
+      insertRollupStatement.close();
+      insertRollupStatement = null;
+    }
+  }
+
+  /**
+   * Commits or rolls back the insert transaction. The tags inserted by a transaction that did not commit
+   * are gone from the dictionary, so they are evicted from the cache too.
+   * @param successful whether the transaction was marked successful
+   */
+  private void endInsertTransaction(boolean successful) {
+    boolean committed = false;
+    try {
+      LoggerStats stats = this.stats;
+      long start = System.nanoTime();
+      db.endTransaction();
+      if (stats != null) {
+        stats.recordCommit(System.nanoTime() - start);
+      }
+      committed = successful;
+    } finally {
+      if (!committed) {
+        for (String tag : uncommittedTags) {
+          Long id = tagIds.remove(tag);
+          if (id != null) {
+            tagNames.remove(id);
+          }
+        }
+      }
+      uncommittedTags.clear();
+    }
+  }
+
+  /**
+   * Binds a single row to the cached insert statement and executes it.
+   * Callers must hold the storage lock.
+   * @param repeatCount number of identical logs the row stands for
+   */
+  private long bindAndInsert(Long timestamp, LogLevel level, String message, String tag, int repeatCount,
+                             Long lastTimestamp) {
+
+    if (insertStatement == null) {
+      throw new IllegalStateException("Log storage is closed");
+    }
+
+    LogStatement stmt = insertStatement;
+    stmt.clearBindings();
+    stmt.bindLong(INSERT_LOG_TIMESTAMP_INDEX, timestamp);
+    stmt.bindLong(INSERT_LOG_LEVEL_INDEX, level.getCode());
+    byte[] compressed = null;
+    if (message != null && compressThreshold > 0 && message.length() > compressThreshold) {
+      byte[] data = message.getBytes(StandardCharsets.UTF_8);
+      compressed = compressCodec.encode(data);
+      if (compressed.length >= data.length) {
+        // incompressible, keep the plain text
+        compressed = null;
+      }
+    }
+    if (compressed != null) {
+      stmt.bindNull(INSERT_LOG_MESSAGE_INDEX);
+      stmt.bindBlob(INSERT_LOG_MESSAGE_BLOB_INDEX, compressed);
+      stmt.bindLong(INSERT_LOG_CODEC_INDEX, compressCodec.getCode());
+    } else {
+      if (message == null) {
+        stmt.bindNull(INSERT_LOG_MESSAGE_INDEX);
+      } else {
+        stmt.bindString(INSERT_LOG_MESSAGE_INDEX, message);
+      }
+      stmt.bindNull(INSERT_LOG_MESSAGE_BLOB_INDEX);
+      stmt.bindNull(INSERT_LOG_CODEC_INDEX);
+    }
+    if (tag == null) {
+      stmt.bindNull(INSERT_LOG_TAG_INDEX);
+    } else {
+      stmt.bindLong(INSERT_LOG_TAG_INDEX, resolveTagId(tag));
+    }
+    if (repeatCount > 1) {
+      stmt.bindLong(INSERT_LOG_REPEAT_COUNT_INDEX, repeatCount);
+      stmt.bindLong(INSERT_LOG_LAST_TIMESTAMP_INDEX, lastTimestamp);
+    }
+    return stmt.executeInsert();
+  }
+
   public List<LogEvent> getLogs(Long start, Long end, Integer limit, Integer level, List<String> tags, String order, Integer explicitLevel) {
 
+    LogQuery query = new LogQuery()
+      .setStart(start)
+      .setEnd(end)
+      .setLimit(limit)
+      .setLevel(level)
+      .setTags(tags)
+      .setOrder(SortOrder.fromString(order))
+      .setExplicitLevel(explicitLevel == null || explicitLevel == 1);
+
     List<LogEvent> resultList = new ArrayList<>();
+    forEachLog(query, resultList::add);
+    return resultList;
+  }
+
+  /**
+   * Streams the logs matching the query to the consumer row by row, without collecting them first.
+   * Rows are ordered by (timestamp, log_id), so the last consumed row can be used as a keyset position
+   * for the next page.
+   */
+  @Override
+  public void forEachLog(LogQuery query, Consumer<LogEvent> consumer) {
 
-    Cursor cursor = null;
+    List<String> args = new ArrayList<>(8);
+    String sql = LogQueryBuilder.buildGetLogsQuery(query, tagIds, fullTextSearch, args);
+
+    if (sql == null) {
+      return;
+    }
+
+    LogCursor cursor = null;
 
     try {
 
-      List<String> selection = new ArrayList<>(3);
-      List<String> selectionArgs = new ArrayList<>(3);
+      cursor = rawQuery(query, sql, args.toArray(new String[0]));
+
+      if (cursor == null) {
+        return;
+      }
+
+      if (!hasFields) {
+        while (cursor.moveToNext()) {
+          consumer.accept(readLogEvent(cursor));
+        }
+        return;
+      }
 
-      if (start != null) {
-        selection.add(SQLQuery.SELECTION_TIMESTAMP_GTE);
-        selectionArgs.add(String.valueOf(start));
+      // the fields are read per chunk of logs, which keeps the streaming memory bound
+      List<LogEvent> chunk = new ArrayList<>(FIELDS_CHUNK_SIZE);
+      while (cursor.moveToNext()) {
+        chunk.add(readLogEvent(cursor));
+        if (chunk.size() == FIELDS_CHUNK_SIZE) {
+          readFields(query, chunk).forEach(consumer);
+          chunk.clear();
+        }
       }
+      readFields(query, chunk).forEach(consumer);
 
-      if (end != null) {
-        selection.add(SQLQuery.SELECTION_TIMESTAMP_LTE);
-        selectionArgs.add(String.valueOf(end));
+    } finally {
+      if (cursor != null) {
+        cursor.close();
       }
+    }
+  }
 
-      if (level != null) {
-        if (explicitLevel == 1) {
-            selection.add(SQLQuery.SELECTION_LEVEL_EQ);
-        } else {
-            selection.add(SQLQuery.SELECTION_LEVEL_GTE);
+  /**
+   * @return the logs with their structured fields
+   */
+  private List<LogEvent> readFields(LogQuery query, List<LogEvent> events) {
+    if (events.isEmpty()) {
+      return events;
+    }
+    List<Long> ids = new ArrayList<>(events.size());
+    for (LogEvent event : events) {
+      ids.add(event.getId());
+    }
+    List<String> args = new ArrayList<>(ids.size());
+    Map<Long, Map<String, String>> fields = new HashMap<>();
+    LogCursor cursor = rawQuery(query, LogQueryBuilder.buildFieldsQuery(ids, args), args.toArray(new String[0]));
+    try {
+      while (cursor.moveToNext()) {
+        Map<String, String> logFields = fields.get(cursor.getLong(0));
+        if (logFields == null) {
+          logFields = new LinkedHashMap<>();
+          fields.put(cursor.getLong(0), logFields);
         }
-        selectionArgs.add(String.valueOf(level));
+        logFields.put(cursor.getString(1), cursor.getString(2));
       }
+    } finally {
+      cursor.close();
+    }
+    if (fields.isEmpty()) {
+      return events;
+    }
+    List<LogEvent> result = new ArrayList<>(events.size());
+    for (LogEvent event : events) {
+      Map<String, String> logFields = fields.get(event.getId());
+      result.add(logFields == null ? event : event.withFields(logFields));
+    }
+    return result;
+  }
+
+  private LogCursor rawQuery(LogQuery query, String sql, String[] args) {
+    return db.rawQuery(sql, args, query.getCancellation());
+  }
+
+  /**
+   * Deletes at most {@code limit} oldest logs with timestamp lower or equal to {@code expiredBefore}
+   * in a single transaction.
+   * @return number of deleted logs, a value lower than {@code limit} means there are no more expired logs
+   */
+  @Override
+  public int deleteExpiredLogs(long expiredBefore, int limit) {
+    return deleteChunk(SQLQuery.DELETE_EXPIRED_CHUNK, expiredBefore, limit);
+  }
+
+
+  /**
+   * Deletes at most {@code limit} oldest logs exceeding the {@code maxRowCount} newest logs.
+   * @return number of deleted logs
+   */
+  @Override
+  public int deleteLogsOverCount(long maxRowCount, int limit) {
 
-      if (tags != null && tags.size() > 0) {
-        selection.add(" tag IN (" + tags.stream().collect(Collectors.joining("\", \"", "\"", "\"")) + ") ");
+    LogCursor cursor = db.rawQuery(SQLQuery.QUERY_ID_AT_OFFSET_DESC, new String[] {String.valueOf(maxRowCount)}, null);
+    long lastExcessId;
+    try {
+      if (!cursor.moveToFirst()) {
+        return 0;
       }
+      lastExcessId = cursor.getLong(0);
+    } finally {
+      cursor.close();
+    }
 
-      String limitParam = limit == null ? null : String.valueOf(limit);
-      SortOrder sortOrder = SortOrder.fromString(order);
+    return deleteChunk(SQLQuery.DELETE_ID_LTE_CHUNK, lastExcessId, limit);
+  }
 
-      cursor = db.query(
-        SQLQuery.TABLE_LOGS,
-        SQLQuery.QUERY_GET_LOGS_COLUMNS,
-        String.join(" AND ", selection),
-        selectionArgs.toArray(new String[0]),
-        null,
-        null,
-        sortOrder == SortOrder.DESC ? SQLQuery.COLUMN_TIMESTAMP + " DESC" : SQLQuery.COLUMN_TIMESTAMP,
-        limitParam);
+  /**
+   * Deletes at most {@code limit} oldest logs.
+   * @return number of deleted logs
+   */
+  @Override
+  public int deleteOldestLogs(int limit) {
+    return deleteChunk(SQLQuery.DELETE_ID_LTE_CHUNK, Long.MAX_VALUE, limit);
+  }
 
-      if (cursor == null) {
-        return Collections.emptyList();
+  private int deleteChunk(String sql, long bound, int limit) {
+
+    LogStatement stmt = db.compileStatement(sql);
+
+    try {
+      stmt.bindLong(1, bound);
+      stmt.bindLong(2, limit);
+      db.beginTransactionNonExclusive();
+      int deletedRows = stmt.executeUpdateDelete();
+      if (deletedRows > 0) {
+        trimRollup();
+      }
+      db.setTransactionSuccessful();
+      return deletedRows;
+    } finally {
+      if (db.inTransaction()) {
+        db.endTransaction();
       }
+      stmt.close();
+    }
+  }
 
+  @Override
+  public long getLogCount() {
+    return queryLong(SQLQuery.QUERY_LOG_COUNT);
+  }
+
+  /**
+   * @return timestamps of the oldest and the newest log, null if there are no logs
+   */
+  long[] getTimestampRange() {
+    LogCursor cursor = db.rawQuery(SQLQuery.QUERY_TIMESTAMP_RANGE, null, null);
+    try {
+      if (!cursor.moveToFirst() || cursor.isNull(0)) {
+        return null;
+      }
+      return new long[] {cursor.getLong(0), cursor.getLong(1)};
+    } finally {
+      cursor.close();
+    }
+  }
+
+  /**
+   * @return size of the database pages holding data, free pages are not included
+   */
+  @Override
+  public long getUsedBytes() {
+    return (queryLong(SQLQuery.PRAGMA_PAGE_COUNT) - queryLong(SQLQuery.PRAGMA_FREELIST_COUNT))
+      * queryLong(SQLQuery.PRAGMA_PAGE_SIZE);
+  }
+
+  /**
+   * Returns at most {@code pages} free pages to the filesystem. The first call on a database created before
+   * incremental vacuum was introduced runs the full VACUUM switching its mode.
+   */
+  @Override
+  public void incrementalVacuum(int pages) {
+    if (migrateToIncrementalVacuum()) {
+      executePragma("PRAGMA incremental_vacuum(" + pages + ")");
+    }
+  }
+
+  private String readMessage(LogCursor cursor) {
+    if (cursor.isNull(GET_LOGS_CODEC_INDEX)) {
+      return cursor.getString(GET_LOGS_MESSAGE_INDEX);
+    }
+    return MessageCodec.fromCode(cursor.getInt(GET_LOGS_CODEC_INDEX)).decode(cursor.getBlob(GET_LOGS_MESSAGE_BLOB_INDEX));
+  }
+
+  private LogEvent readLogEvent(LogCursor cursor) {
+    LogEvent event = new LogEvent(
+      cursor.getLong(GET_LOGS_ID_INDEX),
+      cursor.getLong(GET_LOGS_TIMESTAMP_INDEX),
+      LogLevel.fromCode(cursor.getInt(GET_LOGS_LEVEL_INDEX)),
+      readMessage(cursor),
+      getTagName(cursor, GET_LOGS_TAG_INDEX)
+    );
+    if (cursor.isNull(GET_LOGS_REPEAT_COUNT_INDEX)) {
+      return event;
+    }
+    return event.withRepeats(cursor.getInt(GET_LOGS_REPEAT_COUNT_INDEX), cursor.getLong(GET_LOGS_LAST_TIMESTAMP_INDEX));
+  }
+
+  /**
+   * Enables or disables the full-text index over log messages. The index is an external-content FTS4 table
+   * kept in sync by triggers, so it is updated by every insert and delete, including retention. Enabling it
+   * on an existing database indexes all stored messages.
+   */
+  @Override
+  public synchronized void setFullTextSearch(boolean enabled) {
+    try {
+      boolean exists = queryLong(SQLQuery.QUERY_FTS_EXISTS) > 0;
+      db.beginTransactionNonExclusive();
+      if (enabled) {
+        for (String sql : SQLQuery.CREATE_FTS) {
+          db.execSQL(sql);
+        }
+        if (!exists) {
+          db.execSQL(SQLQuery.REBUILD_FTS);
+        }
+      } else if (exists) {
+        for (String sql : SQLQuery.DROP_FTS) {
+          db.execSQL(sql);
+        }
+      }
+      db.setTransactionSuccessful();
+      this.fullTextSearch = enabled;
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException("Cannot configure full-text search", e);
+    } finally {
+      if (db.inTransaction()) {
+        db.endTransaction();
+      }
+    }
+  }
+
+  /**
+   * Messages longer than {@code threshold} characters are stored compressed with the given codec.
+   * Compressed messages are decompressed transparently when read, but they are not full-text indexed.
+   * @param threshold message length above which messages are compressed, zero disables compression
+   */
+  @Override
+  public synchronized void setCompression(int threshold, MessageCodec codec) {
+    this.compressThreshold = Math.max(threshold, 0);
+    this.compressCodec = codec == null ? MessageCodec.DEFLATE : codec;
+  }
+
+  /**
+   * Enables, changes or drops the rollup table. Inserts add to the rollup counts in the same transaction,
+   * deletes subtract from them through a trigger, so the rollup always matches the stored logs. Changing
+   * the interval rebuilds the rollup from the stored logs.
+   * @param interval length of the rollup buckets in milliseconds, zero drops the rollup table
+   */
+  @Override
+  public synchronized void setRollupInterval(long interval) {
+    interval = Math.max(interval, 0);
+    try {
+      boolean exists = queryLong(SQLQuery.QUERY_ROLLUP_EXISTS) > 0;
+      if (exists && interval == queryLong(SQLQuery.QUERY_ROLLUP_INTERVAL)) {
+        this.rollupInterval = interval;
+        return;
+      }
+      if (!exists && interval == 0) {
+        return;
+      }
+      closeRollupStatements();
+      db.beginTransactionNonExclusive();
+      if (interval > 0) {
+        for (String sql : SQLQuery.CREATE_ROLLUP) {
+          db.execSQL(sql);
+        }
+        db.execSQL(SQLQuery.DROP_ROLLUP_TRIGGER);
+        db.execSQL(SQLQuery.CLEAR_ROLLUP);
+        db.execSQL(SQLQuery.rebuildRollup(interval));
+        db.execSQL(SQLQuery.createRollupTrigger(interval));
+        db.execSQL(SQLQuery.SET_ROLLUP_INTERVAL, new Object[] {interval});
+      } else {
+        for (String sql : SQLQuery.DROP_ROLLUP) {
+          db.execSQL(sql);
+        }
+      }
+      db.setTransactionSuccessful();
+      this.rollupInterval = interval;
+    } catch (RuntimeException e) {
+      throw new IllegalArgumentException("Cannot configure rollups", e);
+    } finally {
+      if (db.inTransaction()) {
+        db.endTransaction();
+      }
+    }
+  }
+
+  /**
+   * Deletes the rollup rows of the buckets emptied by a delete.
+   * Callers must run in the transaction of the delete.
+   */
+  private void trimRollup() {
+    if (rollupInterval > 0) {
+      db.execSQL(SQLQuery.TRIM_ROLLUP);
+    }
+  }
+
+  public long getRollupInterval() {
+    return rollupInterval;
+  }
+
+  /**
+   * Counts the logs per group in SQL. With rollups, whole rollup buckets inside the time range are read
+   * from the rollup table and only the partial buckets at the range ends are counted from the logs, unless
+   * the aggregator buckets are not a multiple of the rollup buckets.
+   */
+  @Override
+  public void aggregateLogs(LogQuery query, LogAggregator aggregator) {
+
+    long interval = this.rollupInterval;
+    // the rollups are not counted per field value
+    if (interval <= 0 || !query.getFields().isEmpty()
+      || (aggregator.isGroupedBy(GroupBy.TIME_BUCKET) && aggregator.getBucketSize() % interval != 0)) {
+      aggregate(SQLQuery.TABLE_LOGS, SQLQuery.COUNT_LOGS, query, aggregator);
+      return;
+    }
+
+    Long start = query.getStart();
+    Long end = query.getEnd();
+    // whole rollup buckets in [rollupStart, rollupEnd)
+    long rollupStart = start == null ? Long.MIN_VALUE : Math.floorDiv(start + interval - 1, interval) * interval;
+    long rollupEnd = end == null ? Long.MAX_VALUE : Math.floorDiv(end + 1, interval) * interval;
+
+    if (rollupStart >= rollupEnd) {
+      aggregate(SQLQuery.TABLE_LOGS, SQLQuery.COUNT_LOGS, query, aggregator);
+      return;
+    }
+    if (start != null && start < rollupStart) {
+      aggregate(SQLQuery.TABLE_LOGS, SQLQuery.COUNT_LOGS, query.copy().setEnd(rollupStart - 1), aggregator);
+    }
+    aggregate(SQLQuery.TABLE_LOG_ROLLUP, "sum(count)", query.copy()
+      .setStart(start == null ? null : rollupStart)
+      .setEnd(end == null ? null : rollupEnd - 1), aggregator);
+    if (end != null && rollupEnd <= end) {
+      aggregate(SQLQuery.TABLE_LOGS, SQLQuery.COUNT_LOGS, query.copy().setStart(rollupEnd), aggregator);
+    }
+  }
+
+  private void aggregate(String table, String countExpression, LogQuery query, LogAggregator aggregator) {
+
+    List<String> args = new ArrayList<>(8);
+    String sql = LogQueryBuilder.buildAggregateQuery(table, countExpression, query, tagIds, aggregator, args);
+
+    if (sql == null) {
+      return;
+    }
+
+    LogCursor cursor = rawQuery(query, sql, args.toArray(new String[0]));
+    try {
       while (cursor.moveToNext()) {
-        Log.d(TAG, "+ cursor:" + cursor.getString(GET_LOGS_TAG_INDEX));
-        resultList.add(new LogEvent(
-          cursor.getLong(GET_LOGS_ID_INDEX),
-          cursor.getLong(GET_LOGS_TIMESTAMP_INDEX),
-          LogLevel.fromCode(cursor.getInt(GET_LOGS_LEVEL_INDEX)),
-          cursor.getString(GET_LOGS_MESSAGE_INDEX),
-          cursor.getString(GET_LOGS_TAG_INDEX)
-        ));
+        aggregator.add(
+          cursor.isNull(0) ? null : cursor.getLong(0),
+          cursor.isNull(1) ? null : LogLevel.fromCode(cursor.getInt(1)),
+          getTagName(cursor, 2),
+          cursor.getLong(3)
+        );
       }
+    } finally {
+      cursor.close();
+    }
+  }
+
+  @Override
+  public void setStats(LoggerStats stats) {
+    this.stats = stats;
+  }
+
+  public boolean isFullTextSearch() {
+    return fullTextSearch;
+  }
+
+  /**
+   * Streams the logs whose message matches the full-text expression of the query. With
+   * {@link SortOrder#RELEVANCE} the best {@code limit} matches are returned ordered by score, otherwise
+   * the logs are ordered by time as in {@link #forEachLog}.
+   */
+  @Override
+  public void searchLogs(LogQuery query, Consumer<LogEvent> consumer) {
+
+    if (query.getText() == null || !fullTextSearch) {
+      throw new IllegalStateException("Full-text search is not enabled");
+    }
+
+    if (query.getOrder() != SortOrder.RELEVANCE) {
+      forEachLog(query, consumer);
+      return;
+    }
 
+    searchRanked(query, (event, score) -> consumer.accept(event));
+  }
+
+  /**
+   * Streams the best {@code limit} matches of the full-text expression ordered by score, together with
+   * the score. The inverse document frequency is computed over this database only.
+   */
+  void searchRanked(LogQuery query, ObjDoubleConsumer<LogEvent> consumer) {
+
+    if (query.getText() == null || !fullTextSearch) {
+      throw new IllegalStateException("Full-text search is not enabled");
+    }
+
+    List<String> args = new ArrayList<>(8);
+    args.add(query.getText());
+    List<String> selection = LogQueryBuilder.buildSelection(query, tagIds, false, args);
+    if (selection == null) {
+      return;
+    }
+    selection.add(0, "logs_fts MATCH ?");
+
+    int limit = query.getLimit() == null ? DEFAULT_SEARCH_LIMIT : query.getLimit();
+    // min-heap of the best matches seen so far, keeps memory bounded by the limit
+    PriorityQueue<double[]> best = new PriorityQueue<>(limit + 1, (a, b) -> Double.compare(a[1], b[1]));
+
+    LogCursor cursor = rawQuery(query, SQLQuery.QUERY_FTS_RANK + " WHERE " + String.join(" AND ", selection),
+      args.toArray(new String[0]));
+    try {
+      while (cursor.moveToNext()) {
+        best.add(new double[] {cursor.getLong(0), score(cursor.getBlob(1))});
+        if (best.size() > limit) {
+          best.poll();
+        }
+      }
     } finally {
-      if (cursor != null) {
+      cursor.close();
+    }
+
+    List<double[]> ranked = new ArrayList<>(best);
+    ranked.sort((a, b) -> Double.compare(b[1], a[1]));
+
+    Map<Long, LogEvent> events = new HashMap<>(ranked.size() * 2);
+    List<String> ids = new ArrayList<>(ranked.size());
+    for (double[] match : ranked) {
+      ids.add(String.valueOf((long) match[0]));
+    }
+    if (!ids.isEmpty()) {
+      cursor = rawQuery(query, SQLQuery.QUERY_GET_LOGS + " WHERE log_id IN ("
+        + String.join(", ", Collections.nCopies(ids.size(), "?")) + ")", ids.toArray(new String[0]));
+      try {
+        while (cursor.moveToNext()) {
+          LogEvent event = readLogEvent(cursor);
+          events.put(event.getId(), event);
+        }
+      } finally {
         cursor.close();
       }
     }
 
-    return resultList;
+    List<LogEvent> matches = new ArrayList<>(ranked.size());
+    List<Double> scores = new ArrayList<>(ranked.size());
+    for (double[] match : ranked) {
+      LogEvent event = events.get((long) match[0]);
+      if (event != null) {
+        matches.add(event);
+        scores.add(match[1]);
+      }
+    }
+    if (hasFields) {
+      matches = readFields(query, matches);
+    }
+    for (int i = 0; i < matches.size(); i++) {
+      consumer.accept(matches.get(i), scores.get(i));
+    }
   }
 
+  /**
+   * Scores a match from the FTS4 matchinfo 'pcnx' blob as the sum of term frequency times inverse document
+   * frequency of all phrases.
+   */
+  private static double score(byte[] matchinfo) {
+    ByteBuffer buffer = ByteBuffer.wrap(matchinfo).order(ByteOrder.nativeOrder());
+    int phrases = buffer.getInt(0);
+    int columns = buffer.getInt(4);
+    long rows = buffer.getInt(8) & 0xFFFFFFFFL;
+    double score = 0;
+    for (int phrase = 0; phrase < phrases; phrase++) {
+      for (int column = 0; column < columns; column++) {
+        int offset = 12 + 12 * (phrase * columns + column);
+        long hits = buffer.getInt(offset) & 0xFFFFFFFFL;
+        long rowsWithHits = buffer.getInt(offset + 8) & 0xFFFFFFFFL;
+        double idf = Math.log((rows - rowsWithHits + 0.5) / (rowsWithHits + 0.5) + 1);
+        score += hits * idf;
+      }
+    }
+    return score;
+  }
+
+  /**
+   * @return the EXPLAIN QUERY PLAN details of the statement {@link #forEachLog} runs for the query, empty if
+   * the query cannot match any row
+   */
+  List<String> explainQueryPlan(LogQuery query) {
+
+    List<String> args = new ArrayList<>(8);
+    String sql = LogQueryBuilder.buildGetLogsQuery(query, tagIds, fullTextSearch, args);
+    List<String> plan = new ArrayList<>();
+
+    if (sql == null) {
+      return plan;
+    }
+
+    // the columns are id, parent, notused and detail
+    LogCursor cursor = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args.toArray(new String[0]), null);
+    try {
+      while (cursor.moveToNext()) {
+        plan.add(cursor.getString(3));
+      }
+    } finally {
+      cursor.close();
+    }
+
+    return plan;
+  }
+
+  @Override
   public void deleteLogs(Long start, Long end, Long maxId) {
 
-    List<String> where = new ArrayList<>(2);
-    List<String> whereArgs = new ArrayList<>(2);
+    List<String> where = new ArrayList<>(3);
+    List<Long> whereArgs = new ArrayList<>(3);
 
     if (start != null) {
       where.add(SQLQuery.SELECTION_TIMESTAMP_GTE);
-      whereArgs.add(String.valueOf(start));
+      whereArgs.add(start);
     }
 
     if (end != null) {
       where.add(SQLQuery.SELECTION_TIMESTAMP_LTE);
-      whereArgs.add(String.valueOf(end));
+      whereArgs.add(end);
     }
 
     if (maxId != null) {
       where.add(SQLQuery.SELECTION_ID_LTE);
-      whereArgs.add(String.valueOf(maxId));
+      whereArgs.add(maxId);
     }
 
+    LogStatement stmt = db.compileStatement("DELETE FROM " + SQLQuery.TABLE_LOGS
+      + (where.isEmpty() ? "" : " WHERE " + String.join(" AND ", where)));
+
     try {
-      db.beginTransaction();
-      int deletedRows = db.delete(
-        SQLQuery.TABLE_LOGS,
-        String.join(" AND ", where),
-        whereArgs.toArray(new String[0])
-      );
+      for (int i = 0; i < whereArgs.size(); i++) {
+        stmt.bindLong(i + 1, whereArgs.get(i));
+      }
+      db.beginTransactionNonExclusive();
+      int deletedRows = stmt.executeUpdateDelete();
       if (deletedRows > 0) {
+        trimRollup();
         db.setTransactionSuccessful();
       }
     } finally {
       if (db.inTransaction()) {
         db.endTransaction();
       }
+      stmt.close();
+    }
+
+  }
+  private static final class RollupKey {
+
+    private final long bucket;
+    private final int level;
+    private final long tagId;
+
+    RollupKey(long bucket, int level, long tagId) {
+      this.bucket = bucket;
+      this.level = level;
+      this.tagId = tagId;
     }
 
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof RollupKey)) {
+        return false;
+      }
+      RollupKey other = (RollupKey) o;
+      return bucket == other.bucket && level == other.level && tagId == other.tagId;
+    }
+
+    @Override
+    public int hashCode() {
+      return (int) (31 * (31 * bucket + level) + tagId);
+    }
   }
 }
@@ -0,0 +1,1030 @@
+package sk.kedros.sqlitelogger.db;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import android.util.Log;
+
+import ch.qos.logback.core.android.AndroidContextUtil;
+import sk.kedros.sqlitelogger.common.Cancellation;
+import sk.kedros.sqlitelogger.common.LogEvent;
+import sk.kedros.sqlitelogger.common.LogLevel;
+import sk.kedros.sqlitelogger.common.LogQuery;
+import sk.kedros.sqlitelogger.common.SortOrder;
+
+/**
+ * Append-only storage of length-prefixed binary records in memory-mapped segment files. Appending a log is
+ * a few writes into the page cache, queries scan the segments and are much slower than with SQLite.
+ *
+ * <p>Record layout: {@code int length, long timestamp, byte level, byte codec, short tag length, int repeat count,
+ * long last timestamp, tag, int message length, message, int field count, (int key length, key, int value length,
+ * value) per field}. The length prefix is written last, so a record interrupted by a crash reads as the end
+ * of the segment. The repeat count and the last timestamp have fixed positions and are the only values
+ * updated in place, when the copies of a deduplicated log are added. Log ids are the segment number in the upper 32 bits and the record offset
+ * in the lower ones, so they grow with every write.</p>
+ *
+ * <p>Every sealed segment has a sparse index of record offsets with the maximal timestamp written before
+ * them, which lets time range queries skip the beginning of a segment. Logs are returned in write order.
+ * Deleting a part of a segment writes a tombstone hiding the deleted logs until the whole segment expires.
+ * Full-text search is not supported, structured fields are matched by the scan.</p>
+ */
+public class SegmentLogStorage implements LogStorage {
+
+  private static final String TAG = "SegmentLogStorage";
+
+  public static final int DEFAULT_SEGMENT_SIZE = 4 * 1024 * 1024;
+
+  private static final int MAGIC = 0x534c4732; // "SLG2"
+  private static final int LEGACY_MAGIC = 0x534c4731; // "SLG1", records without tags and fields
+  private static final int HEADER_SIZE = 8; // magic and reserved int
+  private static final int RECORD_HEADER_SIZE = 4 + 8 + 1 + 1 + 2 + 4 + 8 + 4 + 4;
+  private static final int TAG_OFFSET = 28;
+  private static final int NULL_TAG_LENGTH = 0xffff;
+  private static final int MAX_TAG_LENGTH = NULL_TAG_LENGTH - 1;
+  private static final int INDEX_INTERVAL = 16 * 1024; // bytes of records between two sparse index entries
+  private static final int LOCAL_ID_BITS = 32;
+  private static final long LOCAL_ID_MASK = (1L << LOCAL_ID_BITS) - 1;
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private static final String INDEX_SUFFIX = ".idx";
+  private static final String TOMBSTONES_FILE = "tombstones";
+  private static final String TEMP_SUFFIX = ".tmp";
+  private static final String CORRUPT_SUFFIX = ".corrupt";
+  private static final Pattern SEGMENT_PATTERN = Pattern.compile("(\\d{8})\\.seg");
+
+  private final File directory;
+  private final int segmentSize;
+  private final DurabilityProfile durability;
+
+  // oldest first, the last one is the active segment, replaced on write so readers iterate a snapshot
+  private final CopyOnWriteArrayList<Segment> segments = new CopyOnWriteArrayList<>();
+  private final CopyOnWriteArrayList<Tombstone> tombstones = new CopyOnWriteArrayList<>();
+
+  private int compressThreshold;
+  private MessageCodec compressCodec = MessageCodec.DEFLATE;
+  private volatile LoggerStats stats;
+  private boolean closed;
+
+  /**
+   * Logs deleted from segments that were still needed for other logs. Hides logs written before
+   * the tombstone, matching the time range and id bound.
+   */
+  private static final class Tombstone {
+
+    final long start;
+    final long end;
+    final long maxId;
+    final long writtenBefore;
+
+    Tombstone(long start, long end, long maxId, long writtenBefore) {
+      this.start = start;
+      this.end = end;
+      this.maxId = maxId;
+      this.writtenBefore = writtenBefore;
+    }
+
+    boolean hides(long id, long timestamp) {
+      return id < writtenBefore && id <= maxId && timestamp >= start && timestamp <= end;
+    }
+  }
+
+  private static final class Segment {
+
+    final int number;
+    final File file;
+    private MappedByteBuffer buffer;
+    // relative writes of the writer, the buffer itself is only used with absolute reads
+    private ByteBuffer writer;
+
+    volatile int end = HEADER_SIZE;
+    // set after the index and the statistics below are final
+    volatile boolean sealed;
+
+    int recordCount;
+    long minTimestamp = Long.MAX_VALUE;
+    long maxTimestamp = Long.MIN_VALUE;
+
+    private long[] indexTimestamps = new long[16];
+    private int[] indexOffsets = new int[16];
+    private int indexSize;
+
+    Segment(int number, File file) {
+      this.number = number;
+      this.file = file;
+    }
+
+    long getId(int offset) {
+      return ((long) number << LOCAL_ID_BITS) | offset;
+    }
+
+    long getFirstId() {
+      return getId(HEADER_SIZE);
+    }
+
+    synchronized ByteBuffer getBuffer() throws IOException {
+      if (buffer == null) {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+          buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        }
+      }
+      return buffer;
+    }
+
+    void openForWrite(int size) throws IOException {
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        // the mapping stays valid after the file is closed
+        buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, Math.max(size, raf.length()));
+      }
+      if (end == HEADER_SIZE) {
+        buffer.putInt(0, MAGIC);
+      }
+      writer = buffer.duplicate();
+    }
+
+    /**
+     * Adds copies to the repeat count of a record. Sealed segments are mapped read-only, their records are
+     * updated through the file, which shares the page cache with the mapping.
+     */
+    void addRepeats(int offset, int count, long lastTimestamp) throws IOException {
+      ByteBuffer buffer = getBuffer();
+      int repeatCount = buffer.getInt(offset + 16) + count;
+      long last = Math.max(buffer.getLong(offset + 20), lastTimestamp);
+      if (!buffer.isReadOnly()) {
+        buffer.putInt(offset + 16, repeatCount);
+        buffer.putLong(offset + 20, last);
+        return;
+      }
+      ByteBuffer update = ByteBuffer.allocate(12);
+      update.putInt(repeatCount).putLong(last).flip();
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        raf.getChannel().write(update, offset + 16);
+      }
+    }
+
+    int remaining() {
+      return writer == null ? 0 : writer.capacity() - end;
+    }
+
+    void addRecord(int offset, long timestamp) {
+      if (indexSize == 0 || offset - indexOffsets[indexSize - 1] >= INDEX_INTERVAL) {
+        if (indexSize == indexOffsets.length) {
+          indexOffsets = Arrays.copyOf(indexOffsets, indexSize * 2);
+          indexTimestamps = Arrays.copyOf(indexTimestamps, indexSize * 2);
+        }
+        indexOffsets[indexSize] = offset;
+        indexTimestamps[indexSize] = maxTimestamp;
+        indexSize++;
+      }
+      recordCount++;
+      minTimestamp = Math.min(minTimestamp, timestamp);
+      maxTimestamp = Math.max(maxTimestamp, timestamp);
+    }
+
+    /**
+     * @return offset before which all records are older than {@code start}, only valid for sealed segments
+     */
+    int findStartOffset(long start) {
+      int low = 0;
+      int high = indexSize - 1;
+      int offset = HEADER_SIZE;
+      while (low <= high) {
+        int middle = (low + high) >>> 1;
+        if (indexTimestamps[middle] < start) {
+          offset = indexOffsets[middle];
+          low = middle + 1;
+        } else {
+          high = middle - 1;
+        }
+      }
+      return offset;
+    }
+
+    File getIndexFile() {
+      return new File(file.getPath().replace(SEGMENT_SUFFIX, INDEX_SUFFIX));
+    }
+
+    void writeIndex() throws IOException {
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getIndexFile())))) {
+        out.writeInt(MAGIC);
+        out.writeInt(end);
+        out.writeInt(recordCount);
+        out.writeLong(minTimestamp);
+        out.writeLong(maxTimestamp);
+        out.writeInt(indexSize);
+        for (int i = 0; i < indexSize; i++) {
+          out.writeLong(indexTimestamps[i]);
+          out.writeInt(indexOffsets[i]);
+        }
+      }
+    }
+
+    boolean readIndex() {
+      File indexFile = getIndexFile();
+      if (!indexFile.exists()) {
+        return false;
+      }
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+        if (in.readInt() != MAGIC) {
+          return false;
+        }
+        end = in.readInt();
+        recordCount = in.readInt();
+        minTimestamp = in.readLong();
+        maxTimestamp = in.readLong();
+        indexSize = in.readInt();
+        indexTimestamps = new long[Math.max(indexSize, 1)];
+        indexOffsets = new int[Math.max(indexSize, 1)];
+        for (int i = 0; i < indexSize; i++) {
+          indexTimestamps[i] = in.readLong();
+          indexOffsets[i] = in.readInt();
+        }
+        return true;
+      } catch (IOException e) {
+        Log.w(TAG, "readIndex failed " + indexFile.getName(), e);
+        return false;
+      }
+    }
+
+    void delete() {
+      file.delete();
+      getIndexFile().delete();
+    }
+  }
+
+  public SegmentLogStorage(String logFileDir, String logFileName, DurabilityProfile durability) {
+    this(logFileDir, logFileName, durability, DEFAULT_SEGMENT_SIZE);
+  }
+
+  /**
+   * @param segmentSize size of a segment file, records bigger than a segment get a segment of their own
+   */
+  public SegmentLogStorage(String logFileDir, String logFileName, DurabilityProfile durability, int segmentSize) {
+
+    if (logFileName == null || logFileName.trim().isEmpty()) {
+      logFileName = "log.sqlite";
+    }
+
+    File parent;
+    if (logFileDir == null || logFileDir.trim().isEmpty()) {
+      parent = new File(new AndroidContextUtil().getDatabasePath(logFileName)).getParentFile();
+    } else {
+      parent = new File(logFileDir);
+    }
+
+    int extension = logFileName.lastIndexOf('.');
+    String baseName = extension > 0 ? logFileName.substring(0, extension) : logFileName;
+
+    this.directory = new File(parent, baseName + "-segments");
+    this.segmentSize = segmentSize;
+    this.durability = durability == null ? DurabilityProfile.BALANCED : durability;
+
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IllegalArgumentException("Cannot create directory " + directory);
+    }
+
+    try {
+      openSegments();
+      readTombstones();
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Cannot open log segments in " + directory, e);
+    }
+  }
+
+  private void openSegments() throws IOException {
+
+    List<Integer> numbers = new ArrayList<>();
+    File[] files = directory.listFiles();
+    if (files != null) {
+      for (File file : files) {
+        Matcher matcher = SEGMENT_PATTERN.matcher(file.getName());
+        if (matcher.matches()) {
+          int magic = readMagic(file);
+          if (magic == MAGIC) {
+            numbers.add(Integer.parseInt(matcher.group(1)));
+          } else if (magic == LEGACY_MAGIC) {
+            Log.w(TAG, "openSegments deleting segment of the SLG1 format " + file.getName());
+            new Segment(0, file).delete();
+          } else {
+            quarantine(new Segment(0, file));
+          }
+        }
+      }
+    }
+    numbers.sort(null);
+
+    List<Segment> opened = new ArrayList<>(numbers.size() + 1);
+    for (int i = 0; i < numbers.size(); i++) {
+      Segment segment = new Segment(numbers.get(i), getSegmentFile(numbers.get(i)));
+      boolean last = i == numbers.size() - 1;
+      if (last) {
+        segment.openForWrite(segmentSize);
+        scan(segment);
+      } else {
+        if (!segment.readIndex()) {
+          scan(segment);
+          segment.writeIndex();
+        }
+        segment.sealed = true;
+      }
+      opened.add(segment);
+    }
+
+    if (opened.isEmpty()) {
+      Segment segment = new Segment(1, getSegmentFile(1));
+      segment.openForWrite(segmentSize);
+      opened.add(segment);
+    }
+
+    segments.addAll(opened);
+    Log.d(TAG, "openSegments count:" + opened.size());
+  }
+
+  /**
+   * Moves an unreadable segment out of the way without deleting it, its index is rebuilt from the records
+   * if the segment is restored.
+   */
+  private static void quarantine(Segment segment) {
+    File target = new File(segment.file.getPath() + CORRUPT_SUFFIX);
+    if (segment.file.renameTo(target)) {
+      Log.w(TAG, "openSegments unreadable segment renamed to " + target.getName());
+    } else {
+      throw new IllegalArgumentException("Cannot rename unreadable segment " + segment.file);
+    }
+    segment.getIndexFile().delete();
+  }
+
+  private static int readMagic(File file) throws IOException {
+    try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+      return raf.length() < HEADER_SIZE ? 0 : raf.readInt();
+    }
+  }
+
+  /**
+   * Rebuilds the end, statistics and index of a segment from its records.
+   */
+  private static void scan(Segment segment) throws IOException {
+    ByteBuffer buffer = segment.getBuffer();
+    int offset = HEADER_SIZE;
+    while (offset + RECORD_HEADER_SIZE <= buffer.capacity()) {
+      int length = buffer.getInt(offset);
+      if (length <= 0 || offset + 4 + length > buffer.capacity()) {
+        break;
+      }
+      segment.addRecord(offset, buffer.getLong(offset + 4));
+      offset += 4 + length;
+    }
+    segment.end = offset;
+  }
+
+  private File getSegmentFile(int number) {
+    return new File(directory, String.format(Locale.US, "%08d", number) + SEGMENT_SUFFIX);
+  }
+
+  private Segment getActiveSegment() {
+    return segments.get(segments.size() - 1);
+  }
+
+  /**
+   * @return the active segment with room for the record, a new one is started if it is full
+   */
+  private Segment getWritableSegment(int recordSize) throws IOException {
+    Segment active = getActiveSegment();
+    if (active.remaining() >= recordSize + 4) {
+      return active;
+    }
+
+    // keep the zero length prefix after the last record as the end marker
+    Segment next = new Segment(active.number + 1, getSegmentFile(active.number + 1));
+    next.openForWrite(Math.max(segmentSize, HEADER_SIZE + recordSize + 4));
+    seal(active);
+    segments.add(next);
+    return next;
+  }
+
+  private void seal(Segment segment) throws IOException {
+    segment.buffer.force();
+    segment.writeIndex();
+    segment.writer = null;
+    segment.sealed = true;
+  }
+
+  @Override
+  public synchronized void insertLog(Long timestamp, LogLevel level, String message, String tag) {
+
+    if (level == null || level == LogLevel.UNKNOWN) {
+      return;
+    }
+
+    try {
+      append(timestamp, level, message, tag, null, 1, timestamp, encodeTag(tag));
+      commit();
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot append log", e);
+    }
+  }
+
+  @Override
+  public synchronized long[] insertLogs(List<LogEvent> events) {
+
+    if (events == null || events.isEmpty()) {
+      return new long[0];
+    }
+
+    // rejects the batch before any of its records is written
+    byte[][] tags = new byte[events.size()][];
+    for (int i = 0; i < tags.length; i++) {
+      tags[i] = encodeTag(events.get(i).getTag());
+    }
+
+    long[] ids = new long[events.size()];
+    try {
+      for (int i = 0; i < ids.length; i++) {
+        LogEvent event = events.get(i);
+        LogLevel level = event.getLevel();
+        if (level == null || level == LogLevel.UNKNOWN) {
+          ids[i] = -1;
+          continue;
+        }
+        ids[i] = append(event.getTimestamp(), level, event.getMessage(), event.getTag(), event.getFields(),
+          event.getRepeatCount(), event.getLastTimestamp(), tags[i]);
+      }
+      commit();
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot append logs", e);
+    }
+    return ids;
+  }
+
+  /**
+   * Adds the copies to the records of the stored logs, logs of deleted segments are skipped.
+   */
+  @Override
+  public synchronized void addRepeats(List<LogEvent> repeats) {
+
+    if (closed) {
+      throw new IllegalStateException("Log storage is closed");
+    }
+
+    try {
+      for (LogEvent repeat : repeats) {
+        int number = (int) (repeat.getId() >>> LOCAL_ID_BITS);
+        int offset = (int) (repeat.getId() & LOCAL_ID_MASK);
+        for (Segment segment : segments) {
+          if (segment.number == number) {
+            if (offset < segment.end) {
+              segment.addRepeats(offset, repeat.getRepeatCount(), repeat.getLastTimestamp());
+            }
+            break;
+          }
+        }
+      }
+      commit();
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot add repeats", e);
+    }
+  }
+
+  /**
+   * @return UTF-8 bytes of the tag, null for no tag
+   * @throws IllegalArgumentException if the tag does not fit into the record
+   */
+  private static byte[] encodeTag(String tag) {
+    if (tag == null) {
+      return null;
+    }
+    byte[] tagBytes = tag.getBytes(StandardCharsets.UTF_8);
+    if (tagBytes.length > MAX_TAG_LENGTH) {
+      throw new IllegalArgumentException("Tag is longer than " + MAX_TAG_LENGTH + " bytes");
+    }
+    return tagBytes;
+  }
+
+  /**
+   * Writes a single record. Callers must hold the storage lock.
+   * @param tagBytes tag encoded by {@link #encodeTag}
+   * @return id of the record
+   */
+  private long append(long timestamp, LogLevel level, String message, String tag, Map<String, String> fields,
+                      int repeatCount, long lastTimestamp, byte[] tagBytes) throws IOException {
+
+    if (closed) {
+      throw new IllegalStateException("Log storage is closed");
+    }
+
+    int tagLength = tagBytes == null ? 0 : tagBytes.length;
+
+    MessageCodec codec = MessageCodec.NONE;
+    byte[] messageBytes = null;
+    if (message != null) {
+      messageBytes = message.getBytes(StandardCharsets.UTF_8);
+      if (compressThreshold > 0 && message.length() > compressThreshold) {
+        byte[] compressed = compressCodec.encode(messageBytes);
+        if (compressed.length < messageBytes.length) {
+          messageBytes = compressed;
+          codec = compressCodec;
+        }
+      }
+    }
+    int messageLength = messageBytes == null ? 0 : messageBytes.length;
+
+    List<byte[]> fieldBytes = new ArrayList<>(fields == null ? 0 : fields.size() * 2);
+    int fieldsLength = 0;
+    if (fields != null) {
+      for (Map.Entry<String, String> field : fields.entrySet()) {
+        byte[] key = field.getKey().getBytes(StandardCharsets.UTF_8);
+        byte[] value = field.getValue().getBytes(StandardCharsets.UTF_8);
+        fieldBytes.add(key);
+        fieldBytes.add(value);
+        fieldsLength += 8 + key.length + value.length;
+      }
+    }
+
+    int recordSize = RECORD_HEADER_SIZE + tagLength + messageLength + fieldsLength;
+    Segment segment = getWritableSegment(recordSize);
+    int offset = segment.end;
+
+    ByteBuffer writer = segment.writer;
+    writer.position(offset + 4);
+    writer.putLong(timestamp);
+    writer.put((byte) level.getCode());
+    writer.put((byte) codec.getCode());
+    writer.putShort((short) (tagBytes == null ? NULL_TAG_LENGTH : tagLength));
+    writer.putInt(repeatCount);
+    writer.putLong(lastTimestamp);
+    if (tagBytes != null) {
+      writer.put(tagBytes);
+    }
+    writer.putInt(messageBytes == null ? -1 : messageLength);
+    if (messageBytes != null) {
+      writer.put(messageBytes);
+    }
+    writer.putInt(fieldBytes.size() / 2);
+    for (byte[] bytes : fieldBytes) {
+      writer.putInt(bytes.length);
+      writer.put(bytes);
+    }
+    // publishes the record
+    writer.putInt(offset, recordSize - 4);
+
+    segment.addRecord(offset, timestamp);
+    segment.end = offset + recordSize;
+    return segment.getId(offset);
+  }
+
+  /**
+   * Records live in the page cache and survive an app crash. The safe profile also writes them to the disk.
+   */
+  private void commit() {
+    if (durability != DurabilityProfile.SAFE) {
+      return;
+    }
+    long start = System.nanoTime();
+    getActiveSegment().buffer.force();
+    LoggerStats stats = this.stats;
+    if (stats != null) {
+      stats.recordCommit(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * Streams the logs matching the query in write order, or in the reverse one with {@link SortOrder#DESC}.
+   * Pagination uses the log id only.
+   */
+  @Override
+  public void forEachLog(LogQuery query, Consumer<LogEvent> consumer) {
+
+    if (query.getText() != null) {
+      throw new IllegalStateException("Full-text search is not enabled");
+    }
+
+    int limit = query.getLimit() == null ? Integer.MAX_VALUE : query.getLimit();
+    if (limit <= 0) {
+      return;
+    }
+
+    if (query.getOrder() != SortOrder.DESC) {
+      int[] remaining = new int[] {limit};
+      scan(query, event -> {
+        consumer.accept(event);
+        return --remaining[0] > 0;
+      });
+      return;
+    }
+
+    // records can only be read forwards, keep the last page
+    ArrayDeque<LogEvent> page = new ArrayDeque<>(Math.min(limit, 1024));
+    scan(query, event -> {
+      if (page.size() == limit) {
+        page.removeFirst();
+      }
+      page.addLast(event);
+      return true;
+    });
+    Iterator<LogEvent> iterator = page.descendingIterator();
+    while (iterator.hasNext()) {
+      consumer.accept(iterator.next());
+    }
+  }
+
+  @Override
+  public void searchLogs(LogQuery query, Consumer<LogEvent> consumer) {
+    throw new IllegalStateException("Full-text search is not enabled");
+  }
+
+  /**
+   * Reads the records matching the query in write order until the visitor returns false. A cancelled query
+   * throws a {@link java.util.concurrent.CancellationException}.
+   */
+  private void scan(LogQuery query, Predicate<LogEvent> visitor) {
+
+    long start = query.getStart() == null ? Long.MIN_VALUE : query.getStart();
+    long end = query.getEnd() == null ? Long.MAX_VALUE : query.getEnd();
+    boolean descending = query.getOrder() == SortOrder.DESC;
+    Long afterId = query.hasAfter() ? query.getAfterId() : null;
+    Integer level = query.getLevel();
+    Set<String> tags = query.getTags().isEmpty() ? null : new HashSet<>(query.getTags());
+    Map<String, String> fields = query.getFields();
+    Cancellation cancellation = query.getCancellation();
+    List<Tombstone> tombstones = this.tombstones;
+
+    try {
+      for (Segment segment : segments) {
+
+        boolean sealed = segment.sealed;
+        if (sealed && (segment.maxTimestamp < start || segment.minTimestamp > end)) {
+          continue;
+        }
+        if (afterId != null) {
+          int afterSegment = (int) (afterId >>> LOCAL_ID_BITS);
+          if (descending ? segment.number > afterSegment : segment.number < afterSegment) {
+            if (descending) {
+              return;
+            }
+            continue;
+          }
+        }
+
+        ByteBuffer buffer = segment.getBuffer();
+        int limit = segment.end;
+        int offset = sealed && start != Long.MIN_VALUE ? segment.findStartOffset(start) : HEADER_SIZE;
+
+        while (offset < limit) {
+          if (cancellation != null) {
+            cancellation.throwIfCancelled();
+          }
+          int length = buffer.getInt(offset);
+          if (length <= 0) {
+            break;
+          }
+          int next = offset + 4 + length;
+          long id = segment.getId(offset);
+          long timestamp = buffer.getLong(offset + 4);
+          int levelCode = buffer.get(offset + 12);
+
+          if (afterId != null && (descending ? id >= afterId : id <= afterId)) {
+            if (descending) {
+              return;
+            }
+            offset = next;
+            continue;
+          }
+
+          if (timestamp >= start && timestamp <= end
+            && (level == null || (query.isExplicitLevel() ? levelCode == level : levelCode >= level))) {
+
+            String tag = readTag(buffer, offset);
+            if ((tags == null || tags.contains(tag)) && !isDeleted(tombstones, id, timestamp)) {
+              Map<String, String> recordFields = readFields(buffer, offset);
+              if (recordFields.entrySet().containsAll(fields.entrySet())) {
+                LogEvent event = new LogEvent(id, timestamp, LogLevel.fromCode(levelCode), readMessage(buffer, offset),
+                  tag, recordFields).withRepeats(buffer.getInt(offset + 16), buffer.getLong(offset + 20));
+                if (!visitor.test(event)) {
+                  return;
+                }
+              }
+            }
+          }
+          offset = next;
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot read log segments", e);
+    }
+  }
+
+  private static boolean isDeleted(List<Tombstone> tombstones, long id, long timestamp) {
+    for (Tombstone tombstone : tombstones) {
+      if (tombstone.hides(id, timestamp)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String readTag(ByteBuffer buffer, int offset) {
+    int tagLength = buffer.getShort(offset + 14) & 0xffff;
+    if (tagLength == NULL_TAG_LENGTH) {
+      return null;
+    }
+    return new String(readBytes(buffer, offset + TAG_OFFSET, tagLength), StandardCharsets.UTF_8);
+  }
+
+  private static int getMessageOffset(ByteBuffer buffer, int offset) {
+    int tagLength = buffer.getShort(offset + 14) & 0xffff;
+    return offset + TAG_OFFSET + (tagLength == NULL_TAG_LENGTH ? 0 : tagLength);
+  }
+
+  private static String readMessage(ByteBuffer buffer, int offset) {
+    int messageOffset = getMessageOffset(buffer, offset);
+    int messageLength = buffer.getInt(messageOffset);
+    if (messageLength < 0) {
+      return null;
+    }
+    byte[] bytes = readBytes(buffer, messageOffset + 4, messageLength);
+    MessageCodec codec = MessageCodec.fromCode(buffer.get(offset + 13));
+    return codec == MessageCodec.NONE ? new String(bytes, StandardCharsets.UTF_8) : codec.decode(bytes);
+  }
+
+  private static Map<String, String> readFields(ByteBuffer buffer, int offset) {
+    int messageOffset = getMessageOffset(buffer, offset);
+    int fieldsOffset = messageOffset + 4 + Math.max(buffer.getInt(messageOffset), 0);
+    int count = buffer.getInt(fieldsOffset);
+    if (count == 0) {
+      return Collections.emptyMap();
+    }
+    Map<String, String> fields = new HashMap<>(count * 2);
+    int position = fieldsOffset + 4;
+    for (int i = 0; i < count; i++) {
+      int keyLength = buffer.getInt(position);
+      String key = new String(readBytes(buffer, position + 4, keyLength), StandardCharsets.UTF_8);
+      position += 4 + keyLength;
+      int valueLength = buffer.getInt(position);
+      fields.put(key, new String(readBytes(buffer, position + 4, valueLength), StandardCharsets.UTF_8));
+      position += 4 + valueLength;
+    }
+    return fields;
+  }
+
+  private static byte[] readBytes(ByteBuffer buffer, int offset, int length) {
+    byte[] bytes = new byte[length];
+    ByteBuffer source = buffer.duplicate();
+    source.position(offset);
+    source.get(bytes);
+    return bytes;
+  }
+
+  /**
+   * There are no rollups, so the aggregation scans the logs matching the query.
+   */
+  @Override
+  public void aggregateLogs(LogQuery query, LogAggregator aggregator) {
+    forEachLog(query.copy().setLimit(null).setOrder(SortOrder.NONE).setAfter(null, null), aggregator::add);
+  }
+
+  /**
+   * Deletes whole segments covered by the conditions, logs of the other segments are hidden by a tombstone.
+   */
+  @Override
+  public synchronized void deleteLogs(Long start, Long end, Long maxId) {
+
+    long from = start == null ? Long.MIN_VALUE : start;
+    long to = end == null ? Long.MAX_VALUE : end;
+    long maxIdBound = maxId == null ? Long.MAX_VALUE : maxId;
+
+    boolean partial = false;
+    for (Segment segment : segments) {
+      if (segment.recordCount == 0 || segment.maxTimestamp < from || segment.minTimestamp > to
+        || segment.getFirstId() > maxIdBound) {
+        continue;
+      }
+      boolean covered = segment.sealed
+        && segment.minTimestamp >= from && segment.maxTimestamp <= to
+        && segment.getId(segment.end) <= maxIdBound;
+      if (covered) {
+        dropSegment(segment);
+      } else {
+        partial = true;
+      }
+    }
+
+    if (partial) {
+      addTombstone(new Tombstone(from, to, maxIdBound, getActiveSegment().getId(getActiveSegment().end)));
+    }
+  }
+
+  /**
+   * Deletes the oldest segment if all its logs are expired.
+   * @return number of logs in the deleted segment
+   */
+  @Override
+  public synchronized int deleteExpiredLogs(long expiredBefore, int limit) {
+    Segment oldest = segments.get(0);
+    if (!oldest.sealed || oldest.maxTimestamp > expiredBefore) {
+      return 0;
+    }
+    dropSegment(oldest);
+    return oldest.recordCount;
+  }
+
+  /**
+   * Deletes the oldest segment if the newer segments hold at least {@code maxRowCount} logs.
+   * @return number of logs in the deleted segment
+   */
+  @Override
+  public synchronized int deleteLogsOverCount(long maxRowCount, int limit) {
+    Segment oldest = segments.get(0);
+    if (!oldest.sealed || getRecordCount() - oldest.recordCount < maxRowCount) {
+      return 0;
+    }
+    dropSegment(oldest);
+    return oldest.recordCount;
+  }
+
+  /**
+   * Deletes the oldest segment unless it is the active one.
+   * @return number of logs in the deleted segment
+   */
+  @Override
+  public synchronized int deleteOldestLogs(int limit) {
+    Segment oldest = segments.get(0);
+    if (!oldest.sealed) {
+      return 0;
+    }
+    dropSegment(oldest);
+    return oldest.recordCount;
+  }
+
+  private void dropSegment(Segment segment) {
+    segments.remove(segment);
+    segment.delete();
+    Log.d(TAG, "dropSegment " + segment.file.getName());
+
+    // tombstones of logs that no longer exist
+    long firstId = segments.get(0).getFirstId();
+    List<Tombstone> obsolete = new ArrayList<>();
+    for (Tombstone tombstone : tombstones) {
+      if (tombstone.writtenBefore <= firstId) {
+        obsolete.add(tombstone);
+      }
+    }
+    if (!obsolete.isEmpty()) {
+      tombstones.removeAll(obsolete);
+      writeTombstones();
+    }
+  }
+
+  private void addTombstone(Tombstone tombstone) {
+    tombstones.add(tombstone);
+    writeTombstones();
+  }
+
+  private void writeTombstones() {
+    File file = new File(directory, TOMBSTONES_FILE);
+    if (tombstones.isEmpty()) {
+      file.delete();
+      return;
+    }
+    // written aside and renamed over the old file, a crash leaves either the old or the new tombstones
+    File temp = new File(directory, TOMBSTONES_FILE + TEMP_SUFFIX);
+    try (FileOutputStream stream = new FileOutputStream(temp);
+         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream))) {
+      for (Tombstone tombstone : tombstones) {
+        out.writeLong(tombstone.start);
+        out.writeLong(tombstone.end);
+        out.writeLong(tombstone.maxId);
+        out.writeLong(tombstone.writtenBefore);
+      }
+      out.flush();
+      stream.getFD().sync();
+    } catch (IOException e) {
+      temp.delete();
+      throw new IllegalStateException("Cannot write tombstones", e);
+    }
+    if (!temp.renameTo(file)) {
+      temp.delete();
+      throw new IllegalStateException("Cannot replace tombstones file " + file);
+    }
+  }
+
+  private void readTombstones() throws IOException {
+    File file = new File(directory, TOMBSTONES_FILE);
+    if (!file.exists()) {
+      return;
+    }
+    int count = (int) (file.length() / (4 * 8));
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      for (int i = 0; i < count; i++) {
+        tombstones.add(new Tombstone(in.readLong(), in.readLong(), in.readLong(), in.readLong()));
+      }
+    }
+  }
+
+  private long getRecordCount() {
+    long count = 0;
+    for (Segment segment : segments) {
+      count += segment.recordCount;
+    }
+    return count;
+  }
+
+  /**
+   * @return number of stored logs, logs hidden by tombstones are counted by a full scan
+   */
+  @Override
+  public long getLogCount() {
+    if (tombstones.isEmpty()) {
+      synchronized (this) {
+        return getRecordCount();
+      }
+    }
+    long[] count = new long[1];
+    scan(new LogQuery(), event -> {
+      count[0]++;
+      return true;
+    });
+    return count[0];
+  }
+
+  @Override
+  public synchronized long getUsedBytes() {
+    long bytes = 0;
+    for (Segment segment : segments) {
+      bytes += segment.end;
+    }
+    return bytes;
+  }
+
+  @Override
+  public void incrementalVacuum(int pages) {
+    // segments are deleted as whole files
+  }
+
+  @Override
+  public void setFullTextSearch(boolean enabled) {
+    if (enabled) {
+      throw new IllegalArgumentException("Full-text search is not supported by the segment storage");
+    }
+  }
+
+  @Override
+  public void setRollupInterval(long interval) {
+    if (interval > 0) {
+      throw new IllegalArgumentException("Rollups are not supported by the segment storage");
+    }
+  }
+
+  @Override
+  public synchronized void setCompression(int threshold, MessageCodec codec) {
+    this.compressThreshold = Math.max(threshold, 0);
+    this.compressCodec = codec == null ? MessageCodec.DEFLATE : codec;
+  }
+
+  @Override
+  public void setStats(LoggerStats stats) {
+    this.stats = stats;
+  }
+
+  @Override
+  public File getDbFile() {
+    return directory;
+  }
+
+  @Override
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    Segment active = getActiveSegment();
+    if (active.buffer != null && active.writer != null) {
+      active.buffer.force();
+    }
+  }
+
+}
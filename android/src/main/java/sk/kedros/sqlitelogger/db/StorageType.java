@@ -0,0 +1,31 @@
+package sk.kedros.sqlitelogger.db;
+
+/**
+ * Backend storing the logs.
+ */
+public enum StorageType {
+
+  /**
+   * SQLite database with indexed queries, optionally partitioned by time.
+   */
+  SQLITE,
+  /**
+   * Append-only memory-mapped segment files, see {@link SegmentLogStorage}. Cheapest writes, slow queries.
+   */
+  SEGMENTS;
+
+  public static StorageType fromString(String type) {
+
+    if (type == null) {
+      return SQLITE;
+    }
+
+    switch (type.toLowerCase()) {
+      case "segments":
+        return SEGMENTS;
+      default:
+        return SQLITE;
+    }
+  }
+
+}
@@ -0,0 +1,74 @@
+package sk.kedros.sqlitelogger.db;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Token bucket rate limits of the logs per tag. A bucket holds at most {@code burst} tokens and refills at
+ * {@code rate} tokens per second, every admitted log takes one token. The buckets refill by the log timestamps
+ * rather than the clock, so logs buffered on the JS side are limited by the time they were written.
+ * The map is immutable and replaced on every change, tags without a limit are admitted without locking.
+ */
+final class TagRateLimiter {
+
+  private volatile Map<String, Bucket> buckets = Collections.emptyMap();
+
+  /**
+   * @param rate tokens per second, zero or less removes the limit of the tag
+   * @param burst maximal number of logs admitted at once
+   */
+  synchronized void setLimit(String tag, double rate, int burst) {
+    Map<String, Bucket> copy = new HashMap<>(buckets);
+    if (rate <= 0) {
+      copy.remove(tag);
+    } else {
+      copy.put(tag, new Bucket(rate / 1000, Math.max(burst, 1)));
+    }
+    buckets = Collections.unmodifiableMap(copy);
+  }
+
+  synchronized void clear() {
+    buckets = Collections.emptyMap();
+  }
+
+  boolean hasLimits() {
+    return !buckets.isEmpty();
+  }
+
+  /**
+   * @return false if the log exceeds the rate limit of its tag
+   */
+  boolean tryAcquire(String tag, long timestamp) {
+    Bucket bucket = buckets.get(tag);
+    return bucket == null || bucket.tryAcquire(timestamp);
+  }
+
+  private static final class Bucket {
+
+    private final double rate; // tokens per millisecond
+    private final double capacity;
+    private double tokens;
+    private long refilledAt;
+
+    Bucket(double rate, double capacity) {
+      this.rate = rate;
+      this.capacity = capacity;
+      this.tokens = capacity;
+    }
+
+    synchronized boolean tryAcquire(long timestamp) {
+      // logs from more threads arrive slightly out of order, an older timestamp does not refill
+      if (timestamp > refilledAt) {
+        tokens = Math.min(capacity, tokens + (timestamp - refilledAt) * rate);
+        refilledAt = timestamp;
+      }
+      if (tokens < 1) {
+        return false;
+      }
+      tokens--;
+      return true;
+    }
+  }
+
+}
@@ -0,0 +1,15 @@
+package sk.kedros.sqlitelogger;
+
+import com.facebook.react.bridge.ReactApplicationContext;
+
+/**
+ * Base of {@link SqliteLoggerModule} when the new architecture is enabled, the spec is generated
+ * by the codegen from {@code src/NativeSqliteLogger.ts}.
+ */
+abstract class SqliteLoggerSpec extends NativeSqliteLoggerSpec {
+
+  SqliteLoggerSpec(ReactApplicationContext context) {
+    super(context);
+  }
+
+}
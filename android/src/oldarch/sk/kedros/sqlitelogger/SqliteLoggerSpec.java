@@ -0,0 +1,24 @@
+package sk.kedros.sqlitelogger;
+
+import androidx.annotation.Nullable;
+
+import com.facebook.react.bridge.ReactApplicationContext;
+import com.facebook.react.bridge.ReactContextBaseJavaModule;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+
+/**
+ * Base of {@link SqliteLoggerModule} on the old architecture, declares the synchronous methods
+ * of {@code src/NativeSqliteLogger.ts}, which are called through the bridge as blocking methods.
+ */
+abstract class SqliteLoggerSpec extends ReactContextBaseJavaModule {
+
+  SqliteLoggerSpec(ReactApplicationContext context) {
+    super(context);
+  }
+
+  public abstract boolean writeSync(double level, String str, @Nullable String tag, @Nullable ReadableMap fields);
+
+  public abstract double writeBatchSync(ReadableArray entries);
+
+}
@@ -0,0 +1,108 @@
+package sk.kedros.sqlitelogger.db;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.LockSupport;
+
+import sk.kedros.sqlitelogger.common.LogEvent;
+import sk.kedros.sqlitelogger.common.LogLevel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class EventRingBufferTest {
+
+  private static final int PRODUCERS = 4;
+  private static final int EVENTS_PER_PRODUCER = 50000;
+  private static final int CAPACITY = 64;
+
+  @Test
+  public void offerAndPollKeepOrder() {
+    EventRingBuffer buffer = new EventRingBuffer(3);
+    assertEquals(4, buffer.capacity());
+    for (long id = 0; id < 4; id++) {
+      assertTrue(buffer.offer(event(id)));
+    }
+    assertFalse(buffer.offer(event(4)));
+    for (long id = 0; id < 4; id++) {
+      assertEquals(Long.valueOf(id), buffer.poll().getId());
+    }
+    assertNull(buffer.poll());
+    assertTrue(buffer.isEmpty());
+  }
+
+  @Test(timeout = 30000)
+  public void concurrentOffersAreTakenOnce() throws InterruptedException {
+
+    EventRingBuffer buffer = new EventRingBuffer(CAPACITY);
+    int total = PRODUCERS * EVENTS_PER_PRODUCER;
+    // times every event was taken
+    AtomicIntegerArray seen = new AtomicIntegerArray(total);
+    AtomicBoolean producing = new AtomicBoolean(true);
+    CountDownLatch start = new CountDownLatch(1);
+
+    List<Thread> producers = new ArrayList<>(PRODUCERS);
+    for (int p = 0; p < PRODUCERS; p++) {
+      int producer = p;
+      Thread thread = new Thread(() -> {
+        awaitQuietly(start);
+        for (int i = 0; i < EVENTS_PER_PRODUCER; i++) {
+          LogEvent event = event((long) producer * EVENTS_PER_PRODUCER + i);
+          while (!buffer.offer(event)) {
+            Thread.yield();
+          }
+        }
+      });
+      producers.add(thread);
+      thread.start();
+    }
+
+    long[] taken = new long[1];
+    Thread consumer = new Thread(() -> {
+      List<LogEvent> batch = new ArrayList<>(CAPACITY);
+      while (producing.get() || !buffer.isEmpty()) {
+        batch.clear();
+        if (buffer.drainTo(batch, 16) == 0) {
+          LockSupport.parkNanos(1000);
+        }
+        for (LogEvent event : batch) {
+          seen.incrementAndGet(event.getId().intValue());
+          taken[0]++;
+        }
+      }
+    });
+    consumer.start();
+
+    start.countDown();
+    for (Thread thread : producers) {
+      thread.join();
+    }
+    producing.set(false);
+    consumer.join();
+
+    for (int id = 0; id < total; id++) {
+      assertEquals("event " + id, 1, seen.get(id));
+    }
+    assertEquals(total, taken[0]);
+  }
+
+  private static LogEvent event(long id) {
+    return new LogEvent(id, id, LogLevel.INFO, "message " + id);
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
@@ -0,0 +1,111 @@
+package sk.kedros.sqlitelogger.db;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import sk.kedros.sqlitelogger.common.LogEvent;
+import sk.kedros.sqlitelogger.common.LogLevel;
+import sk.kedros.sqlitelogger.common.LogQuery;
+import sk.kedros.sqlitelogger.common.SortOrder;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Runs EXPLAIN QUERY PLAN for every filter combination of {@link SQLiteLogStorage#forEachLog} against the real
+ * schema and fails on the combinations that scan the whole logs table.
+ */
+public class QueryPlanTest {
+
+  private static final List<String> TAGS = Arrays.asList("tag-0", "tag-1", "tag-2");
+  private static final String FIELD_NAME = "requestId";
+  // SCAN logs USING INDEX and SCAN logs_fts VIRTUAL TABLE do not match
+  private static final Pattern FULL_SCAN = Pattern.compile("^SCAN (TABLE )?logs\\b(?! USING)");
+  private static final long NOW = 1_700_000_000_000L;
+
+  private File file;
+  private SQLiteLogStorage storage;
+
+  @Before
+  public void openStorage() throws IOException {
+    file = File.createTempFile("sqlite-logger-query-plan", ".sqlite");
+    JdbcLogDatabase.delete(file);
+    storage = new SQLiteLogStorage(JdbcLogDatabase.open(file), DurabilityProfile.BALANCED);
+    storage.setFullTextSearch(true);
+
+    List<LogEvent> events = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      LogLevel level = LogLevel.values()[1 + i % 5];
+      events.add(new LogEvent(null, NOW - i * 1000L, level, "message " + i, TAGS.get(i % TAGS.size()),
+        Collections.singletonMap(FIELD_NAME, String.valueOf(i))));
+    }
+    storage.insertLogs(events);
+  }
+
+  @After
+  public void closeStorage() {
+    storage.close();
+    JdbcLogDatabase.delete(file);
+  }
+
+  @Test
+  public void noFilterCombinationScansLogs() {
+
+    List<String> fullScans = new ArrayList<>();
+
+    for (int mask = 0; mask < 4; mask++) {
+      boolean start = (mask & 1) != 0;
+      boolean end = (mask & 2) != 0;
+      for (int level = 0; level < 3; level++) {
+        for (int tagCount : new int[] {0, 1, TAGS.size()}) {
+          for (SortOrder order : SortOrder.values()) {
+            for (boolean after : new boolean[] {false, true}) {
+              for (boolean field : new boolean[] {false, true}) {
+                for (boolean text : new boolean[] {false, true}) {
+                  LogQuery query = new LogQuery()
+                    .setStart(start ? NOW - 60000 : null)
+                    .setEnd(end ? NOW : null)
+                    .setLevel(level == 0 ? null : LogLevel.WARN.getCode())
+                    .setExplicitLevel(level == 1)
+                    .setTags(TAGS.subList(0, tagCount))
+                    .setOrder(order)
+                    .setFields(field ? Collections.singletonMap(FIELD_NAME, "0") : null)
+                    .setText(text ? "message" : null)
+                    .setLimit(100);
+                  if (after) {
+                    query.setAfter(NOW - 30000, 1L);
+                  }
+
+                  List<String> plan = storage.explainQueryPlan(query);
+                  assertFalse("empty plan", plan.isEmpty());
+
+                  for (String detail : plan) {
+                    if (FULL_SCAN.matcher(detail).find()) {
+                      fullScans.add("start=" + start + " end=" + end
+                        + " level=" + (level == 0 ? "none" : level == 1 ? "eq" : "gte")
+                        + " tags=" + tagCount + " order=" + order + " after=" + after + " field=" + field
+                        + " text=" + text + " -> " + plan);
+                      break;
+                    }
+                  }
+                }
+              }
+            }
+          }
+        }
+      }
+    }
+
+    assertTrue("full scans of logs:\n" + String.join("\n", fullScans), fullScans.isEmpty());
+  }
+
+}
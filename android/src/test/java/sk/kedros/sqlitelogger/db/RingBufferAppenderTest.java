@@ -0,0 +1,310 @@
+package sk.kedros.sqlitelogger.db;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import sk.kedros.sqlitelogger.common.LogEvent;
+import sk.kedros.sqlitelogger.common.LogLevel;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Drives the {@link RingBufferAppender} with a {@link SQLiteAppender} that records the written events instead of
+ * storing them, and checks what every {@link OverflowPolicy} delivers, drops and counts as dropped.
+ */
+public class RingBufferAppenderTest {
+
+  private static final int CAPACITY = 64;
+  // the queue sheds debug events once less than a fifth of it is free
+  private static final int SHED_THRESHOLD = CAPACITY / 5;
+  private static final int PRODUCERS = 4;
+  private static final int EVENTS_PER_PRODUCER = 20000;
+  // slows the writer down, so the producers overflow the queue
+  private static final long BATCH_DELAY_NANOS = TimeUnit.MICROSECONDS.toNanos(200);
+
+  @Test(timeout = 30000)
+  public void shedDebugDropsDebugUnderThreshold() throws InterruptedException {
+
+    RecordingAppender appender = new RecordingAppender(true, 0);
+    RingBufferAppender ring = start(appender, "shedDebug");
+    holdWriter(ring, appender);
+
+    // ids 1 to 52, the queue is left with exactly the threshold free
+    enqueue(ring, 1, CAPACITY - SHED_THRESHOLD, LogLevel.INFO);
+    enqueue(ring, 100, 1, LogLevel.DEBUG);
+    enqueue(ring, 101, 1, LogLevel.DEBUG);
+    enqueue(ring, 102, 1, LogLevel.TRACE);
+    enqueue(ring, 103, 1, LogLevel.INFO);
+    // fills the queue, the next info event does not fit
+    enqueue(ring, 200, SHED_THRESHOLD - 2, LogLevel.INFO);
+    enqueue(ring, 300, 1, LogLevel.INFO);
+
+    assertEquals(3, appender.getStats().getDropped());
+    Set<Long> written = releaseAndStop(ring, appender);
+
+    assertTrue(written.contains(100L));
+    assertFalse(written.contains(101L));
+    assertFalse(written.contains(102L));
+    assertTrue(written.contains(103L));
+    assertFalse(written.contains(300L));
+    assertEquals(1 + CAPACITY, written.size());
+    assertEquals(1 + CAPACITY + 3, appender.getStats().getReceived());
+  }
+
+  @Test(timeout = 30000)
+  public void dropNewestRejectsEventsOverCapacity() throws InterruptedException {
+
+    RecordingAppender appender = new RecordingAppender(true, 0);
+    RingBufferAppender ring = start(appender, "dropNewest");
+    holdWriter(ring, appender);
+
+    enqueue(ring, 1, CAPACITY + 10, LogLevel.INFO);
+
+    assertEquals(10, appender.getStats().getDropped());
+    Set<Long> written = releaseAndStop(ring, appender);
+
+    assertEquals(1 + CAPACITY, written.size());
+    for (long id = 0; id <= CAPACITY; id++) {
+      assertTrue("event " + id, written.contains(id));
+    }
+  }
+
+  @Test(timeout = 30000)
+  public void dropOldestEvictsQueuedEvents() throws InterruptedException {
+
+    RecordingAppender appender = new RecordingAppender(true, 0);
+    RingBufferAppender ring = start(appender, "dropOldest");
+    holdWriter(ring, appender);
+
+    enqueue(ring, 1, CAPACITY + 10, LogLevel.INFO);
+
+    assertEquals(10, appender.getStats().getDropped());
+    Set<Long> written = releaseAndStop(ring, appender);
+
+    assertEquals(1 + CAPACITY, written.size());
+    // the event in flight is written, the ten oldest queued ones are evicted
+    assertTrue(written.contains(0L));
+    for (long id = 1; id <= 10; id++) {
+      assertFalse("event " + id, written.contains(id));
+    }
+    for (long id = 11; id <= CAPACITY + 10; id++) {
+      assertTrue("event " + id, written.contains(id));
+    }
+  }
+
+  @Test(timeout = 30000)
+  public void blockWaitsForFreeSlot() throws InterruptedException {
+
+    RecordingAppender appender = new RecordingAppender(true, 0);
+    RingBufferAppender ring = start(appender, "block");
+    holdWriter(ring, appender);
+
+    enqueue(ring, 1, CAPACITY, LogLevel.INFO);
+    Thread producer = new Thread(() -> enqueue(ring, CAPACITY + 1, 10, LogLevel.DEBUG));
+    producer.start();
+
+    producer.join(200);
+    assertTrue("producer blocked on the full queue", producer.isAlive());
+    assertEquals(0, appender.getStats().getDropped());
+
+    appender.release();
+    producer.join();
+    ring.stop();
+
+    List<LogEvent> written = appender.getWritten();
+    assertEquals(CAPACITY + 11, written.size());
+    for (int i = 0; i < written.size(); i++) {
+      assertEquals(Long.valueOf(i), written.get(i).getId());
+    }
+    assertEquals(0, appender.getStats().getDropped());
+  }
+
+  @Test(timeout = 30000)
+  public void blockLosesNothing() throws InterruptedException {
+    assertAccounted("block");
+  }
+
+  @Test(timeout = 30000)
+  public void dropNewestAccountsEveryEvent() throws InterruptedException {
+    assertAccounted("dropNewest");
+  }
+
+  @Test(timeout = 30000)
+  public void dropOldestAccountsEveryEvent() throws InterruptedException {
+    assertAccounted("dropOldest");
+  }
+
+  @Test(timeout = 30000)
+  public void shedDebugDropsMostlyDebug() throws InterruptedException {
+    assertAccounted("shedDebug");
+  }
+
+  /**
+   * Producers of interleaved DEBUG and INFO events race the slowed down writer. Every event must be either written
+   * once or counted as dropped, and the written events of every producer keep their order.
+   */
+  private static void assertAccounted(String policy) throws InterruptedException {
+
+    RecordingAppender appender = new RecordingAppender(false, BATCH_DELAY_NANOS);
+    RingBufferAppender ring = start(appender, policy);
+    int total = PRODUCERS * EVENTS_PER_PRODUCER;
+    CountDownLatch start = new CountDownLatch(1);
+
+    List<Thread> producers = new ArrayList<>(PRODUCERS);
+    for (int p = 0; p < PRODUCERS; p++) {
+      long first = (long) p * EVENTS_PER_PRODUCER;
+      Thread thread = new Thread(() -> {
+        awaitQuietly(start);
+        for (long id = first; id < first + EVENTS_PER_PRODUCER; id++) {
+          ring.appendBatch(Collections.singletonList(event(id, id % 2 == 0 ? LogLevel.DEBUG : LogLevel.INFO)));
+        }
+      });
+      producers.add(thread);
+      thread.start();
+    }
+
+    start.countDown();
+    for (Thread thread : producers) {
+      thread.join();
+    }
+    ring.stop();
+
+    List<LogEvent> written = appender.getWritten();
+    LoggerStats stats = appender.getStats();
+    assertEquals(total, stats.getReceived());
+    assertEquals(policy, total, written.size() + stats.getDropped());
+
+    boolean[] seen = new boolean[total];
+    long[] last = new long[PRODUCERS];
+    Arrays.fill(last, -1);
+    for (LogEvent event : written) {
+      int id = event.getId().intValue();
+      assertFalse(policy + " event " + id + " written twice", seen[id]);
+      seen[id] = true;
+      int producer = id / EVENTS_PER_PRODUCER;
+      assertTrue(policy + " event " + id + " out of order", id > last[producer]);
+      last[producer] = id;
+    }
+
+    long droppedDebug = 0;
+    long droppedInfo = 0;
+    for (int id = 0; id < total; id++) {
+      if (!seen[id] && id % 2 == 0) {
+        droppedDebug++;
+      } else if (!seen[id]) {
+        droppedInfo++;
+      }
+    }
+
+    if ("block".equals(policy)) {
+      assertEquals(0, stats.getDropped());
+    } else {
+      assertTrue(policy + " never overflowed", stats.getDropped() > 0);
+    }
+    if ("shedDebug".equals(policy)) {
+      assertTrue("debug dropped " + droppedDebug + ", info dropped " + droppedInfo, droppedDebug > droppedInfo);
+    }
+  }
+
+  private static RingBufferAppender start(RecordingAppender appender, String policy) {
+    RingBufferAppender ring = new RingBufferAppender();
+    ring.setName("test");
+    ring.setAppender(appender);
+    ring.setQueueSize(CAPACITY);
+    ring.setOverflowPolicy(policy);
+    ring.start();
+    return ring;
+  }
+
+  /**
+   * Queues event 0 and waits until the writer holds it, the queue is empty then.
+   */
+  private static void holdWriter(RingBufferAppender ring, RecordingAppender appender) throws InterruptedException {
+    enqueue(ring, 0, 1, LogLevel.INFO);
+    appender.entered.await();
+    assertEquals(0, ring.getQueueDepth());
+  }
+
+  private static Set<Long> releaseAndStop(RingBufferAppender ring, RecordingAppender appender) {
+    appender.release();
+    ring.stop();
+    Set<Long> ids = new HashSet<>();
+    for (LogEvent event : appender.getWritten()) {
+      assertTrue("event " + event.getId() + " written twice", ids.add(event.getId()));
+    }
+    return ids;
+  }
+
+  private static void enqueue(RingBufferAppender ring, long firstId, int count, LogLevel level) {
+    List<LogEvent> events = new ArrayList<>(count);
+    for (long id = firstId; id < firstId + count; id++) {
+      events.add(event(id, level));
+    }
+    ring.appendBatch(events);
+  }
+
+  private static LogEvent event(long id, LogLevel level) {
+    return new LogEvent(id, id, level, "message " + id);
+  }
+
+  private static void awaitQuietly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Records the events instead of storing them. A held writer waits in its first batch until released.
+   */
+  private static final class RecordingAppender extends SQLiteAppender {
+
+    final CountDownLatch entered = new CountDownLatch(1);
+    private final CountDownLatch gate;
+    private final long batchDelayNanos;
+    private final List<LogEvent> written = new ArrayList<>();
+
+    RecordingAppender(boolean held, long batchDelayNanos) {
+      this.gate = new CountDownLatch(held ? 1 : 0);
+      this.batchDelayNanos = batchDelayNanos;
+    }
+
+    void release() {
+      gate.countDown();
+    }
+
+    synchronized List<LogEvent> getWritten() {
+      return new ArrayList<>(written);
+    }
+
+    @Override
+    void appendEvents(List<LogEvent> events) {
+      entered.countDown();
+      awaitQuietly(gate);
+      if (batchDelayNanos > 0) {
+        LockSupport.parkNanos(batchDelayNanos);
+      }
+      synchronized (this) {
+        written.addAll(events);
+      }
+    }
+
+    @Override
+    public void flush() {
+      // nothing is pending
+    }
+  }
+
+}
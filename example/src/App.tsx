@@ -1,7 +1,8 @@
 import * as React from 'react';
 
-import { StyleSheet, Text, View } from 'react-native';
+import { Button, StyleSheet, Text, View } from 'react-native';
 import { /*LogLevel,*/ SQLiteLogger } from 'react-native-sqlite-logger';
+import { runWriteBenchmark } from './writeBenchmark';
 
 export default function App() {
   const [result, setResult] = React.useState<string | undefined>('<empty>');
@@ -49,9 +50,20 @@ export default function App() {
     setup();
   }, []);
 
+  const benchmark = async () => {
+    setResult('running...');
+    const results = await runWriteBenchmark();
+    setResult(
+      results
+        .map((r) => `${r.mode}: js ${r.jsMs} ms, total ${r.totalMs} ms`)
+        .join('\n')
+    );
+  };
+
   return (
     <View style={styles.container}>
       <Text>Result: {result}</Text>
+      <Button title="Run write benchmark" onPress={benchmark} />
     </View>
   );
 }
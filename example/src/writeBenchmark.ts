@@ -0,0 +1,54 @@
+import { SQLiteLogger } from 'react-native-sqlite-logger';
+
+export interface WriteBenchmarkResult {
+  mode: string;
+  messages: number;
+  /** time the JS thread spent in the console calls **/
+  jsMs: number;
+  /** time until all messages were written into the DB **/
+  totalMs: number;
+}
+
+const MODES: { mode: string; syncWrite: boolean; writeBufferSize: number }[] = [
+  { mode: 'bridge write', syncWrite: false, writeBufferSize: 1 },
+  { mode: 'sync write', syncWrite: true, writeBufferSize: 1 },
+  { mode: 'bridge writeBatch', syncWrite: false, writeBufferSize: 100 },
+  { mode: 'sync writeBatch', syncWrite: true, writeBufferSize: 100 },
+];
+
+/**
+ * Compares the bridge and the synchronous (JSI on the new architecture) write paths
+ * under heavy console capture. Every mode logs the same messages through `console.log`
+ * into a separate DB file.
+ */
+export async function runWriteBenchmark(
+  messages = 10000
+): Promise<WriteBenchmarkResult[]> {
+  const results: WriteBenchmarkResult[] = [];
+  for (const { mode, syncWrite, writeBufferSize } of MODES) {
+    await SQLiteLogger.configure({
+      logFileName: `benchmark-${mode.replace(' ', '-')}.sqlite`,
+      batchSize: 100,
+      syncWrite,
+      writeBufferSize,
+    });
+    await SQLiteLogger.deleteLogs({});
+
+    const start = Date.now();
+    for (let i = 0; i < messages; i++) {
+      console.log('benchmark message %d of %d: %s', i, messages, mode);
+    }
+    const jsEnd = Date.now();
+    await SQLiteLogger.flush();
+    const end = Date.now();
+
+    results.push({
+      mode,
+      messages,
+      jsMs: jsEnd - start,
+      totalMs: end - start,
+    });
+  }
+  await SQLiteLogger.configure();
+  return results;
+}
@@ -50,7 +50,51 @@ RCT_EXPORT_METHOD(configure:(NSDictionary*)options resolver:(RCTPromiseResolveBl
     resolve(nil);
 }
 
-RCT_EXPORT_METHOD(write:(NSNumber* _Nonnull)level str:(NSString*)str tag:(NSString*)tag) {
+RCT_EXPORT_METHOD(write:(NSNumber* _Nonnull)level str:(NSString*)str tag:(NSString*)tag fields:(NSDictionary*)fields) {
+    [self writeLevel:level str:str tag:tag];
+}
+
+RCT_EXPORT_BLOCKING_SYNCHRONOUS_METHOD(writeSync:(NSNumber* _Nonnull)level str:(NSString*)str tag:(NSString*)tag fields:(NSDictionary*)fields) {
+    [self writeLevel:level str:str tag:tag];
+    return @YES;
+}
+
+RCT_EXPORT_METHOD(writeBatch:(NSArray*)entries) {
+    [self writeEntries:entries];
+}
+
+RCT_EXPORT_BLOCKING_SYNCHRONOUS_METHOD(writeBatchSync:(NSArray*)entries) {
+    return @([self writeEntries:entries]);
+}
+
+- (NSUInteger)writeEntries:(NSArray*)entries {
+    NSUInteger count = 0;
+    // every entry is [timestamp, level, message, tag]
+    for (NSArray *entry in entries) {
+        if (entry.count < 4) {
+            continue;
+        }
+        NSString *tag = entry[3] == [NSNull null] ? nil : entry[3];
+        [self writeLevel:entry[1] str:entry[2] tag:tag];
+        count++;
+    }
+    return count;
+}
+
+RCT_EXPORT_METHOD(setLogLevel:(nonnull NSNumber*)level) {
+    // levels are filtered on the JS side
+}
+
+RCT_EXPORT_METHOD(setTagLevel:(NSString*)tag level:(NSNumber*)level) {
+    // levels are filtered on the JS side
+}
+
+RCT_EXPORT_METHOD(flush:(RCTPromiseResolveBlock)resolve rejecter:(RCTPromiseRejectBlock)reject) {
+    [DDLog flushLog];
+    resolve(nil);
+}
+
+- (void)writeLevel:(NSNumber* _Nonnull)level str:(NSString*)str tag:(NSString*)tag {
     switch (level.integerValue) {
         case LOG_LEVEL_VERBOSE:
             //DDLogVerbose(@"%@", str);
@@ -97,6 +141,11 @@ RCT_EXPORT_METHOD(deleteLogs:(NSDictionary*)options resolver:(RCTPromiseResolveB
     resolve(nil);
 }
 
+RCT_EXPORT_METHOD(cancel:(NSString*)operationId resolver:(RCTPromiseResolveBlock)resolve rejecter:(RCTPromiseRejectBlock)reject) {
+    // operations are not queued on iOS
+    resolve(@NO);
+}
+
 RCT_EXPORT_METHOD(getDbFilePath:(RCTPromiseResolveBlock)resolve rejecter:(RCTPromiseRejectBlock)reject) {
     NSString *path = [self.sqliteLogger getDbFilePath];
     resolve(path);
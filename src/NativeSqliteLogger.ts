@@ -0,0 +1,44 @@
+import type { TurboModule } from 'react-native';
+import { TurboModuleRegistry } from 'react-native';
+
+/**
+ * Codegen spec of the native module. The `*Sync` methods are called synchronously through JSI
+ * on the new architecture, the strings are passed without the bridge message serialization.
+ */
+export interface Spec extends TurboModule {
+  configure(options: Object): Promise<void>;
+  setTagOverride(tag: string): Promise<boolean>;
+  setLogLevel(level: number): void;
+  setTagLevel(tag: string, level: number | null): void;
+  write(level: number, str: string, tag: string | null, fields: Object | null): void;
+  /**
+   * @returns false if the message was rejected by the log level
+   */
+  writeSync(level: number, str: string, tag: string | null, fields: Object | null): boolean;
+  /**
+   * @param entries arrays of [timestamp, level, message, tag, fields?]
+   */
+  writeBatch(entries: Array<Object>): void;
+  /**
+   * @param entries arrays of [timestamp, level, message, tag, fields?]
+   * @returns number of entries accepted by the log levels
+   */
+  writeBatchSync(entries: Array<Object>): number;
+  flush(): Promise<void>;
+  getLogs(options: Object): Promise<Array<Object>>;
+  getLogsPage(options: Object): Promise<Object>;
+  searchLogs(options: Object): Promise<Array<Object>>;
+  aggregateLogs(options: Object): Promise<Array<Object>>;
+  exportLogs(options: Object): Promise<string>;
+  subscribe(options: Object): Promise<number>;
+  unsubscribe(subscription: number): void;
+  acknowledgeLogs(subscription: number): void;
+  addListener(eventName: string): void;
+  removeListeners(count: number): void;
+  deleteLogs(options: Object): Promise<void>;
+  cancel(operationId: string): Promise<boolean>;
+  getDbFilePath(): Promise<string>;
+  getStats(): Promise<Object>;
+}
+
+export default TurboModuleRegistry.get<Spec>('SqliteLogger');
@@ -1,4 +1,4 @@
-import { NativeModules, Platform } from 'react-native';
+import { NativeEventEmitter, NativeModules, Platform } from 'react-native';
 import util from 'util';
 
 const LINKING_ERROR =
@@ -7,8 +7,15 @@ const LINKING_ERROR =
   '- You rebuilt the app after installing the package\n' +
   '- You are not using Expo Go\n';
 
-const RNSqliteLogger = NativeModules.SqliteLogger
-  ? NativeModules.SqliteLogger
+// @ts-expect-error
+const isTurboModuleEnabled = global.__turboModuleProxy != null;
+
+const SqliteLoggerModule = isTurboModuleEnabled
+  ? require('./NativeSqliteLogger').default
+  : NativeModules.SqliteLogger;
+
+const RNSqliteLogger = SqliteLoggerModule
+  ? SqliteLoggerModule
   : new Proxy(
       {},
       {
@@ -26,25 +33,166 @@ export enum LogLevel {
   Error = 50,
 }
 
+/**
+ * Structured fields of a log message, e.g. `{ requestId: 'abc', userId: 42 }` (Android only).
+ * Values are stored as strings.
+ */
+export type LogFields = Record<string, string | number | boolean>;
+
 export interface LogEvent {
   id: number;
   timestamp: number;
   level: LogLevel;
   message: string;
   tag: string | null;
+  /** present only if the log has structured fields **/
+  fields?: Record<string, string>;
+  /** number of identical logs folded into this one by `dedupWindow`, present only if more than one **/
+  repeatCount?: number;
+  /** timestamp of the last folded log, present only with `repeatCount` **/
+  lastTimestamp?: number;
+}
+
+export interface LogSubscription {
+  /**
+   * Stops the subscription.
+   */
+  remove(): void;
+}
+
+export interface SubscribeOptions {
+  /** emit only logs with one of the tags, all tags if empty **/
+  tags?: string[];
+  /** emit only logs with at least this level **/
+  minLevel?: LogLevel;
+  /** time in milliseconds between the emitted batches, default: 250 **/
+  interval?: number;
+  /** number of logs waiting for the consumer that drops the subscription, default: 10000 **/
+  maxPending?: number;
+}
+
+export interface LogsPage {
+  logs: LogEvent[];
+  /**
+   * Continuation token of the next page, `null` if there are no more logs.
+   */
+  next: string | null;
+}
+
+export type DurabilityProfile = 'safe' | 'balanced' | 'fast';
+
+/**
+ * Histogram with power of two buckets, `buckets[i]` counts values lower than `2 ** i`
+ * and not counted by the previous bucket.
+ */
+export type StatsHistogram = {
+  count: number;
+  sum: number;
+  max: number;
+  buckets: number[];
+};
+
+export type LoggerStats = {
+  received: number;
+  written: number;
+  dropped: number;
+  queueDepth: number;
+  peakQueueDepth: number;
+  retentionDeleted: number;
+  /** logs folded into an identical log by `dedupWindow` **/
+  deduplicated: number;
+  /** logs dropped by `rateLimits` per tag **/
+  rateLimited: Record<string, number>;
+  /** duration of the insert calls in microseconds **/
+  insertLatency: StatsHistogram;
+  /** duration of the transaction commits in microseconds **/
+  commitLatency: StatsHistogram;
+  /** number of log messages written by a single insert call **/
+  batchSize: StatsHistogram;
+  /** size of the DB files in bytes **/
+  dbFileSize: number;
+};
+
+export type AggregateGroupBy = 'level' | 'tag' | 'timeBucket';
+
+/**
+ * Number of logs in a group, only the fields of the grouped dimensions are present.
+ */
+export interface LogAggregate {
+  /** start timestamp of the time bucket **/
+  bucket?: number;
+  level?: LogLevel;
+  tag?: string | null;
+  count: number;
 }
 
+export type OperationPriority = 'high' | 'normal' | 'low';
+
+/**
+ * Scheduling of a query or delete (Android only).
+ */
+export interface OperationOptions {
+  /** id to cancel the operation by with {@link SQLiteLoggerImpl.cancel} **/
+  operationId?: string;
+  /** queued operations start by priority, default: 'normal' **/
+  priority?: OperationPriority;
+  /** time in milliseconds the operation must finish in, otherwise it is rejected with `E_TIMEOUT` **/
+  timeout?: number;
+}
+
+/**
+ * Token bucket limit of the logs with a tag.
+ */
+export interface RateLimit {
+  /** logs per second **/
+  rate: number;
+  /** logs accepted at once after a quiet period, default: `rate` **/
+  burst?: number;
+}
+
+export type OverflowPolicy = 'block' | 'dropNewest' | 'dropOldest' | 'shedDebug';
+
 export type LogFormatter = (level: LogLevel, msg: string) => string;
 
 export interface ConfigureOptions {
+  /**
+   * Maximal number of log messages written into the DB in a single transaction (Android only).
+   * Values lower or equal to one disable batching.
+   **/
+  batchSize?: number;
   /**
    * Capture `console.[log|trace|debug|info|warning|error]` invocations and log these messages into the DB.
    **/
   captureConsole?: boolean;
+  /**
+   * Durability of the written logs vs. insert throughput (Android only).
+   * - `safe`: rollback journal, every commit is synced to disk
+   * - `balanced`: WAL journal, survives app crashes, last commits may be lost on power loss
+   * - `fast`: as `balanced` with a bigger page cache and memory mapped I/O
+   * Databases written by earlier versions use the rollback journal, `balanced` and `fast` switch them to WAL.
+   * default: 'balanced'
+   **/
+  durability?: DurabilityProfile;
+  /**
+   * Log messages longer than this number of characters are stored compressed (Android only).
+   * Compressed messages are not full-text indexed. `0` disables compression.
+   * default: 0
+   **/
+  compressThreshold?: number;
+  /**
+   * Compression codec of large log messages, see {@link compressThreshold} (Android only).
+   * default: 'deflate'
+   **/
+  compressCodec?: 'deflate' | 'gzip';
   /**
    * Interval between deleting of the log messages that are older than {@link maxAge}.
    **/
   deleteInterval?: number;
+  /**
+   * Maintain a full-text index over log messages, required by {@link SQLiteLoggerImpl.searchLogs} (Android only).
+   * default: false
+   **/
+  fullTextSearch?: boolean;
   /**
    * Custom log message formatter.
    **/
@@ -65,11 +213,87 @@ export interface ConfigureOptions {
    * Maximal age of the logs to preserve in seconds.
    **/
   maxAge?: number;
+  /**
+   * Maximal size of the log data in the DB file in bytes, oldest logs are deleted first (Android only).
+   * Checked every {@link deleteInterval}.
+   **/
+  maxDbSizeBytes?: number;
+  /**
+   * Maximal number of logs in the DB, oldest logs are deleted first (Android only).
+   * Checked every {@link deleteInterval}.
+   **/
+  maxRowCount?: number;
+  /**
+   * What to do with a new log message when the write queue is full (Android only).
+   * default: 'shedDebug'
+   **/
+  overflowPolicy?: OverflowPolicy;
+  /**
+   * Capacity of the write queue, rounded up to a power of two (Android only).
+   * default: 1024
+   **/
+  queueSize?: number;
+  /**
+   * Storage backend (Android only). `segments` appends binary records to memory-mapped files, which is
+   * the cheapest write but makes queries scan the logs. It does not support {@link fullTextSearch}
+   * and {@link partitionInterval}.
+   * default: 'sqlite'
+   **/
+  storage?: 'sqlite' | 'segments';
+  /**
+   * Length of the time range in seconds stored in a single DB file, e.g. `24 * 60 * 60` for one file per day
+   * (Android only). Expired files are deleted as a whole. A whole number of hours, `0` stores all logs in a single
+   * file. The interval can be changed later, the existing files keep their time ranges. The logs of an existing
+   * single file are moved into the partitions.
+   * default: 0
+   **/
+  partitionInterval?: number;
+  /**
+   * Length of the time buckets in seconds of the log counts maintained on insert for
+   * {@link SQLiteLoggerImpl.aggregateLogs} (Android only, not supported by the `segments` storage).
+   * `0` disables the rollups and aggregations count the stored logs.
+   * default: 0
+   **/
+  rollupInterval?: number;
+  /**
+   * Maximal time in milliseconds a log message waits in a pending batch before it is written (Android only).
+   **/
+  maxBatchDelay?: number;
+  /**
+   * Identical log messages (same tag, level, message and fields) within this time in milliseconds are written
+   * as a single row with a repeat count (Android only). The first message is written right away, the count of
+   * the later copies is added to it within the window. `0` disables deduplication.
+   * default: 0
+   **/
+  dedupWindow?: number;
+  /**
+   * Rate limits of the log messages per tag (Android only), messages over the limit are dropped
+   * and counted in {@link SQLiteLoggerImpl.getStats}.
+   **/
+  rateLimits?: Record<string, RateLimit>;
   /**
    * Log message tag filtering regex - conforming (iOS only)
    * default: '^(\\d{10,}|main)$' - 10+ digits numeric string or "main"
    */
   tagRegex?: string;
+  /**
+   * Maximal number of log messages buffered in JS before they are sent to the native side in one call.
+   * Values lower or equal to one disable buffering and every message is sent immediately.
+   * default: 1
+   **/
+  writeBufferSize?: number;
+  /**
+   * Maximal time in milliseconds a log message stays in the JS write buffer.
+   * default: 500
+   **/
+  writeBufferInterval?: number;
+  /**
+   * Pass log messages to the native side with synchronous calls, which go through JSI on the new
+   * architecture instead of the asynchronous bridge queue. The JS thread only waits until
+   * the messages are queued, not until they are written into the DB.
+   * default: false
+   **/
+  syncWrite?: boolean;
   /**
    * Log message tag default override (iOS only)
    * default: "main"
@@ -79,16 +303,43 @@ export interface ConfigureOptions {
 
 export interface LogOptions {
   tag: string | undefined;
+  fields?: LogFields;
 }
 
 function isLogOptions(obj: any): obj is LogOptions {
-  return obj && typeof obj === 'object' && 'tag' in obj;
+  return obj && typeof obj === 'object' && ('tag' in obj || 'fields' in obj);
 }
 
+function toFieldStrings(fields: LogFields | undefined): Record<string, string> | null {
+  if (!fields) {
+    return null;
+  }
+  const result: Record<string, string> = {};
+  let empty = true;
+  for (const name of Object.keys(fields)) {
+    const value = fields[name];
+    if (value !== undefined && value !== null) {
+      result[name] = String(value);
+      empty = false;
+    }
+  }
+  return empty ? null : result;
+}
+
+// [timestamp, level, message, tag, fields]
+type BufferedLogEntry = [number, LogLevel, string, string | null, Record<string, string> | null];
+
 class SQLiteLoggerImpl {
   private _logLevel = LogLevel.Debug;
+  private _tagLevels: Map<string, LogLevel> = new Map();
   private _formatter = defaultFormatter;
   private _defaultTag = 'main';
+  private _writeBuffer: BufferedLogEntry[] = [];
+  private _writeBufferCount = 0;
+  private _writeBufferInterval = 500;
+  private _writeBufferTimer: ReturnType<typeof setTimeout> | null = null;
+  private _syncWrite = false;
+  private _eventEmitter: NativeEventEmitter | null = null;
   private _originalConsole: {
 		debug: typeof console.debug;
 		log: typeof console.log;
@@ -106,17 +357,57 @@ class SQLiteLoggerImpl {
       logLevel = LogLevel.Debug,
       maxAge,
       deleteInterval,
+      batchSize,
+      maxBatchDelay,
+      durability,
+      maxDbSizeBytes,
+      maxRowCount,
+      partitionInterval,
+      rollupInterval,
+      queueSize,
+      overflowPolicy,
+      storage,
+      fullTextSearch,
+      compressThreshold,
+      compressCodec,
+      dedupWindow,
+      rateLimits,
+      writeBufferSize = 1,
+      writeBufferInterval = 500,
+      syncWrite = false,
     } = options;
 
+    await this.flush();
+
     await RNSqliteLogger.configure({
+      batchSize,
+      compressCodec,
+      compressThreshold,
+      dedupWindow,
       deleteInterval,
+      durability,
+      fullTextSearch,
       logFileDir,
       logFileName,
+      logLevel,
       maxAge,
+      maxBatchDelay,
+      maxDbSizeBytes,
+      maxRowCount,
+      overflowPolicy,
+      partitionInterval,
+      queueSize,
+      rateLimits,
+      rollupInterval,
+      storage,
     });
 
     this._logLevel = logLevel;
     this._formatter = formatter;
+    this._writeBuffer = new Array(Math.max(writeBufferSize, 1));
+    this._writeBufferCount = 0;
+    this._writeBufferInterval = writeBufferInterval;
+    this._syncWrite = syncWrite;
 
     if (captureConsole) {
       this.enableConsoleCapture();
@@ -135,7 +426,7 @@ class SQLiteLoggerImpl {
 
   handleLogOp(type: 'debug'|'info'|'warn'|'error', ...args: any[]) {
       if (isLogOptions(args[0])) {
-        this[type](util.format(...args.slice(1)), args[0].tag);
+        this[type](util.format(...args.slice(1)), args[0].tag, args[0].fields);
         this._originalConsole?.[type](...args.slice(1));
       } else {
         this[type](util.format(...args), this._defaultTag);
@@ -189,6 +480,24 @@ class SQLiteLoggerImpl {
 
   setLogLevel(logLevel: LogLevel) {
     this._logLevel = logLevel;
+    RNSqliteLogger.setLogLevel(logLevel);
+  }
+
+  /**
+   * Sets the minimum level of log messages with the tag, overriding {@link setLogLevel}.
+   * Tags are matched exactly, `null` removes the tag level.
+   */
+  setTagLevel(tag: string, logLevel: LogLevel | null) {
+    if (logLevel === null) {
+      this._tagLevels.delete(tag);
+    } else {
+      this._tagLevels.set(tag, logLevel);
+    }
+    RNSqliteLogger.setTagLevel(tag, logLevel);
+  }
+
+  getTagLevel(tag: string): LogLevel {
+    return this._tagLevels.get(tag) ?? this._logLevel;
   }
 
   getLogLevel(): LogLevel {
@@ -199,56 +508,255 @@ class SQLiteLoggerImpl {
     return RNSqliteLogger.setTagOverride(tag);
   }
 
-  getLogs(options: {
+  async getLogs(options: {
     start?: number;
     end?: number;
     level?: LogLevel;
     tags?: string[];
+    /** only logs with all the fields equal to the values (Android only) **/
+    fields?: LogFields;
     limit?: number;
     order?: 'asc' | 'desc';
     explicitLevel?: boolean;
-  }): Promise<LogEvent[]> {
+  } & OperationOptions): Promise<LogEvent[]> {
+    await this.flush();
     return RNSqliteLogger.getLogs({
       ...options,
+      fields: toFieldStrings(options.fields),
+      explicitLevel: options.explicitLevel ? 1 : 0
+    });
+  }
+
+  /**
+   * Fetch a single page of logs ordered by timestamp (Android only).
+   * Pass the returned `next` token as `after` to fetch the following page.
+   */
+  async getLogsPage(options: {
+    start?: number;
+    end?: number;
+    level?: LogLevel;
+    tags?: string[];
+    fields?: LogFields;
+    order?: 'asc' | 'desc';
+    explicitLevel?: boolean;
+    pageSize?: number;
+    after?: string | null;
+  } & OperationOptions): Promise<LogsPage> {
+    await this.flush();
+    return RNSqliteLogger.getLogsPage({
+      ...options,
+      fields: toFieldStrings(options.fields),
+      explicitLevel: options.explicitLevel ? 1 : 0
+    });
+  }
+
+  /**
+   * Counts the logs per level, tag and/or time bucket in SQL (Android only). With the `rollupInterval`
+   * option the counts are read from rollup tables, so the cost depends on the number of buckets
+   * instead of the number of logs.
+   */
+  async aggregateLogs(options: {
+    groupBy: AggregateGroupBy | AggregateGroupBy[];
+    /** length of the time buckets in seconds **/
+    bucketInterval?: number;
+    start?: number;
+    end?: number;
+    level?: LogLevel;
+    tags?: string[];
+    fields?: LogFields;
+    explicitLevel?: boolean;
+  } & OperationOptions): Promise<LogAggregate[]> {
+    await this.flush();
+    return RNSqliteLogger.aggregateLogs({
+      ...options,
+      fields: toFieldStrings(options.fields),
+      groupBy: Array.isArray(options.groupBy) ? options.groupBy : [options.groupBy],
+      explicitLevel: options.explicitLevel ? 1 : 0
+    });
+  }
+
+  /**
+   * Live tail of the written logs (Android only). New logs matching the filters are passed to `onLogs`
+   * in batches every `interval`. The next batch is not emitted before `onLogs` returns (or the promise
+   * it returns settles), logs written meanwhile are added to it. When more than `maxPending` logs
+   * wait for a slow consumer, the subscription is dropped and `onDropped` is called.
+   */
+  async subscribe(
+    options: SubscribeOptions,
+    onLogs: (logs: LogEvent[]) => void | Promise<void>,
+    onDropped?: () => void
+  ): Promise<LogSubscription> {
+    if (this._eventEmitter === null) {
+      this._eventEmitter = new NativeEventEmitter(RNSqliteLogger);
+    }
+    const id: number = await RNSqliteLogger.subscribe(options);
+    const logsListener = this._eventEmitter.addListener('SqliteLoggerLogs', (event) => {
+      if (event.subscription === id) {
+        Promise.resolve()
+          .then(() => onLogs(event.logs))
+          .finally(() => RNSqliteLogger.acknowledgeLogs(id));
+      }
+    });
+    const droppedListener = this._eventEmitter.addListener('SqliteLoggerSubscriptionDropped', (event) => {
+      if (event.subscription === id) {
+        subscription.remove();
+        onDropped?.();
+      }
+    });
+    const subscription = {
+      remove() {
+        logsListener.remove();
+        droppedListener.remove();
+        RNSqliteLogger.unsubscribe(id);
+      },
+    };
+    return subscription;
+  }
+
+  /**
+   * Full-text search over log messages (Android only, requires the `fullTextSearch` option).
+   * Results are ordered by relevance unless `order` is given.
+   */
+  async searchLogs(options: {
+    query: string;
+    start?: number;
+    end?: number;
+    level?: LogLevel;
+    tags?: string[];
+    fields?: LogFields;
+    limit?: number;
+    order?: 'relevance' | 'asc' | 'desc';
+    explicitLevel?: boolean;
+  } & OperationOptions): Promise<LogEvent[]> {
+    await this.flush();
+    return RNSqliteLogger.searchLogs({
+      ...options,
+      fields: toFieldStrings(options.fields),
+      explicitLevel: options.explicitLevel ? 1 : 0
+    });
+  }
+
+  /**
+   * Export logs into a gzip-compressed NDJSON or CSV file in the app cache directory (Android only).
+   * Resolves with the absolute path of the file. Only the 3 latest previous exports are kept.
+   */
+  async exportLogs(options: {
+    start?: number;
+    end?: number;
+    level?: LogLevel;
+    tags?: string[];
+    fields?: LogFields;
+    order?: 'asc' | 'desc';
+    explicitLevel?: boolean;
+    format?: 'ndjson' | 'csv';
+  } & OperationOptions = {}): Promise<string> {
+    await this.flush();
+    return RNSqliteLogger.exportLogs({
+      ...options,
+      fields: toFieldStrings(options.fields),
       explicitLevel: options.explicitLevel ? 1 : 0
     });
   }
 
-  deleteLogs(options: {
+  async deleteLogs(options: {
     start?: number;
     end?: number;
     maxId?: number;
-  }): Promise<void> {
+  } & OperationOptions): Promise<void> {
+    await this.flush();
     return RNSqliteLogger.deleteLogs(options);
   }
 
+  /**
+   * Cancel a queued or running operation started with the `operationId` option (Android only).
+   * Its promise is rejected with the `E_CANCELLED` code.
+   * @returns false if there is no such operation
+   */
+  cancel(operationId: string): Promise<boolean> {
+    return RNSqliteLogger.cancel(operationId);
+  }
+
+  /**
+   * Send all buffered log messages to the native side and write all pending batches into the DB.
+   */
+  async flush(): Promise<void> {
+    this.flushWriteBuffer();
+    await RNSqliteLogger.flush();
+  }
+
+  private flushWriteBuffer() {
+    if (this._writeBufferTimer !== null) {
+      clearTimeout(this._writeBufferTimer);
+      this._writeBufferTimer = null;
+    }
+    if (this._writeBufferCount > 0) {
+      const batch = this._writeBuffer.slice(0, this._writeBufferCount);
+      this._writeBuffer.fill(undefined as any, 0, this._writeBufferCount);
+      this._writeBufferCount = 0;
+      if (this._syncWrite) {
+        RNSqliteLogger.writeBatchSync(batch);
+      } else {
+        RNSqliteLogger.writeBatch(batch);
+      }
+    }
+  }
+
+  /**
+   * Path of the DB log file. With {@link ConfigureOptions.partitionInterval} or the `segments` storage the logs
+   * are kept in several files and the path of their directory is returned instead.
+   */
   getDbFilePath(): Promise<string> {
     return RNSqliteLogger.getDbFilePath();
   }
 
-  trace(msg: string, tag?: string) {
-    this.write(LogLevel.Trace, msg, tag);
+  /**
+   * Counters of the logging pipeline since {@link configure} (Android only).
+   */
+  getStats(): Promise<LoggerStats> {
+    return RNSqliteLogger.getStats();
+  }
+
+  trace(msg: string, tag?: string, fields?: LogFields) {
+    this.write(LogLevel.Trace, msg, tag, fields);
   }
 
-  debug(msg: string, tag?: string) {
-    this.write(LogLevel.Debug, msg, tag);
+  debug(msg: string, tag?: string, fields?: LogFields) {
+    this.write(LogLevel.Debug, msg, tag, fields);
   }
 
-  info(msg: string, tag?: string) {
-    this.write(LogLevel.Info, msg, tag);
+  info(msg: string, tag?: string, fields?: LogFields) {
+    this.write(LogLevel.Info, msg, tag, fields);
   }
 
-  warn(msg: string, tag?: string) {
-    this.write(LogLevel.Warning, msg, tag);
+  warn(msg: string, tag?: string, fields?: LogFields) {
+    this.write(LogLevel.Warning, msg, tag, fields);
   }
 
-  error(msg: string, tag?: string) {
-    this.write(LogLevel.Error, msg, tag);
+  error(msg: string, tag?: string, fields?: LogFields) {
+    this.write(LogLevel.Error, msg, tag, fields);
   }
 
-  write(level: LogLevel, msg: string, tag?: string) {
-    if (this._logLevel <= level) {
-      RNSqliteLogger.write(level, this._formatter(level, msg), tag);
+  /**
+   * @param fields structured fields stored with the message and queryable by `getLogs` (Android only)
+   */
+  write(level: LogLevel, msg: string, tag?: string, fields?: LogFields) {
+    const threshold = this._tagLevels.size === 0 ? this._logLevel : this.getTagLevel(tag ?? 'main');
+    if (threshold <= level) {
+      const fieldStrings = toFieldStrings(fields);
+      if (this._writeBuffer.length <= 1) {
+        if (this._syncWrite) {
+          RNSqliteLogger.writeSync(level, this._formatter(level, msg), tag ?? null, fieldStrings);
+        } else {
+          RNSqliteLogger.write(level, this._formatter(level, msg), tag ?? null, fieldStrings);
+        }
+        return;
+      }
+      this._writeBuffer[this._writeBufferCount++] = [Date.now(), level, this._formatter(level, msg), tag ?? null, fieldStrings];
+      if (this._writeBufferCount >= this._writeBuffer.length) {
+        this.flushWriteBuffer();
+      } else if (this._writeBufferTimer === null) {
+        this._writeBufferTimer = setTimeout(() => this.flushWriteBuffer(), this._writeBufferInterval);
+      }
     }
   }
 